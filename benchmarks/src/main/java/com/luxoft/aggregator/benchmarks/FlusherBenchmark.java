@@ -0,0 +1,79 @@
+package com.luxoft.aggregator.benchmarks;
+
+import com.luxoft.aggregator.AsyncFlusher;
+import com.luxoft.aggregator.Flusher;
+import com.luxoft.aggregator.InstrumentPrice;
+import com.luxoft.aggregator.InstrumentPriceParser;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures writing prices to a stream discarding written bytes, the score is in prices per second.
+ * @author Dmitry Dobrynin
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Daggregator.metrics=false")
+@OperationsPerInvocation(FlusherBenchmark.PRICES)
+public class FlusherBenchmark {
+    static final int PRICES = 1024;
+
+    InstrumentPrice[] prices = new InstrumentPrice[PRICES];
+    Flusher flusher;
+    AsyncFlusher asyncFlusher;
+
+    @Setup
+    public void setUp() {
+        InstrumentPriceParser parser = new InstrumentPriceParser();
+        String[] lines = new PriceLines(100, 1).next(PRICES);
+        for (int i = 0; i < PRICES; i++)
+            prices[i] = parser.parseFrom(lines[i]);
+
+        flusher = new Flusher(new OutputStream() {
+            public void write(int b) {
+            }
+
+            public void write(byte[] b, int off, int len) {
+            }
+        });
+        asyncFlusher = new AsyncFlusher(new WritableByteChannel() {
+            public int write(ByteBuffer src) {
+                int written = src.remaining();
+                src.position(src.limit());
+                return written;
+            }
+
+            public boolean isOpen() {
+                return true;
+            }
+
+            public void close() {
+            }
+        });
+    }
+
+    @TearDown
+    public void tearDown() {
+        flusher.onCompleted();
+        asyncFlusher.onCompleted();
+    }
+
+    @Benchmark
+    public void flusher() {
+        for (InstrumentPrice price : prices)
+            flusher.onNext(price);
+    }
+
+    @Benchmark
+    public void asyncFlusher() {
+        for (InstrumentPrice price : prices)
+            asyncFlusher.onNext(price);
+    }
+}
@@ -0,0 +1,92 @@
+package com.luxoft.aggregator.benchmarks;
+
+import com.luxoft.aggregator.Aggregator;
+import com.luxoft.aggregator.PriceFileGenerator;
+import com.luxoft.aggregator.StreamDriver;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures full runs of the stream driver over a file generated by PriceFileGenerator. Multiplied prices and results
+ * are discarded, so neither the disk nor the console are measured. Amount of processed records per second is reported
+ * as the records counter, shards set to 0 run calculations on the reading thread.
+ * @author Dmitry Dobrynin
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 10)
+@Measurement(iterations = 5, time = 10)
+@Fork(value = 1, jvmArgsAppend = "-Daggregator.metrics=false")
+public class IngestBenchmark {
+    @Param("64m")
+    String size;
+
+    @Param({"10", "10000"})
+    int instruments;
+
+    @Param({"0", "1.1"})
+    double skew;
+
+    @Param({"0", "4"})
+    int shards;
+
+    Path file;
+    long records;
+    WritableByteChannel discarded = new WritableByteChannel() {
+        public int write(ByteBuffer src) {
+            int written = src.remaining();
+            src.position(src.limit());
+            return written;
+        }
+
+        public boolean isOpen() {
+            return true;
+        }
+
+        public void close() {
+        }
+    };
+    PrintStream results = new PrintStream(new OutputStream() {
+        public void write(int b) {
+        }
+
+        public void write(byte[] b, int off, int len) {
+        }
+    });
+
+    /**
+     * Counts processed records.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Counters {
+        public long records;
+    }
+
+    @Setup
+    public void setUp() throws IOException {
+        file = Files.createTempFile("prices-", ".txt");
+        records = new PriceFileGenerator().instruments(instruments).skew(skew)
+                .generate(file, PriceFileGenerator.size(size));
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(file);
+    }
+
+    @Benchmark
+    public void streamDriver(Counters counters) throws IOException {
+        new StreamDriver(new Aggregator(file.toString()), shards).output(discarded, results).run();
+        counters.records += records;
+    }
+}
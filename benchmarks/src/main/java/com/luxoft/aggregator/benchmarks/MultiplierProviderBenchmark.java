@@ -0,0 +1,71 @@
+package com.luxoft.aggregator.benchmarks;
+
+import com.luxoft.aggregator.InstrumentDictionary;
+import com.luxoft.aggregator.InstrumentPriceUtilities;
+import com.luxoft.aggregator.MultiplierProvider;
+import com.luxoft.aggregator.SnapshotMultiplierProvider;
+import org.openjdk.jmh.annotations.*;
+
+import javax.sql.DataSource;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures looking multipliers up when they are cached, not cached, expired and taken from a snapshot.
+ * @author Dmitry Dobrynin
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Daggregator.metrics=false")
+public class MultiplierProviderBenchmark {
+    static final String KNOWN = "INSTRUMENT1";
+    static final String UNKNOWN = "INSTRUMENT-UNKNOWN";
+
+    MultiplierProvider provider;
+    MultiplierProvider expiring;
+    SnapshotMultiplierProvider snapshot;
+    int known = InstrumentDictionary.shared().idOf(KNOWN);
+    int unknown = InstrumentDictionary.shared().idOf(UNKNOWN);
+
+    @Setup
+    public void setUp() throws IOException {
+        DataSource dataSource = InstrumentPriceUtilities.createDataSource("jdbc:h2:mem:benchmark;DB_CLOSE_DELAY=-1");
+        provider = new MultiplierProvider(dataSource);
+        expiring = new MultiplierProvider(dataSource, 0, TimeUnit.MILLISECONDS);
+        snapshot = new SnapshotMultiplierProvider(dataSource);
+    }
+
+    @TearDown
+    public void tearDown() {
+        snapshot.close();
+    }
+
+    @Benchmark
+    public Optional<BigDecimal> hit() {
+        return provider.multiplierFor(known);
+    }
+
+    @Benchmark
+    public Optional<BigDecimal> miss() {
+        provider.invalidateCachedInstrument(UNKNOWN);
+        return provider.multiplierFor(unknown);
+    }
+
+    /**
+     * Looks the multiplier up in a cache expiring it at once, so every lookup reloads it.
+     */
+    @Benchmark
+    public Optional<BigDecimal> expiry() {
+        return expiring.multiplierFor(known);
+    }
+
+    @Benchmark
+    public Optional<BigDecimal> snapshot() {
+        return snapshot.multiplierFor(known);
+    }
+}
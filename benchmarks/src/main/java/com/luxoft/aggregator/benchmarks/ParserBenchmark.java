@@ -0,0 +1,44 @@
+package com.luxoft.aggregator.benchmarks;
+
+import com.luxoft.aggregator.InstrumentPriceParser;
+import com.luxoft.aggregator.ParsedPrice;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures parsing lines to instrument prices and parsing them in place, the score is in lines per second.
+ * @author Dmitry Dobrynin
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Daggregator.metrics=false")
+@OperationsPerInvocation(ParserBenchmark.LINES)
+public class ParserBenchmark {
+    static final int LINES = 1024;
+
+    InstrumentPriceParser parser = new InstrumentPriceParser();
+    ParsedPrice parsed = new ParsedPrice();
+    String[] lines;
+
+    @Setup
+    public void setUp() {
+        lines = new PriceLines(100, 1).next(LINES);
+    }
+
+    @Benchmark
+    public void parseFrom(Blackhole blackhole) {
+        for (String line : lines)
+            blackhole.consume(parser.parseFrom(line));
+    }
+
+    @Benchmark
+    public void parseInPlace(Blackhole blackhole) {
+        for (String line : lines)
+            blackhole.consume(parser.parse(line, 0, line.length(), parsed));
+    }
+}
@@ -0,0 +1,41 @@
+package com.luxoft.aggregator.benchmarks;
+
+import com.luxoft.aggregator.InstrumentPriceUtilities;
+
+import java.time.LocalDate;
+import java.util.Random;
+
+/**
+ * Generates lines of input files having the same format as example_input.txt.
+ * @author Dmitry Dobrynin
+ */
+public class PriceLines {
+    private static final LocalDate FIRST_DATE = LocalDate.of(1996, 1, 1);
+    private static final int DAYS = (int) (LocalDate.of(2014, 12, 31).toEpochDay() - FIRST_DATE.toEpochDay());
+
+    private final Random random;
+    private final int instruments;
+
+    /**
+     * Creates a generator.
+     * @param instruments specifies amount of distinct instruments, INSTRUMENT1 is the first one
+     * @param seed specifies seed making lines reproducible
+     */
+    public PriceLines(int instruments, long seed) {
+        this.instruments = instruments;
+        random = new Random(seed);
+    }
+
+    public String next() {
+        return "INSTRUMENT" + (random.nextInt(instruments) + 1) + ',' +
+                FIRST_DATE.plusDays(random.nextInt(DAYS)).format(InstrumentPriceUtilities.DATE_FORMATTER) + ',' +
+                random.nextInt(1000) + '.' + String.format("%09d", random.nextInt(1_000_000_000));
+    }
+
+    public String[] next(int count) {
+        String[] lines = new String[count];
+        for (int i = 0; i < count; i++)
+            lines[i] = next();
+        return lines;
+    }
+}
@@ -0,0 +1,80 @@
+package com.luxoft.aggregator.benchmarks;
+
+import com.luxoft.aggregator.*;
+import org.openjdk.jmh.annotations.*;
+import rx.Observable;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures reductions of prices and their batch and fixed point counterparts, the score is in prices per second.
+ * @author Dmitry Dobrynin
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Daggregator.metrics=false")
+@OperationsPerInvocation(ReductionBenchmark.PRICES)
+public class ReductionBenchmark {
+    static final int PRICES = 100_000;
+
+    Observable<InstrumentPrice> prices;
+    Observable<PriceBatch> batches;
+
+    @Setup
+    public void setUp() {
+        InstrumentPriceParser parser = new InstrumentPriceParser();
+        List<InstrumentPrice> parsed = new ArrayList<>(PRICES);
+        List<PriceBatch> collected = new ArrayList<>();
+        for (String line : new PriceLines(100, 1).next(PRICES)) {
+            InstrumentPrice price = parser.parseFrom(line);
+            parsed.add(price);
+            if (collected.isEmpty() || collected.get(collected.size() - 1).isFull())
+                collected.add(new PriceBatch(PriceBatch.DEFAULT_CAPACITY));
+            collected.get(collected.size() - 1).add(price);
+        }
+        prices = Observable.from(parsed);
+        batches = Observable.from(collected);
+    }
+
+    @Benchmark
+    public BigDecimal mean() {
+        return InstrumentPriceUtilities.mean(prices).toBlocking().single();
+    }
+
+    @Benchmark
+    public BigDecimal max() {
+        return InstrumentPriceUtilities.max(prices).toBlocking().single();
+    }
+
+    @Benchmark
+    public List<InstrumentPrice> mostRelevant() {
+        return InstrumentPriceUtilities.mostRelevant(prices, 10, (p1, p2) -> p1.getDate().compareTo(p2.getDate()))
+                .toList().toBlocking().single();
+    }
+
+    @Benchmark
+    public long fixedPointMean() {
+        return InstrumentPriceUtilities.mean(prices, new FixedPoint(PriceBatch.PRICE_SCALE)).toBlocking().single();
+    }
+
+    @Benchmark
+    public BigDecimal batchMean() {
+        return PriceBatches.mean(batches).toBlocking().single();
+    }
+
+    @Benchmark
+    public BigDecimal batchMax() {
+        return PriceBatches.max(batches).toBlocking().single();
+    }
+
+    @Benchmark
+    public List<Tuple<String, BigDecimal>> batchNewestSums() {
+        return PriceBatches.newestSums(batches, 10).toList().toBlocking().single();
+    }
+}
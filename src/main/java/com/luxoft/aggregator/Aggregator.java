@@ -4,26 +4,34 @@ import java.io.*;
 import rx.Observable;
 import rx.observables.*;
 import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.function.Function;
 
 /**
- * Aggregates information on instruments from the specified file.
+ * Aggregates information on instruments from the specified file. Calculations can be attached either to a stream of
+ * instrument prices or to a stream of reused price batches, whichever the source provides the other is derived from.
+ * Lines which could not be parsed are rejected to the shared {@link ParseErrors}.
  * @author Dmitry Dobrynin
  */
 public class Aggregator {
-    private ConnectableObservable<String> stream;
+    private ConnectableObservable<?> stream;
 
-    Observable<Either<InstrumentPrice, Tuple<String, Exception>>> parsed =
-            Observable.defer(() -> stream.map(new InstrumentPriceParser()));
+    private Observable<InstrumentPrice> prices;
 
-    Observable<Tuple<String, Exception>> failedToParse =
-            Observable.defer(() -> parsed.filter(Either::isRight).map(Either::right));
-
-    private Observable<InstrumentPrice> prices =
-            Observable.defer(() -> parsed.filter(Either::isLeft).map(Either::left));
+    private Observable<PriceBatch> batches;
 
     public Aggregator(ConnectableObservable<String> stream) {
         this.stream = stream;
+        prices = stream.map(new InstrumentPriceParser()).filter(Either::isLeft).map(Either::left).publish().refCount();
+        batches = prices.lift(PriceBatch.collect(PriceBatch.DEFAULT_CAPACITY));
+    }
+
+    public Aggregator(PriceSource source) {
+        ConnectableObservable<PriceBatch> stream = source.batches();
+        this.stream = stream;
+        prices = stream.lift(PriceBatch.prices());
+        batches = stream;
     }
 
     public Aggregator(InputStream inputStream) {
@@ -33,18 +41,37 @@ public class Aggregator {
         );
     }
 
-    public Aggregator(String fileName) throws FileNotFoundException {
-        this(new FileInputStream(fileName));
+    /**
+     * Aggregates a file, all files of a directory or the files matching a glob, gzip compressed files are recognized
+     * by the .gz extension.
+     * @param fileName specifies file name, directory or glob
+     * @throws IOException if there is no such file or the directory could not be listed
+     */
+    public Aggregator(String fileName) throws IOException {
+        this(source(fileName));
     }
 
-    public Observable<Tuple<String, Exception>> failedToParse() {
-        return failedToParse;
+    private static PriceSource source(String fileName) throws IOException {
+        if (MultiFileSource.isMultiple(fileName)) return MultiFileSource.of(fileName);
+        if (!new File(fileName).isFile()) throw new FileNotFoundException(fileName);
+        Path path = Paths.get(fileName);
+        return GzipSource.isCompressed(path) ? new GzipSource(path) : new MappedFileSource(path);
     }
 
     public <R> R attach(Function<Observable<InstrumentPrice>, R> attachment) {
         return attachment.apply(prices);
     }
 
+    /**
+     * Attaches a calculation to batches of prices, batches are reused and valid only while they are being emitted.
+     * @param attachment specifies calculation
+     * @param <R> type of result
+     * @return result of the attachment
+     */
+    public <R> R attachBatches(Function<Observable<PriceBatch>, R> attachment) {
+        return attachment.apply(batches);
+    }
+
     public void consumeStream() {
         stream.connect();
     }
@@ -0,0 +1,234 @@
+package com.luxoft.aggregator;
+
+import com.google.common.base.Throwables;
+import rx.Subscriber;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Consumes instrument prices and stores them to a channel the same way {@link Flusher} does. Lines are encoded
+ * straight to pooled direct buffers, full buffers are handed over a bounded queue to a writer thread, so the
+ * consuming thread neither formats strings nor waits for the disk unless the writer falls behind. The channel is
+ * closed after all lines have been written when the stream completes or fails.
+ * @author Dmitry Dobrynin
+ */
+public class AsyncFlusher extends Subscriber<InstrumentPrice> {
+    public static final int DEFAULT_BUFFER_SIZE = 64 << 10;
+    public static final int DEFAULT_BUFFERS = 8;
+    private static final ByteBuffer END = ByteBuffer.allocate(0);
+    private static final byte[][] MONTHS = new byte[13][];
+    private static final byte[] DIGIT_PAIRS = new byte[200];
+    private static final int MAX_PLAIN_PRICE_LENGTH = 48;
+
+    static {
+        for (int month = 1; month <= 12; month++)
+            MONTHS[month] = LocalDate.of(2000, month, 1).format(InstrumentPriceUtilities.DATE_FORMATTER)
+                    .substring(3, 6).getBytes(StandardCharsets.UTF_8);
+        for (int i = 0; i < 100; i++) {
+            DIGIT_PAIRS[2 * i] = (byte) ('0' + i / 10);
+            DIGIT_PAIRS[2 * i + 1] = (byte) ('0' + i % 10);
+        }
+    }
+
+    private final WritableByteChannel channel;
+    private final BlockingQueue<ByteBuffer> filled;
+    private final BlockingQueue<ByteBuffer> emptied;
+    private final Thread writer;
+    private final String queue;
+    private final byte[] digits = new byte[20];
+    private byte[][] names = new byte[0][];
+    private ByteBuffer current;
+    private volatile Throwable failure;
+    private boolean closed;
+
+    public AsyncFlusher(WritableByteChannel channel) {
+        this(channel, DEFAULT_BUFFER_SIZE, DEFAULT_BUFFERS);
+    }
+
+    /**
+     * Creates a flusher and starts its writer thread.
+     * @param channel specifies channel to write to
+     * @param bufferSize specifies size of a buffer
+     * @param buffers specifies amount of buffers waiting for the writer at most
+     */
+    public AsyncFlusher(WritableByteChannel channel, int bufferSize, int buffers) {
+        if (bufferSize < MAX_PLAIN_PRICE_LENGTH || buffers <= 0)
+            throw new IllegalArgumentException(String.format("Invalid buffer size %s or buffers %s!", bufferSize, buffers));
+        this.channel = channel;
+        filled = new ArrayBlockingQueue<>(buffers + 1);
+        emptied = new ArrayBlockingQueue<>(buffers + 1);
+        for (int i = 0; i < buffers; i++)
+            emptied.add(ByteBuffer.allocateDirect(bufferSize));
+        current = ByteBuffer.allocateDirect(bufferSize);
+        writer = new Thread(this::write, "flusher");
+        writer.setDaemon(true);
+        writer.start();
+        queue = PipelineMetrics.shared().registerQueue("flusher", filled::size);
+    }
+
+    public void onCompleted() {
+        close();
+    }
+
+    public void onError(Throwable e) {
+        close();
+    }
+
+    public void onNext(InstrumentPrice price) {
+        try {
+            checkFailure();
+            byte[] name = name(price.getInstrumentId());
+            if (current.remaining() < name.length + MAX_PLAIN_PRICE_LENGTH) handOver(name.length + MAX_PLAIN_PRICE_LENGTH);
+            current.put(name);
+            putDate(price.getDate());
+            current.put((byte) ',');
+            putPrice(price.getPrice());
+            current.put((byte) '\n');
+            PipelineMetrics.shared().increment(PipelineMetrics.Counter.RECORDS_WRITTEN);
+        } catch (IOException | InterruptedException e) {
+            e.printStackTrace();
+            close();
+            Throwables.propagate(e);
+        }
+    }
+
+    private byte[] name(int instrumentId) {
+        if (instrumentId >= names.length) names = Arrays.copyOf(names, Math.max(instrumentId + 1, names.length * 2));
+        byte[] name = names[instrumentId];
+        if (name == null)
+            names[instrumentId] = name = (InstrumentDictionary.shared().nameOf(instrumentId) + ',')
+                    .getBytes(StandardCharsets.UTF_8);
+        return name;
+    }
+
+    private void putDate(LocalDate date) throws IOException, InterruptedException {
+        int year = date.getYear();
+        if (year < 1000 || year > 9999) {
+            putString(date.format(InstrumentPriceUtilities.DATE_FORMATTER), MAX_PLAIN_PRICE_LENGTH);
+            return;
+        }
+        current.put(DIGIT_PAIRS, 2 * date.getDayOfMonth(), 2).put((byte) '-')
+                .put(MONTHS[date.getMonthValue()]).put((byte) '-')
+                .put(DIGIT_PAIRS, 2 * (year / 100), 2).put(DIGIT_PAIRS, 2 * (year % 100), 2);
+    }
+
+    /**
+     * Writes the price as {@link BigDecimal#toString()} does, a price is written in plain notation without creating
+     * a string unless it requires exponential notation or does not fit a long.
+     */
+    private void putPrice(BigDecimal price) throws IOException, InterruptedException {
+        int scale = price.scale();
+        BigInteger unscaledValue = price.unscaledValue();
+        if (scale < 0 || unscaledValue.bitLength() >= 64) {
+            putString(price.toString(), 1);
+            return;
+        }
+        long unscaled = unscaledValue.longValue();
+        int length = 0;
+        for (long rest = Math.abs(unscaled); length == 0 || rest != 0; rest /= 10)
+            digits[length++] = (byte) ('0' + Math.abs(rest % 10));
+        if (length - 1 - scale < -6) {
+            putString(price.toString(), 1);
+            return;
+        }
+        if (unscaled < 0) current.put((byte) '-');
+        if (scale >= length) {
+            current.put((byte) '0').put((byte) '.');
+            for (int i = scale - length; i > 0; i--)
+                current.put((byte) '0');
+        }
+        for (int i = length - 1; i >= 0; i--) {
+            current.put(digits[i]);
+            if (i == scale && i > 0) current.put((byte) '.');
+        }
+    }
+
+    /**
+     * Writes a string making room for it along with the rest of the line.
+     * @param following specifies amount of bytes of the line following the string at most
+     */
+    private void putString(String value, int following) throws IOException, InterruptedException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        if (current.remaining() < bytes.length + following) handOver(bytes.length + following);
+        current.put(bytes);
+    }
+
+    /**
+     * Hands the current buffer over to the writer and takes an empty one which has enough room.
+     */
+    private void handOver(int required) throws IOException, InterruptedException {
+        current.flip();
+        filled.put(current);
+        current = emptied.take();
+        checkFailure();
+        if (current.capacity() < required) {
+            emptied.put(current);
+            current = ByteBuffer.allocate(required);
+        }
+    }
+
+    private void checkFailure() throws IOException {
+        if (failure != null) throw new IOException("Could not write prices!", failure);
+    }
+
+    private void close() {
+        if (closed) return;
+        closed = true;
+        PipelineMetrics.shared().unregisterQueue(queue);
+        try {
+            current.flip();
+            filled.put(current);
+            filled.put(END);
+            writer.join();
+            channel.close();
+            checkFailure();
+        } catch (IOException | InterruptedException e) {
+            e.printStackTrace();
+            Throwables.propagate(e);
+        }
+    }
+
+    private void write() {
+        try {
+            PipelineMetrics metrics = PipelineMetrics.shared();
+            for (ByteBuffer buffer = filled.take(); buffer != END; buffer = filled.take()) {
+                long started = PipelineMetrics.started();
+                int written = buffer.remaining();
+                while (failure == null && buffer.hasRemaining())
+                    channel.write(buffer);
+                metrics.record(PipelineMetrics.Stage.WRITE, started);
+                metrics.add(PipelineMetrics.Counter.BYTES_WRITTEN, written - buffer.remaining());
+                buffer.clear();
+                if (buffer.isDirect()) emptied.put(buffer);
+            }
+        } catch (InterruptedException e) {
+            failure = e;
+        } catch (Throwable e) {
+            failure = e;
+            drain();
+        }
+    }
+
+    /**
+     * Keeps returning buffers after a failure, so the consuming thread is not blocked before it notices the failure.
+     */
+    private void drain() {
+        try {
+            for (ByteBuffer buffer = filled.take(); buffer != END; buffer = filled.take()) {
+                buffer.clear();
+                if (buffer.isDirect()) emptied.put(buffer);
+            }
+        } catch (InterruptedException ignored) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
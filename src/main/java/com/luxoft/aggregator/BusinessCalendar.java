@@ -0,0 +1,130 @@
+package com.luxoft.aggregator;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.IntPredicate;
+
+/**
+ * Tells whether prices may be dated by a day, that is the day is a business day and it is not after the as-of date.
+ * Business days from the first supported day up to the as-of date are precomputed to a bitset indexed by epoch day,
+ * so a check is a single bit test. Days before the supported range are checked against weekends and a sorted array of
+ * earlier holidays.
+ * @author Dmitry Dobrynin
+ */
+public class BusinessCalendar implements IntPredicate {
+    public static final LocalDate FIRST_SUPPORTED_DAY = LocalDate.of(1970, 1, 1);
+    public static final LocalDate DEFAULT_AS_OF = LocalDate.of(2014, 12, 19);
+
+    private final int firstDay;
+    private final int asOfDay;
+    private final int days;
+    private final long[] businessDays;
+    private final int[] earlyHolidays;
+
+    /**
+     * Creates a calendar.
+     * @param asOf specifies the latest valid day
+     * @param holidays specifies days which are not business ones
+     */
+    public BusinessCalendar(LocalDate asOf, Collection<LocalDate> holidays) {
+        firstDay = (int) FIRST_SUPPORTED_DAY.toEpochDay();
+        asOfDay = (int) asOf.toEpochDay();
+        days = Math.max(0, asOfDay - firstDay + 1);
+        businessDays = new long[(days + 63) >>> 6];
+        for (int day = 0; day < days; day++)
+            if (isWeekday(firstDay + day)) businessDays[day >>> 6] |= 1L << day;
+        int[] early = new int[holidays.size()];
+        int earlyCount = 0;
+        for (LocalDate holiday : holidays) {
+            int day = (int) holiday.toEpochDay() - firstDay;
+            if (day < 0) early[earlyCount++] = day + firstDay;
+            else if (day < days) businessDays[day >>> 6] &= ~(1L << day);
+        }
+        earlyHolidays = Arrays.copyOf(early, earlyCount);
+        Arrays.sort(earlyHolidays);
+    }
+
+    /**
+     * Creates a calendar configured by system properties aggregator.asOf specifying the latest valid day in ISO format
+     * (19-Dec-2014 by default) and aggregator.holidays specifying a file of holidays.
+     * @return configured calendar
+     */
+    public static BusinessCalendar configured() {
+        String asOf = System.getProperty("aggregator.asOf");
+        String holidays = System.getProperty("aggregator.holidays");
+        return new BusinessCalendar(asOf != null ? LocalDate.parse(asOf) : DEFAULT_AS_OF,
+                holidays != null ? loadHolidays(Paths.get(holidays)) : Collections.emptyList());
+    }
+
+    /**
+     * Loads holidays from a file containing a date in ISO format per line, empty lines and lines starting with #
+     * are skipped.
+     * @param file specifies file of holidays
+     * @return holidays
+     */
+    public static List<LocalDate> loadHolidays(Path file) {
+        try {
+            List<LocalDate> holidays = new ArrayList<>();
+            int lineNumber = 0;
+            for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+                lineNumber++;
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) continue;
+                try {
+                    holidays.add(LocalDate.parse(line));
+                } catch (DateTimeParseException e) {
+                    throw new IllegalArgumentException(
+                            String.format("Invalid holiday %s at %s:%s!", line, file, lineNumber), e);
+                }
+            }
+            return holidays;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Checks whether prices may be dated by the day.
+     * @param epochDay specifies day
+     * @return true if the day is a business day not after the as-of date
+     */
+    public boolean test(int epochDay) {
+        int day = epochDay - firstDay;
+        if (day >= 0) return day < days && (businessDays[day >>> 6] & 1L << day) != 0;
+        return epochDay <= asOfDay && isWeekday(epochDay) && Arrays.binarySearch(earlyHolidays, epochDay) < 0;
+    }
+
+    /**
+     * Checks whether the day is after the as-of date.
+     * @param epochDay specifies day
+     * @return true if prices may not be dated by the day since it is in the future
+     */
+    public boolean isFuture(int epochDay) {
+        return epochDay > asOfDay;
+    }
+
+    /**
+     * Checks whether prices may be dated by the date.
+     * @param date specifies date
+     * @return true if the date is a business day not after the as-of date
+     */
+    public boolean test(LocalDate date) {
+        return test((int) date.toEpochDay());
+    }
+
+    private static boolean isWeekday(long epochDay) {
+        return Math.floorMod(epochDay + 3, 7) < DayOfWeek.SATURDAY.ordinal();
+    }
+}
@@ -0,0 +1,73 @@
+package com.luxoft.aggregator;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Represents bytes of a buffer as a sequence of single byte characters without copying them. Indices are absolute
+ * positions of the buffer, so the buffer can be parsed line by line without creating a new sequence per line.
+ * @author Dmitry Dobrynin
+ */
+public class ByteSequence implements CharSequence {
+    private ByteBuffer buffer;
+
+    public ByteSequence(ByteBuffer buffer) {
+        this.buffer = buffer;
+    }
+
+    /**
+     * Switches the sequence to another buffer.
+     * @param buffer specifies a new buffer
+     * @return this sequence
+     */
+    public ByteSequence wrap(ByteBuffer buffer) {
+        this.buffer = buffer;
+        return this;
+    }
+
+    public ByteBuffer buffer() {
+        return buffer;
+    }
+
+    public int length() {
+        return buffer.limit();
+    }
+
+    public char charAt(int index) {
+        return (char) (buffer.get(index) & 0xFF);
+    }
+
+    public CharSequence subSequence(int start, int end) {
+        return toString(start, end);
+    }
+
+    /**
+     * Copies the specified region to a string.
+     * @param start specifies the start index inclusive
+     * @param end specifies the end index exclusive
+     * @return a newly created string
+     */
+    public String toString(int start, int end) {
+        byte[] bytes = new byte[end - start];
+        for (int i = start; i < end; i++)
+            bytes[i - start] = buffer.get(i);
+        return new String(bytes, StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * Decodes the specified region as UTF-8 characters.
+     * @param start specifies the start index inclusive
+     * @param end specifies the end index exclusive
+     * @return a newly created string
+     */
+    public String decode(int start, int end) {
+        byte[] bytes = new byte[end - start];
+        for (int i = start; i < end; i++)
+            bytes[i - start] = buffer.get(i);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    public String toString() {
+        return toString(buffer.position(), buffer.limit());
+    }
+}
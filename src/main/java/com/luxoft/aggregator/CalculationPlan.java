@@ -0,0 +1,315 @@
+package com.luxoft.aggregator;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.function.IntUnaryOperator;
+
+/**
+ * Calculates all rules of {@link CalculationRules} in a single pass. Calculations are looked up once per price in
+ * a table indexed by instrument identifier, prices of instruments not named by any rule go to default calculations,
+ * then every calculation checks the date and updates its state, so adding a rule adds no pass over prices.
+ * @author Dmitry Dobrynin
+ */
+public class CalculationPlan implements PriceAccumulator<CalculationPlan>, Checkpointable<CalculationPlan> {
+    private static final Calculation[] NONE = new Calculation[0];
+
+    private final List<CalculationRules.Rule> rules;
+    private final Calculation[] calculations;
+    private final Calculation[][] routes;
+    private final Calculation[] others;
+
+    CalculationPlan(List<CalculationRules.Rule> rules) {
+        this.rules = rules;
+        InstrumentDictionary dictionary = InstrumentDictionary.shared();
+        calculations = new Calculation[rules.size()];
+        List<Calculation> defaults = new ArrayList<>();
+        Calculation[][] routes = new Calculation[0][];
+        for (int i = 0; i < calculations.length; i++) {
+            CalculationRules.Rule rule = rules.get(i);
+            Calculation calculation = calculations[i] = calculation(rule);
+            if (rule.isDefault()) {
+                defaults.add(calculation);
+            } else {
+                calculation.instrumentId = dictionary.idOf(rule.instrument);
+                if (calculation.instrumentId >= routes.length)
+                    routes = Arrays.copyOf(routes, calculation.instrumentId + 1);
+                Calculation[] route = routes[calculation.instrumentId];
+                route = route == null ? new Calculation[1] : Arrays.copyOf(route, route.length + 1);
+                route[route.length - 1] = calculation;
+                routes[calculation.instrumentId] = route;
+            }
+        }
+        this.routes = routes;
+        others = defaults.toArray(NONE);
+    }
+
+    private static Calculation calculation(CalculationRules.Rule rule) {
+        switch (rule.kind) {
+            case MEAN:
+                return new Mean(rule);
+            case SUM:
+                return new Sum(rule);
+            case MAX:
+                return new Max(rule);
+            case COUNT:
+                return new Count(rule);
+            default:
+                return new SumNewest(rule);
+        }
+    }
+
+    public void accept(PriceBatch batch, int row) {
+        int instrumentId = batch.instrumentId[row];
+        Calculation[] route = instrumentId < routes.length && routes[instrumentId] != null ? routes[instrumentId] : others;
+        int day = batch.epochDay[row];
+        for (Calculation calculation : route)
+            if (day >= calculation.firstDay && day <= calculation.lastDay) calculation.add(batch, row);
+    }
+
+    public void merge(CalculationPlan other) {
+        if (!rules.equals(other.rules)) throw new IllegalArgumentException("Could not merge plans of different rules!");
+        for (int i = 0; i < calculations.length; i++)
+            calculations[i].merge(other.calculations[i]);
+    }
+
+    public CalculationPlan copy() {
+        CalculationPlan copy = new CalculationPlan(rules);
+        for (int i = 0; i < calculations.length; i++)
+            copy.calculations[i].copyFrom(calculations[i]);
+        return copy;
+    }
+
+    public void writeTo(DataOutput out) throws IOException {
+        out.writeInt(calculations.length);
+        for (Calculation calculation : calculations) {
+            out.writeByte(calculation.kind.ordinal());
+            calculation.writeTo(out);
+        }
+    }
+
+    public void readFrom(DataInput in, IntUnaryOperator instrumentIds) throws IOException {
+        int count = in.readInt();
+        if (count != calculations.length) throw new IOException("Invalid amount of calculations " + count + "!");
+        for (Calculation calculation : calculations) {
+            int kind = in.readByte();
+            if (kind != calculation.kind.ordinal()) throw new IOException("Invalid calculation " + kind + "!");
+            calculation.readFrom(in, instrumentIds);
+        }
+    }
+
+    /**
+     * Provides results of calculations in order of rules.
+     * @return results of calculations
+     */
+    public List<?> results() {
+        List<Object> results = new ArrayList<>(calculations.length);
+        for (Calculation calculation : calculations)
+            results.add(calculation.result());
+        return results;
+    }
+
+    /**
+     * Keeps state of a calculation of a rule.
+     */
+    abstract static class Calculation {
+        final CalculationRules.Kind kind;
+        final boolean isDefault;
+        final int firstDay;
+        final int lastDay;
+        int instrumentId = -1;
+
+        Calculation(CalculationRules.Rule rule) {
+            kind = rule.kind;
+            isDefault = rule.isDefault();
+            firstDay = rule.firstDay;
+            lastDay = rule.lastDay;
+        }
+
+        abstract void add(PriceBatch batch, int row);
+
+        abstract void merge(Calculation other);
+
+        abstract Object result();
+
+        abstract void copyFrom(Calculation other);
+
+        abstract void writeTo(DataOutput out) throws IOException;
+
+        abstract void readFrom(DataInput in, IntUnaryOperator instrumentIds) throws IOException;
+    }
+
+    static class Mean extends Calculation {
+        final PriceBatches.Sum sum = new PriceBatches.Sum();
+
+        Mean(CalculationRules.Rule rule) {
+            super(rule);
+        }
+
+        void add(PriceBatch batch, int row) {
+            sum.add(batch, row);
+        }
+
+        void merge(Calculation other) {
+            sum.merge(((Mean) other).sum);
+        }
+
+        void copyFrom(Calculation other) {
+            sum.copyFrom(((Mean) other).sum);
+        }
+
+        void writeTo(DataOutput out) throws IOException {
+            sum.writeTo(out);
+        }
+
+        void readFrom(DataInput in, IntUnaryOperator instrumentIds) throws IOException {
+            sum.readFrom(in);
+        }
+
+        Object result() {
+            return sum.count() > 0 ? Optional.of(sum.mean()) : Optional.empty();
+        }
+    }
+
+    static class Sum extends Calculation {
+        final PriceBatches.Sum sum = new PriceBatches.Sum();
+
+        Sum(CalculationRules.Rule rule) {
+            super(rule);
+        }
+
+        void add(PriceBatch batch, int row) {
+            sum.add(batch, row);
+        }
+
+        void merge(Calculation other) {
+            sum.merge(((Sum) other).sum);
+        }
+
+        void copyFrom(Calculation other) {
+            sum.copyFrom(((Sum) other).sum);
+        }
+
+        void writeTo(DataOutput out) throws IOException {
+            sum.writeTo(out);
+        }
+
+        void readFrom(DataInput in, IntUnaryOperator instrumentIds) throws IOException {
+            sum.readFrom(in);
+        }
+
+        Object result() {
+            return sum.count() > 0 ? Optional.of(sum.toBigDecimal()) : Optional.empty();
+        }
+    }
+
+    static class Max extends Calculation {
+        final PriceBatches.Max max = new PriceBatches.Max();
+        long count;
+
+        Max(CalculationRules.Rule rule) {
+            super(rule);
+        }
+
+        void add(PriceBatch batch, int row) {
+            max.add(batch, row);
+            count++;
+        }
+
+        void merge(Calculation other) {
+            max.merge(((Max) other).max);
+            count += ((Max) other).count;
+        }
+
+        void copyFrom(Calculation other) {
+            max.copyFrom(((Max) other).max);
+            count = ((Max) other).count;
+        }
+
+        void writeTo(DataOutput out) throws IOException {
+            max.writeTo(out);
+            out.writeLong(count);
+        }
+
+        void readFrom(DataInput in, IntUnaryOperator instrumentIds) throws IOException {
+            max.readFrom(in);
+            count = in.readLong();
+        }
+
+        Object result() {
+            return count > 0 ? Optional.of(max.toBigDecimal()) : Optional.empty();
+        }
+    }
+
+    static class Count extends Calculation {
+        long count;
+
+        Count(CalculationRules.Rule rule) {
+            super(rule);
+        }
+
+        void add(PriceBatch batch, int row) {
+            count++;
+        }
+
+        void merge(Calculation other) {
+            count += ((Count) other).count;
+        }
+
+        void copyFrom(Calculation other) {
+            count = ((Count) other).count;
+        }
+
+        void writeTo(DataOutput out) throws IOException {
+            out.writeLong(count);
+        }
+
+        void readFrom(DataInput in, IntUnaryOperator instrumentIds) throws IOException {
+            count = in.readLong();
+        }
+
+        Object result() {
+            return count;
+        }
+    }
+
+    /**
+     * Sums the newest prices of every default instrument or of the named one.
+     */
+    static class SumNewest extends Calculation {
+        NewestPrices newest;
+
+        SumNewest(CalculationRules.Rule rule) {
+            super(rule);
+            newest = new NewestPrices(rule.newest);
+        }
+
+        void add(PriceBatch batch, int row) {
+            newest.accept(batch, row);
+        }
+
+        void merge(Calculation other) {
+            newest.merge(((SumNewest) other).newest);
+        }
+
+        void copyFrom(Calculation other) {
+            newest = ((SumNewest) other).newest.copy();
+        }
+
+        void writeTo(DataOutput out) throws IOException {
+            newest.writeTo(out);
+        }
+
+        void readFrom(DataInput in, IntUnaryOperator instrumentIds) throws IOException {
+            newest.readFrom(in, instrumentIds);
+        }
+
+        Object result() {
+            return isDefault ? newest.sums() : newest.sum(instrumentId);
+        }
+    }
+}
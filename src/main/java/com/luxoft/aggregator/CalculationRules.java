@@ -0,0 +1,193 @@
+package com.luxoft.aggregator;
+
+import com.google.common.io.Resources;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.time.LocalDate;
+import java.time.Year;
+import java.time.YearMonth;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Describes calculations of instrument prices by rules, a rule per line:
+ * <pre>
+ * INSTRUMENT2: mean where month=2014-11
+ * default: sum newest 10
+ * </pre>
+ * A rule names an instrument or default for prices of all instruments not named by any rule, one of calculations
+ * mean, sum, max, count or sum newest N and optional conditions month=yyyy-MM, year=yyyy, from=yyyy-MM-dd and
+ * to=yyyy-MM-dd joined by and. Empty lines and lines starting with # are skipped. Rules are compiled to a
+ * {@link CalculationPlan} calculating all of them in a single pass.
+ * @author Dmitry Dobrynin
+ */
+public class CalculationRules {
+    public static final String DEFAULT = "default";
+
+    /**
+     * Kinds of calculations.
+     */
+    public enum Kind {
+        MEAN, SUM, MAX, COUNT, SUM_NEWEST
+    }
+
+    /**
+     * Describes a calculation of prices of an instrument dated by a range of epoch days.
+     */
+    public static class Rule {
+        public final String instrument;
+        public final Kind kind;
+        public final int newest;
+        public final int firstDay;
+        public final int lastDay;
+
+        public Rule(String instrument, Kind kind, int newest, int firstDay, int lastDay) {
+            this.instrument = instrument;
+            this.kind = kind;
+            this.newest = newest;
+            this.firstDay = firstDay;
+            this.lastDay = lastDay;
+        }
+
+        public boolean isDefault() {
+            return DEFAULT.equals(instrument);
+        }
+
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Rule)) return false;
+            Rule that = (Rule) o;
+            return instrument.equals(that.instrument) && kind == that.kind && newest == that.newest &&
+                    firstDay == that.firstDay && lastDay == that.lastDay;
+        }
+
+        public int hashCode() {
+            int result = instrument.hashCode();
+            result = 31 * result + kind.hashCode();
+            result = 31 * result + newest;
+            result = 31 * result + firstDay;
+            return 31 * result + lastDay;
+        }
+
+        public String toString() {
+            return String.format("%s: %s%s", instrument, kind, kind == Kind.SUM_NEWEST ? " " + newest : "");
+        }
+    }
+
+    private final List<Rule> rules;
+
+    public CalculationRules(List<Rule> rules) {
+        this.rules = Collections.unmodifiableList(new ArrayList<>(rules));
+    }
+
+    public List<Rule> rules() {
+        return rules;
+    }
+
+    /**
+     * Compiles rules to a new plan.
+     * @return plan having its own state
+     */
+    public CalculationPlan compile() {
+        return new CalculationPlan(rules);
+    }
+
+    /**
+     * Loads rules from a file specified by system property aggregator.calculations or calculations.txt found in the
+     * classpath.
+     * @return configured rules
+     */
+    public static CalculationRules configured() {
+        String file = System.getProperty("aggregator.calculations");
+        try {
+            return parse(file != null ? Files.readAllLines(Paths.get(file), StandardCharsets.UTF_8) :
+                    Resources.readLines(Resources.getResource("calculations.txt"), StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Parses rules.
+     * @param lines specifies lines of rules
+     * @return parsed rules
+     * @throws IllegalArgumentException if a line could not be parsed
+     */
+    public static CalculationRules parse(List<String> lines) {
+        List<Rule> rules = new ArrayList<>();
+        int lineNumber = 0;
+        for (String line : lines) {
+            lineNumber++;
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) continue;
+            try {
+                rules.add(parseRule(line));
+            } catch (IllegalArgumentException | DateTimeParseException e) {
+                throw new IllegalArgumentException(String.format("Invalid rule %s at line %s!", line, lineNumber), e);
+            }
+        }
+        return new CalculationRules(rules);
+    }
+
+    private static Rule parseRule(String line) {
+        int colon = line.indexOf(':');
+        if (colon <= 0) throw new IllegalArgumentException("No instrument in " + line + "!");
+        String instrument = line.substring(0, colon).trim();
+        String[] parts = line.substring(colon + 1).trim().split("\\s+where\\s+", 2);
+        String[] calculation = parts[0].trim().split("\\s+");
+
+        Kind kind;
+        int newest = 0;
+        if (calculation.length == 3 && calculation[0].equals("sum") && calculation[1].equals("newest")) {
+            kind = Kind.SUM_NEWEST;
+            newest = Integer.parseInt(calculation[2]);
+            if (newest <= 0) throw new IllegalArgumentException("Invalid amount of newest prices " + newest + "!");
+        } else if (calculation.length == 1) {
+            kind = Kind.valueOf(calculation[0].toUpperCase());
+            if (kind == Kind.SUM_NEWEST) throw new IllegalArgumentException("Unknown calculation " + parts[0] + "!");
+        } else {
+            throw new IllegalArgumentException("Unknown calculation " + parts[0] + "!");
+        }
+
+        int firstDay = Integer.MIN_VALUE, lastDay = Integer.MAX_VALUE;
+        if (parts.length > 1) {
+            for (String condition : parts[1].trim().split("\\s+and\\s+")) {
+                String[] pair = condition.split("=", 2);
+                if (pair.length != 2) throw new IllegalArgumentException("Invalid condition " + condition + "!");
+                String value = pair[1].trim();
+                LocalDate from, to;
+                switch (pair[0].trim()) {
+                    case "month":
+                        YearMonth month = YearMonth.parse(value);
+                        from = month.atDay(1);
+                        to = month.atEndOfMonth();
+                        break;
+                    case "year":
+                        Year year = Year.parse(value);
+                        from = year.atDay(1);
+                        to = year.atMonth(12).atEndOfMonth();
+                        break;
+                    case "from":
+                        from = LocalDate.parse(value);
+                        to = LocalDate.MAX;
+                        break;
+                    case "to":
+                        from = LocalDate.MIN;
+                        to = LocalDate.parse(value);
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Unknown condition " + condition + "!");
+                }
+                firstDay = Math.max(firstDay, (int) Math.max(from.toEpochDay(), Integer.MIN_VALUE));
+                lastDay = Math.min(lastDay, (int) Math.min(to.toEpochDay(), Integer.MAX_VALUE));
+            }
+        }
+        return new Rule(instrument, kind, newest, firstDay, lastDay);
+    }
+}
@@ -0,0 +1,374 @@
+package com.luxoft.aggregator;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.time.Year;
+import java.time.YearMonth;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.IntUnaryOperator;
+
+/**
+ * Rolls prices of every instrument up to months and years in a single pass. Count, sum, minimum and maximum of prices
+ * of an instrument in an epoch month or year are kept in a cell, so the mean of any month or year of any instrument is
+ * answered without another pass over prices. Sums are kept in 128 bits, means are the same as calculated by
+ * {@link PriceBatches#mean}. Oversized prices are rolled up to cells of their own kept in a map.
+ * @author Dmitry Dobrynin
+ */
+public class CalendarRollups implements PriceAccumulator<CalendarRollups>, Checkpointable<CalendarRollups> {
+    private final Cells months = new Cells();
+    private final Cells years = new Cells();
+
+    public void accept(PriceBatch batch, int row) {
+        if (batch.isOversized(row)) add(batch.instrumentId[row], batch.epochDay[row], batch.price(row));
+        else add(batch.instrumentId[row], batch.epochDay[row], batch.scaledPrice[row], batch.priceScale[row]);
+    }
+
+    void add(int instrumentId, int epochDay, long scaledPrice, int scale) {
+        int month = epochMonth(epochDay);
+        months.add(instrumentId, month, scaledPrice, scale);
+        years.add(instrumentId, Math.floorDiv(month, 12), scaledPrice, scale);
+    }
+
+    void add(int instrumentId, int epochDay, BigDecimal price) {
+        int month = epochMonth(epochDay);
+        months.add(instrumentId, month, price);
+        years.add(instrumentId, Math.floorDiv(month, 12), price);
+    }
+
+    public void merge(CalendarRollups other) {
+        months.merge(other.months);
+        years.merge(other.years);
+    }
+
+    public CalendarRollups copy() {
+        CalendarRollups copy = new CalendarRollups();
+        copy.merge(this);
+        return copy;
+    }
+
+    public void writeTo(DataOutput out) throws IOException {
+        months.writeTo(out);
+        years.writeTo(out);
+    }
+
+    public void readFrom(DataInput in, IntUnaryOperator instrumentIds) throws IOException {
+        months.readFrom(in, instrumentIds);
+        years.readFrom(in, instrumentIds);
+    }
+
+    /**
+     * Converts an epoch day to the amount of months since January 1970 without creating dates.
+     * @param epochDay specifies epoch day
+     * @return epoch month
+     */
+    static int epochMonth(int epochDay) {
+        int days = epochDay + 719_468;
+        int era = (days >= 0 ? days : days - 146_096) / 146_097;
+        int dayOfEra = days - era * 146_097;
+        int yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36_524 - dayOfEra / 146_096) / 365;
+        int dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+        int shiftedMonth = (5 * dayOfYear + 2) / 153;
+        int month = shiftedMonth < 10 ? shiftedMonth + 3 : shiftedMonth - 9;
+        int year = yearOfEra + era * 400 + (month <= 2 ? 1 : 0);
+        return (year - 1970) * 12 + month - 1;
+    }
+
+    static int epochMonth(YearMonth month) {
+        return (month.getYear() - 1970) * 12 + month.getMonthValue() - 1;
+    }
+
+    public long count(int instrumentId, YearMonth month) {
+        return months.count(instrumentId, epochMonth(month));
+    }
+
+    public Optional<BigDecimal> sum(int instrumentId, YearMonth month) {
+        return months.sum(instrumentId, epochMonth(month));
+    }
+
+    /**
+     * Provides mean of prices of the instrument dated by the month.
+     * @param instrumentId specifies instrument
+     * @param month specifies month
+     * @return mean unless there are no prices of the instrument in the month
+     */
+    public Optional<BigDecimal> mean(int instrumentId, YearMonth month) {
+        return months.mean(instrumentId, epochMonth(month));
+    }
+
+    public Optional<BigDecimal> min(int instrumentId, YearMonth month) {
+        return months.min(instrumentId, epochMonth(month));
+    }
+
+    public Optional<BigDecimal> max(int instrumentId, YearMonth month) {
+        return months.max(instrumentId, epochMonth(month));
+    }
+
+    public long count(int instrumentId, Year year) {
+        return years.count(instrumentId, year.getValue() - 1970);
+    }
+
+    public Optional<BigDecimal> sum(int instrumentId, Year year) {
+        return years.sum(instrumentId, year.getValue() - 1970);
+    }
+
+    /**
+     * Provides mean of prices of the instrument dated by the year.
+     * @param instrumentId specifies instrument
+     * @param year specifies year
+     * @return mean unless there are no prices of the instrument in the year
+     */
+    public Optional<BigDecimal> mean(int instrumentId, Year year) {
+        return years.mean(instrumentId, year.getValue() - 1970);
+    }
+
+    public Optional<BigDecimal> min(int instrumentId, Year year) {
+        return years.min(instrumentId, year.getValue() - 1970);
+    }
+
+    public Optional<BigDecimal> max(int instrumentId, Year year) {
+        return years.max(instrumentId, year.getValue() - 1970);
+    }
+
+    /**
+     * Keeps cells of instruments and periods having prices in flat arrays in order of their first prices. Cells are
+     * found by an open addressing table of their keys, so memory depends on amount of filled cells only however far
+     * dates of prices are from each other.
+     */
+    static class Cells {
+        private static final int INITIAL_CELLS = 16;
+
+        int size;
+        long[] keys = new long[INITIAL_CELLS];
+        long[] counts = new long[INITIAL_CELLS];
+        long[] highs = new long[INITIAL_CELLS];
+        long[] lows = new long[INITIAL_CELLS];
+        long[] mins = new long[INITIAL_CELLS];
+        long[] maxs = new long[INITIAL_CELLS];
+        byte[] scales = new byte[INITIAL_CELLS];
+        byte[] minScales = new byte[INITIAL_CELLS];
+        byte[] maxScales = new byte[INITIAL_CELLS];
+        int[] table = new int[2 * INITIAL_CELLS];
+        final Map<Long, Oversized> oversized = new HashMap<>();
+
+        void add(int instrumentId, int period, long scaledPrice, int scale) {
+            put(cell(instrumentId, period), 1, scaledPrice >> 63, scaledPrice, scale, scaledPrice, scale, scaledPrice,
+                    scale);
+        }
+
+        void add(int instrumentId, int period, BigDecimal price) {
+            oversized.computeIfAbsent(key(instrumentId, period), key -> new Oversized()).add(1, price, price, price);
+        }
+
+        private static long key(int instrumentId, int period) {
+            return (long) instrumentId << 32 | period & 0xFFFFFFFFL;
+        }
+
+        void merge(Cells other) {
+            for (int from = 0; from < other.size; from++)
+                put(cell(other.keys[from]), other.counts[from], other.highs[from], other.lows[from],
+                        other.scales[from], other.mins[from], other.minScales[from], other.maxs[from],
+                        other.maxScales[from]);
+            other.oversized.forEach((key, cell) -> oversized.computeIfAbsent(key, k -> new Oversized())
+                    .add(cell.count, cell.sum, cell.min, cell.max));
+        }
+
+        void writeTo(DataOutput out) throws IOException {
+            out.writeInt(size);
+            for (int cell = 0; cell < size; cell++) {
+                out.writeInt((int) (keys[cell] >> 32));
+                out.writeInt((int) keys[cell]);
+                out.writeLong(counts[cell]);
+                out.writeLong(highs[cell]);
+                out.writeLong(lows[cell]);
+                out.writeByte(scales[cell]);
+                out.writeLong(mins[cell]);
+                out.writeByte(minScales[cell]);
+                out.writeLong(maxs[cell]);
+                out.writeByte(maxScales[cell]);
+            }
+            out.writeInt(oversized.size());
+            for (Map.Entry<Long, Oversized> entry : oversized.entrySet()) {
+                out.writeInt((int) (entry.getKey() >> 32));
+                out.writeInt(entry.getKey().intValue());
+                out.writeLong(entry.getValue().count);
+                PriceBatches.writeDecimal(out, entry.getValue().sum);
+                PriceBatches.writeDecimal(out, entry.getValue().min);
+                PriceBatches.writeDecimal(out, entry.getValue().max);
+            }
+        }
+
+        void readFrom(DataInput in, IntUnaryOperator instrumentIds) throws IOException {
+            size = 0;
+            table = new int[2 * INITIAL_CELLS];
+            oversized.clear();
+            int filled = in.readInt();
+            if (filled < 0) throw new IOException("Invalid amount of cells " + filled + "!");
+            for (int i = 0; i < filled; i++) {
+                int instrumentId = in.readInt(), period = in.readInt();
+                long count = in.readLong();
+                if (instrumentId < 0 || count <= 0) throw new IOException("Invalid cell of " + instrumentId + "!");
+                int cell = cell(instrumentIds.applyAsInt(instrumentId), period);
+                long high = in.readLong(), low = in.readLong();
+                byte scale = in.readByte();
+                long min = in.readLong();
+                byte minScale = in.readByte();
+                long max = in.readLong();
+                put(cell, count, high, low, scale, min, minScale, max, in.readByte());
+            }
+            int oversizedCells = in.readInt();
+            if (oversizedCells < 0) throw new IOException("Invalid amount of cells " + oversizedCells + "!");
+            for (int i = 0; i < oversizedCells; i++) {
+                int instrumentId = in.readInt(), period = in.readInt();
+                long count = in.readLong();
+                BigDecimal sum = PriceBatches.readDecimal(in), min = PriceBatches.readDecimal(in),
+                        max = PriceBatches.readDecimal(in);
+                if (instrumentId < 0 || count <= 0 || sum == null || min == null || max == null)
+                    throw new IOException("Invalid cell of " + instrumentId + "!");
+                oversized.computeIfAbsent(key(instrumentIds.applyAsInt(instrumentId), period), k -> new Oversized())
+                        .add(count, sum, min, max);
+            }
+        }
+
+        private int cell(int instrumentId, int period) {
+            return cell(key(instrumentId, period));
+        }
+
+        /**
+         * Provides cell of the key adding an empty one when needed.
+         */
+        private int cell(long key) {
+            int mask = table.length - 1;
+            for (int slot = slot(key, mask); ; slot = (slot + 1) & mask) {
+                int cell = table[slot] - 1;
+                if (cell < 0) return add(slot, key);
+                if (keys[cell] == key) return cell;
+            }
+        }
+
+        private int add(int slot, long key) {
+            if (size == keys.length) grow();
+            int cell = size++;
+            keys[cell] = key;
+            table[slot] = cell + 1;
+            if (2 * size > table.length) rehash();
+            return cell;
+        }
+
+        private static int slot(long key, int mask) {
+            long hash = key * 0x9E3779B97F4A7C15L;
+            return (int) (hash >>> 32) & mask;
+        }
+
+        private void put(int cell, long count, long high, long low, int scale, long min, int minScale, long max,
+                         int maxScale) {
+            long sum = lows[cell] + low;
+            highs[cell] += high + (Long.compareUnsigned(sum, lows[cell]) < 0 ? 1 : 0);
+            lows[cell] = sum;
+            if (counts[cell] == 0 || min < mins[cell]) {
+                mins[cell] = min;
+                minScales[cell] = (byte) minScale;
+            }
+            if (counts[cell] == 0 || max > maxs[cell]) {
+                maxs[cell] = max;
+                maxScales[cell] = (byte) maxScale;
+            }
+            if (scale > scales[cell]) scales[cell] = (byte) scale;
+            counts[cell] += count;
+        }
+
+        private void grow() {
+            int cells = Math.multiplyExact(keys.length, 2);
+            keys = Arrays.copyOf(keys, cells);
+            counts = Arrays.copyOf(counts, cells);
+            highs = Arrays.copyOf(highs, cells);
+            lows = Arrays.copyOf(lows, cells);
+            mins = Arrays.copyOf(mins, cells);
+            maxs = Arrays.copyOf(maxs, cells);
+            scales = Arrays.copyOf(scales, cells);
+            minScales = Arrays.copyOf(minScales, cells);
+            maxScales = Arrays.copyOf(maxScales, cells);
+        }
+
+        private void rehash() {
+            table = new int[2 * table.length];
+            int mask = table.length - 1;
+            for (int cell = 0; cell < size; cell++) {
+                int slot = slot(keys[cell], mask);
+                while (table[slot] != 0)
+                    slot = (slot + 1) & mask;
+                table[slot] = cell + 1;
+            }
+        }
+
+        /**
+         * Provides cell of the instrument and period having prices or -1.
+         */
+        private int find(int instrumentId, int period) {
+            long key = key(instrumentId, period);
+            int mask = table.length - 1;
+            for (int slot = slot(key, mask); ; slot = (slot + 1) & mask) {
+                int cell = table[slot] - 1;
+                if (cell < 0 || keys[cell] == key) return cell;
+            }
+        }
+
+        long count(int instrumentId, int period) {
+            int cell = find(instrumentId, period);
+            Oversized big = oversized.get(key(instrumentId, period));
+            return (cell >= 0 ? counts[cell] : 0) + (big != null ? big.count : 0);
+        }
+
+        Optional<BigDecimal> sum(int instrumentId, int period) {
+            int cell = find(instrumentId, period);
+            Oversized big = oversized.get(key(instrumentId, period));
+            if (cell < 0) return big != null ? Optional.of(big.sum) : Optional.empty();
+            BigDecimal sum = new BigDecimal(FixedPoint.toBigInteger(highs[cell], lows[cell]), PriceBatch.PRICE_SCALE)
+                    .setScale(scales[cell]);
+            return Optional.of(big != null ? sum.add(big.sum) : sum);
+        }
+
+        Optional<BigDecimal> mean(int instrumentId, int period) {
+            long count = count(instrumentId, period);
+            return sum(instrumentId, period).map(sum -> sum.divide(new BigDecimal(count), MathContext.DECIMAL64));
+        }
+
+        Optional<BigDecimal> min(int instrumentId, int period) {
+            int cell = find(instrumentId, period);
+            Oversized big = oversized.get(key(instrumentId, period));
+            if (cell < 0) return big != null ? Optional.of(big.min) : Optional.empty();
+            BigDecimal min = PriceBatch.price(mins[cell], minScales[cell]);
+            return Optional.of(big != null && big.min.compareTo(min) < 0 ? big.min : min);
+        }
+
+        Optional<BigDecimal> max(int instrumentId, int period) {
+            int cell = find(instrumentId, period);
+            Oversized big = oversized.get(key(instrumentId, period));
+            if (cell < 0) return big != null ? Optional.of(big.max) : Optional.empty();
+            BigDecimal max = PriceBatch.price(maxs[cell], maxScales[cell]);
+            return Optional.of(big != null && big.max.compareTo(max) > 0 ? big.max : max);
+        }
+    }
+
+    /**
+     * Keeps count, sum, minimum and maximum of oversized prices of an instrument in a period.
+     */
+    static class Oversized {
+        long count;
+        BigDecimal sum = BigDecimal.ZERO;
+        BigDecimal min;
+        BigDecimal max;
+
+        void add(long count, BigDecimal sum, BigDecimal min, BigDecimal max) {
+            this.sum = this.count == 0 ? sum : this.sum.add(sum);
+            if (this.count == 0 || min.compareTo(this.min) < 0) this.min = min;
+            if (this.count == 0 || max.compareTo(this.max) > 0) this.max = max;
+            this.count += count;
+        }
+    }
+}
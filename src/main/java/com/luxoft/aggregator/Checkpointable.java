@@ -0,0 +1,44 @@
+package com.luxoft.aggregator;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.function.IntUnaryOperator;
+
+/**
+ * Allows to save state of an accumulator and to restore it. A copy is taken on the accumulating thread and is cheap,
+ * it is written out later on another thread.
+ * @param <A> type of accumulator
+ * @author Dmitry Dobrynin
+ */
+public interface Checkpointable<A extends Checkpointable<A>> {
+    /**
+     * Copies state of the accumulator.
+     * @return an independent accumulator having the same state
+     */
+    A copy();
+
+    /**
+     * Writes state of the accumulator.
+     * @param out specifies output
+     * @throws IOException if state could not be written
+     */
+    void writeTo(DataOutput out) throws IOException;
+
+    /**
+     * Replaces state of the accumulator with the read one.
+     * @param in specifies input
+     * @throws IOException if state could not be read or it does not suit the accumulator
+     */
+    default void readFrom(DataInput in) throws IOException {
+        readFrom(in, IntUnaryOperator.identity());
+    }
+
+    /**
+     * Replaces state of the accumulator with the read one written by another process.
+     * @param in specifies input
+     * @param instrumentIds translates written instrument identifiers to identifiers of this process
+     * @throws IOException if state could not be read or it does not suit the accumulator
+     */
+    void readFrom(DataInput in, IntUnaryOperator instrumentIds) throws IOException;
+}
@@ -0,0 +1,147 @@
+package com.luxoft.aggregator;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Checkpoints reading of a {@link MappedFileSource} so that a failed run resumes where it has stopped. Every time the
+ * source has emitted the given amount of bytes since the last checkpoint, a copy of the accumulator is taken on the
+ * reading thread and handed over to a writer thread, which stores it along with the offset and names of instruments
+ * to a temporary file and moves it over the checkpoint. The writer keeps only the latest pending copy, so the reading
+ * thread never waits for the disk.
+ * <p>
+ * A checkpoint contains magic, version, size and modification time of the input file, the offset, then instrument
+ * names and the state of the accumulator the way {@link PartialStates} stores them, so identifiers are translated by
+ * names on restoring. It is deleted when the run has completed.
+ * @param <A> type of accumulator
+ * @author Dmitry Dobrynin
+ */
+public class Checkpointer<A extends Checkpointable<A>> implements AutoCloseable {
+    public static final long DEFAULT_INTERVAL = 256 << 20;
+    private static final int MAGIC = 0x41474350;
+    private static final int VERSION = 4;
+
+    private final Path file;
+    private final MappedFileSource source;
+    private final long interval;
+    private final ThreadPoolExecutor writer;
+    private long offset;
+    private long checkpointed;
+    private volatile IOException failure;
+
+    /**
+     * Creates a checkpointer of the interval specified by system property aggregator.checkpoint.interval in bytes.
+     * @param file specifies checkpoint
+     * @param source specifies source to be checkpointed
+     */
+    public Checkpointer(Path file, MappedFileSource source) {
+        this(file, source, Long.getLong("aggregator.checkpoint.interval", DEFAULT_INTERVAL));
+    }
+
+    public Checkpointer(Path file, MappedFileSource source, long interval) {
+        if (interval <= 0) throw new IllegalArgumentException("Invalid interval " + interval + "!");
+        this.file = file;
+        this.source = source;
+        this.interval = interval;
+        writer = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(1), r -> {
+            Thread thread = new Thread(r, "checkpointer-" + file.getFileName());
+            thread.setDaemon(true);
+            return thread;
+        }, new ThreadPoolExecutor.DiscardOldestPolicy());
+    }
+
+    /**
+     * Restores the accumulator from the checkpoint if it exists and makes the source start at the checkpointed offset.
+     * @param accumulators creates an empty accumulator
+     * @return restored accumulator or an empty one if there is no checkpoint
+     * @throws IOException if the checkpoint could not be read or it has been taken of another input
+     */
+    public A restore(Supplier<A> accumulators) throws IOException {
+        if (!Files.exists(file)) return accumulators.get();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != MAGIC) throw new IOException("Invalid checkpoint " + file + "!");
+            int version = in.readInt();
+            if (version != VERSION) throw new IOException("Unsupported version " + version + " of " + file + "!");
+            if (in.readLong() != Files.size(source.path()) ||
+                    in.readLong() != Files.getLastModifiedTime(source.path()).toMillis())
+                throw new IOException("Checkpoint " + file + " has been taken of another " + source.path() + "!");
+            long restored = in.readLong();
+            A accumulator = PartialStates.readState(in, accumulators);
+            source.from(restored);
+            offset = checkpointed = restored;
+            return accumulator;
+        }
+    }
+
+    /**
+     * Provides offset the source starts at.
+     * @return checkpointed offset or 0
+     */
+    public long offset() {
+        return offset;
+    }
+
+    /**
+     * Starts checkpointing the source.
+     * @param snapshots copies the accumulator when the source has emitted all items of a chunk
+     */
+    public void track(Supplier<A> snapshots) {
+        source.onChunkEnded(end -> chunkEnded(end, snapshots));
+    }
+
+    void chunkEnded(long end, Supplier<A> snapshots) {
+        if (failure != null) throw new UncheckedIOException(failure);
+        offset = end;
+        if (end - checkpointed < interval) return;
+        checkpointed = end;
+        A snapshot = snapshots.get();
+        int names = InstrumentDictionary.shared().size();
+        writer.execute(() -> write(end, names, snapshot));
+    }
+
+    private void write(long end, int names, A snapshot) {
+        Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+        try {
+            try (DataOutputStream out =
+                         new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeLong(Files.size(source.path()));
+                out.writeLong(Files.getLastModifiedTime(source.path()).toMillis());
+                out.writeLong(end);
+                PartialStates.writeState(out, names, snapshot);
+            }
+            Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            failure = e;
+        }
+    }
+
+    /**
+     * Deletes the checkpoint after the run has completed.
+     * @throws IOException if a checkpoint could not be written or deleted
+     */
+    public void completed() throws IOException {
+        close();
+        if (failure != null) throw failure;
+        Files.deleteIfExists(file);
+    }
+
+    /**
+     * Waits for the pending checkpoint to be written, so the latest checkpoint survives the run.
+     */
+    public void close() {
+        writer.shutdown();
+        try {
+            writer.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,221 @@
+package com.luxoft.aggregator;
+
+import rx.observables.ConnectableObservable;
+
+import java.io.*;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Converts a file of prices to a columnar binary cache read by {@link ColumnarSource} without parsing. The cache
+ * starts with magic, version, size and modification time of the converted file followed by row groups, each of which
+ * keeps instrument identifiers, epoch days, scaled prices and price scales of its rows in adjacent little-endian
+ * columns. The footer lists instrument names in order of written identifiers, counts of rejected lines by cause and
+ * offset, amount of rows, the first and the last day of every row group along with rows of oversized prices and their
+ * decimals, it is found by its offset written along with magic at the end of the cache.
+ * Lines which could not be parsed are not cached, only counted.
+ * @author Dmitry Dobrynin
+ */
+public class ColumnarCache {
+    public static final int VERSION = 3;
+    public static final int DEFAULT_ROW_GROUP_SIZE = 1 << 16;
+    static final int MAGIC = 0x41474343;
+    static final int HEADER_SIZE = 24;
+    static final int TRAILER_SIZE = 12;
+    static final int ROW_SIZE = 4 + 4 + 8 + 1;
+
+    /**
+     * Provides the cache of a file placed next to it.
+     * @param file specifies file of prices
+     * @return path of the cache
+     */
+    public static Path cacheOf(Path file) {
+        return file.resolveSibling(file.getFileName() + ".columns");
+    }
+
+    /**
+     * Checks whether the cache has been converted from the current content of the file.
+     * @param file specifies file of prices
+     * @param cache specifies cache
+     * @return true if the cache exists and the file has not been changed since it was converted
+     * @throws IOException if the file or the cache could not be read
+     */
+    public static boolean isFresh(Path file, Path cache) throws IOException {
+        if (!Files.exists(cache) || Files.size(cache) < HEADER_SIZE + TRAILER_SIZE) return false;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(cache)))) {
+            return in.readInt() == MAGIC && in.readInt() == VERSION && in.readLong() == Files.size(file) &&
+                    in.readLong() == Files.getLastModifiedTime(file).toMillis();
+        }
+    }
+
+    public static long write(Path file, Path cache) throws IOException {
+        return write(file, cache, DEFAULT_ROW_GROUP_SIZE);
+    }
+
+    /**
+     * Converts a file of prices to a cache written to a temporary file moved over the cache when completed.
+     * @param file specifies file of prices
+     * @param cache specifies cache
+     * @param rowGroupSize specifies amount of rows of a row group
+     * @return amount of cached prices
+     * @throws IOException if the file could not be read or the cache could not be written
+     */
+    public static long write(Path file, Path cache, int rowGroupSize) throws IOException {
+        if (rowGroupSize <= 0) throw new IllegalArgumentException("Invalid row group size " + rowGroupSize + "!");
+        Path temporary = cache.resolveSibling(cache.getFileName() + ".tmp");
+        long rows;
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            Writer writer = new Writer(channel, rowGroupSize, ParseErrors.shared());
+            writer.header(Files.size(file), Files.getLastModifiedTime(file).toMillis());
+            ConnectableObservable<PriceBatch> batches = new MappedFileSource(file).batches();
+            Throwable[] failure = new Throwable[1];
+            batches.subscribe(writer::add, e -> failure[0] = e);
+            batches.connect();
+            if (failure[0] instanceof UncheckedIOException) throw ((UncheckedIOException) failure[0]).getCause();
+            if (failure[0] != null) throw new IOException("Could not convert " + file + "!", failure[0]);
+            rows = writer.finish();
+        }
+        Files.move(temporary, cache, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return rows;
+    }
+
+    /**
+     * Collects rows of a row group in columns and writes them when the group is full.
+     */
+    private static class Writer {
+        private final FileChannel channel;
+        private final ParseErrors errors;
+        private final long[] rejected = new long[ParseError.values().length];
+        private final int[] instrumentIds;
+        private final int[] epochDays;
+        private final long[] scaledPrices;
+        private final byte[] priceScales;
+        private final List<Tuple<Integer, BigDecimal>> oversized = new ArrayList<>();
+        private final ByteBuffer buffer;
+        private final ByteArrayOutputStream groups = new ByteArrayOutputStream();
+        private final DataOutputStream index = new DataOutputStream(groups);
+        private int rows;
+        private int groupCount;
+        private int firstDay = Integer.MAX_VALUE;
+        private int lastDay = Integer.MIN_VALUE;
+        private long position;
+        private long total;
+
+        Writer(FileChannel channel, int rowGroupSize, ParseErrors errors) {
+            this.channel = channel;
+            this.errors = errors;
+            for (ParseError error : ParseError.values())
+                rejected[error.ordinal()] = errors.count(error);
+            instrumentIds = new int[rowGroupSize];
+            epochDays = new int[rowGroupSize];
+            scaledPrices = new long[rowGroupSize];
+            priceScales = new byte[rowGroupSize];
+            buffer = ByteBuffer.allocateDirect(rowGroupSize * ROW_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        }
+
+        void header(long size, long modified) throws IOException {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC).putInt(VERSION).putLong(size).putLong(modified).flip();
+            write(header);
+        }
+
+        void add(PriceBatch batch) {
+            for (int row = 0; row < batch.size; row++) {
+                int day = batch.epochDay[row];
+                instrumentIds[rows] = batch.instrumentId[row];
+                epochDays[rows] = day;
+                scaledPrices[rows] = batch.scaledPrice[row];
+                priceScales[rows] = batch.priceScale[row];
+                if (batch.isOversized(row)) oversized.add(Tuple.t(rows, batch.price(row)));
+                firstDay = Math.min(firstDay, day);
+                lastDay = Math.max(lastDay, day);
+                if (++rows == instrumentIds.length) flush();
+            }
+        }
+
+        private void flush() {
+            try {
+                buffer.clear();
+                buffer.asIntBuffer().put(instrumentIds, 0, rows);
+                buffer.position(4 * rows);
+                buffer.asIntBuffer().put(epochDays, 0, rows);
+                buffer.position(8 * rows);
+                buffer.asLongBuffer().put(scaledPrices, 0, rows);
+                buffer.position(16 * rows);
+                buffer.put(priceScales, 0, rows).flip();
+                index.writeLong(position);
+                index.writeInt(rows);
+                index.writeInt(firstDay);
+                index.writeInt(lastDay);
+                index.writeInt(oversized.size());
+                for (Tuple<Integer, BigDecimal> price : oversized) {
+                    index.writeInt(price._1);
+                    PriceBatches.writeDecimal(index, price._2);
+                }
+                write(buffer);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            groupCount++;
+            total += rows;
+            rows = 0;
+            oversized.clear();
+            firstDay = Integer.MAX_VALUE;
+            lastDay = Integer.MIN_VALUE;
+        }
+
+        /**
+         * Writes the last row group and the footer.
+         * @return amount of written rows
+         */
+        long finish() throws IOException {
+            if (rows > 0) flush();
+            long footer = position;
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            InstrumentDictionary dictionary = InstrumentDictionary.shared();
+            int names = dictionary.size();
+            out.writeInt(names);
+            for (int id = 0; id < names; id++)
+                out.writeUTF(dictionary.nameOf(id));
+            out.writeInt(rejected.length);
+            for (ParseError error : ParseError.values())
+                out.writeLong(errors.count(error) - rejected[error.ordinal()]);
+            out.writeInt(groupCount);
+            groups.writeTo(out);
+            out.writeLong(footer);
+            out.writeInt(MAGIC);
+            write(ByteBuffer.wrap(bytes.toByteArray()));
+            return total;
+        }
+
+        private void write(ByteBuffer bytes) throws IOException {
+            while (bytes.hasRemaining())
+                position += channel.write(bytes);
+        }
+    }
+
+    /**
+     * Converts a file of prices to the cache placed next to it.
+     * @param args specifies file of prices and optional amount of rows of a row group
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.out.println("Usage: ColumnarCache <file> [row group size]");
+            return;
+        }
+        Path file = Paths.get(args[0]);
+        long rows = write(file, cacheOf(file), args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_ROW_GROUP_SIZE);
+        System.out.println(String.format("Cached %s prices to %s", rows, cacheOf(file)));
+    }
+}
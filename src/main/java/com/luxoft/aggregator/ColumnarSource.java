@@ -0,0 +1,153 @@
+package com.luxoft.aggregator;
+
+import rx.Observable;
+import rx.Subscriber;
+import rx.observables.ConnectableObservable;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+
+/**
+ * Reads prices from a cache written by {@link ColumnarCache}. Row groups are memory mapped one by one and their columns
+ * are copied to a reused batch in bulk, the only work per price is translating its instrument identifier to the one of
+ * the shared dictionary. Oversized prices are kept in the footer and set to their rows after copying. Row groups whose
+ * days are out of the requested range are skipped without being read. Counts of lines rejected when the cache was
+ * converted are added to the shared {@link ParseErrors}, so they are reported as if the file was parsed.
+ * @author Dmitry Dobrynin
+ */
+public class ColumnarSource implements PriceSource {
+    private final Path cache;
+    private int firstDay = Integer.MIN_VALUE;
+    private int lastDay = Integer.MAX_VALUE;
+    int readGroups;
+    int skippedGroups;
+
+    public ColumnarSource(Path cache) {
+        this.cache = cache;
+    }
+
+    /**
+     * Limits prices to the ones dated by the range.
+     * @param from specifies the first date inclusive
+     * @param to specifies the last date inclusive
+     * @return this source
+     */
+    public ColumnarSource dates(LocalDate from, LocalDate to) {
+        if (to.isBefore(from)) throw new IllegalArgumentException(String.format("Invalid dates %s - %s!", from, to));
+        firstDay = (int) from.toEpochDay();
+        lastDay = (int) to.toEpochDay();
+        return this;
+    }
+
+    public ConnectableObservable<PriceBatch> batches() {
+        return Observable.<PriceBatch>create(this::read).publish();
+    }
+
+    private void read(Subscriber<? super PriceBatch> subscriber) {
+        readGroups = skippedGroups = 0;
+        try (FileChannel channel = FileChannel.open(cache, StandardOpenOption.READ)) {
+            DataInputStream footer = footer(channel);
+            InstrumentDictionary dictionary = InstrumentDictionary.shared();
+            int[] instrumentIds = new int[footer.readInt()];
+            for (int id = 0; id < instrumentIds.length; id++)
+                instrumentIds[id] = dictionary.idOf(footer.readUTF());
+            ParseError[] errors = ParseError.values();
+            for (int error = 0, codes = footer.readInt(); error < codes; error++) {
+                long rejected = footer.readLong();
+                if (error < errors.length) ParseErrors.shared().add(errors[error], rejected);
+            }
+
+            PriceBatch batch = new PriceBatch(PriceBatch.DEFAULT_CAPACITY);
+            for (int group = 0, groups = footer.readInt(); group < groups && !subscriber.isUnsubscribed(); group++) {
+                long offset = footer.readLong();
+                int rows = footer.readInt(), groupFirstDay = footer.readInt(), groupLastDay = footer.readInt();
+                int[] oversizedRows = new int[footer.readInt()];
+                BigDecimal[] oversizedPrices = new BigDecimal[oversizedRows.length];
+                for (int i = 0; i < oversizedRows.length; i++) {
+                    oversizedRows[i] = footer.readInt();
+                    oversizedPrices[i] = PriceBatches.readDecimal(footer);
+                }
+                if (groupLastDay < firstDay || groupFirstDay > lastDay) {
+                    skippedGroups++;
+                    continue;
+                }
+                readGroups++;
+                PipelineMetrics.shared().add(PipelineMetrics.Counter.BYTES_READ, (long) rows * ColumnarCache.ROW_SIZE);
+                ByteBuffer columns = channel.map(FileChannel.MapMode.READ_ONLY, offset,
+                        (long) rows * ColumnarCache.ROW_SIZE);
+                boolean filtered = groupFirstDay < firstDay || groupLastDay > lastDay;
+                int oversized = 0;
+                for (int row = 0; row < rows && !subscriber.isUnsubscribed(); row += batch.capacity()) {
+                    int size = Math.min(batch.capacity(), rows - row);
+                    column(columns, 4 * row, 4 * size).asIntBuffer().get(batch.instrumentId, 0, size);
+                    column(columns, 4 * rows + 4 * row, 4 * size).asIntBuffer().get(batch.epochDay, 0, size);
+                    column(columns, 8 * rows + 8 * row, 8 * size).asLongBuffer().get(batch.scaledPrice, 0, size);
+                    column(columns, 16 * rows + row, size).get(batch.priceScale, 0, size);
+                    for (; oversized < oversizedRows.length && oversizedRows[oversized] < row + size; oversized++)
+                        batch.setOversized(oversizedRows[oversized] - row, oversizedPrices[oversized]);
+                    batch.size = filtered ? keepDates(batch, size) : size;
+                    for (int i = 0; i < batch.size; i++)
+                        batch.instrumentId[i] = instrumentIds[batch.instrumentId[i]];
+                    if (batch.size > 0) subscriber.onNext(batch);
+                    batch.clear();
+                }
+            }
+            if (!subscriber.isUnsubscribed()) subscriber.onCompleted();
+        } catch (Exception e) {
+            subscriber.onError(e);
+        }
+    }
+
+    private static DataInputStream footer(FileChannel channel) throws IOException {
+        long size = channel.size();
+        ByteBuffer header = ByteBuffer.allocate(8);
+        channel.read(header, 0);
+        ByteBuffer trailer = ByteBuffer.allocate(ColumnarCache.TRAILER_SIZE);
+        channel.read(trailer, size - ColumnarCache.TRAILER_SIZE);
+        if (size < ColumnarCache.HEADER_SIZE + ColumnarCache.TRAILER_SIZE || header.getInt(0) != ColumnarCache.MAGIC ||
+                trailer.getInt(8) != ColumnarCache.MAGIC)
+            throw new IOException("Invalid columnar cache!");
+        if (header.getInt(4) != ColumnarCache.VERSION)
+            throw new IOException("Unsupported version " + header.getInt(4) + " of columnar cache!");
+        long offset = trailer.getLong(0);
+        ByteBuffer footer = ByteBuffer.allocate((int) (size - ColumnarCache.TRAILER_SIZE - offset));
+        while (footer.hasRemaining())
+            if (channel.read(footer, offset + footer.position()) < 0)
+                throw new IOException("Truncated columnar cache!");
+        return new DataInputStream(new ByteArrayInputStream(footer.array()));
+    }
+
+    private static ByteBuffer column(ByteBuffer columns, int position, int length) {
+        columns.limit(position + length).position(position);
+        ByteBuffer column = columns.slice().order(ByteOrder.LITTLE_ENDIAN);
+        columns.clear();
+        return column;
+    }
+
+    /**
+     * Moves rows dated by the range to the beginning of the batch.
+     * @return amount of kept rows
+     */
+    private int keepDates(PriceBatch batch, int size) {
+        int kept = 0;
+        for (int row = 0; row < size; row++) {
+            int day = batch.epochDay[row];
+            if (day < firstDay || day > lastDay) continue;
+            batch.instrumentId[kept] = batch.instrumentId[row];
+            batch.epochDay[kept] = day;
+            batch.scaledPrice[kept] = batch.scaledPrice[row];
+            batch.priceScale[kept] = batch.priceScale[row];
+            if (batch.isOversized(row)) batch.setOversized(kept, batch.price(row));
+            kept++;
+        }
+        return kept;
+    }
+}
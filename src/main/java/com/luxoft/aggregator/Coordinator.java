@@ -0,0 +1,124 @@
+package com.luxoft.aggregator;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Fans calculations of {@link StreamDriver} out to worker processes. The input is split into byte ranges ending just
+ * after line separators, a child JVM runs a {@link Worker} per range writing its partial state to a shared directory,
+ * then the partial states are merged into the results. Workers get the JVM options, the classpath and aggregator
+ * system properties of the coordinator, so they run with the same heap and calculate the same rules with the same
+ * calendar. A debugger agent is not passed, as workers would compete for its port.
+ * @author Dmitry Dobrynin
+ */
+public class Coordinator {
+    private final Path input;
+    private final int workers;
+    private final Path directory;
+
+    /**
+     * Creates a coordinator.
+     * @param input specifies input file
+     * @param workers specifies amount of worker processes
+     * @param directory specifies directory of partial states shared by workers
+     */
+    public Coordinator(Path input, int workers, Path directory) {
+        if (workers <= 0) throw new IllegalArgumentException("Invalid amount of workers " + workers + "!");
+        this.input = input;
+        this.workers = workers;
+        this.directory = directory;
+    }
+
+    /**
+     * Splits the input into ranges of about the same size.
+     * @return offsets of ranges, a range starts at an offset and ends at the next one
+     */
+    long[] split() throws IOException {
+        try (FileChannel channel = FileChannel.open(input, StandardOpenOption.READ)) {
+            long size = channel.size();
+            ByteBuffer probe = ByteBuffer.allocate(4096);
+            long[] offsets = new long[workers + 1];
+            for (int i = 1; i < workers; i++) {
+                long offset = MappedFileSource.nextLine(channel, size / workers * i, size, probe);
+                offsets[i] = Math.max(offsets[i - 1], offset);
+            }
+            offsets[workers] = size;
+            return offsets;
+        }
+    }
+
+    /**
+     * Runs workers and merges their partial states.
+     * @param rules specifies rules calculated by workers
+     * @return merged plan
+     * @throws IOException if a partial state could not be read
+     * @throws IllegalStateException if a worker has failed
+     */
+    public CalculationPlan run(CalculationRules rules) throws IOException, InterruptedException {
+        long[] offsets = split();
+        List<Process> processes = new ArrayList<>();
+        List<Path> partials = new ArrayList<>();
+        try {
+            for (int i = 0; i < workers; i++) {
+                if (offsets[i] == offsets[i + 1]) continue;
+                Path partial = directory.resolve(input.getFileName() + "." + i + ".partial");
+                partials.add(partial);
+                processes.add(new ProcessBuilder(command(offsets[i], offsets[i + 1], partial)).inheritIO().start());
+            }
+            for (int i = 0; i < processes.size(); i++) {
+                int exitCode = processes.get(i).waitFor();
+                if (exitCode != 0) throw new IllegalStateException(String.format(
+                        "Worker calculating %s has failed with exit code %s!", partials.get(i), exitCode));
+            }
+            CalculationPlan result = rules.compile();
+            for (Path partial : partials)
+                result.merge(PartialStates.read(partial, rules::compile));
+            return result;
+        } finally {
+            for (Process process : processes)
+                process.destroy();
+            for (Path partial : partials)
+                Files.deleteIfExists(partial);
+        }
+    }
+
+    private List<String> command(long from, long to, Path partial) {
+        List<String> command = new ArrayList<>();
+        command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+        for (String argument : ManagementFactory.getRuntimeMXBean().getInputArguments())
+            if (!argument.startsWith("-Daggregator.") && !argument.startsWith("-agentlib:jdwp")) command.add(argument);
+        for (String name : System.getProperties().stringPropertyNames())
+            if (name.startsWith("aggregator.")) command.add("-D" + name + "=" + System.getProperty(name));
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(Worker.class.getName());
+        command.add(input.toString());
+        command.add(String.valueOf(from));
+        command.add(String.valueOf(to));
+        command.add(partial.toString());
+        return command;
+    }
+
+    /**
+     * Runs a coordinator printing results the way {@link StreamDriver} does.
+     * @param args specifies input file, amount of workers and directory of partial states shared by workers
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length < 1) {
+            System.out.println("Usage: Coordinator <input> [workers] [directory]");
+            return;
+        }
+        Path input = Paths.get(args[0]);
+        int workers = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+        Path directory = args.length > 2 ? Paths.get(args[2]) : input.toAbsolutePath().getParent();
+        System.out.println(new Coordinator(input, workers, directory).run(CalculationRules.configured()).results());
+    }
+}
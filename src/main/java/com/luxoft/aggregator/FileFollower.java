@@ -0,0 +1,170 @@
+package com.luxoft.aggregator;
+
+import rx.Observable;
+import rx.Subscriber;
+import rx.observables.ConnectableObservable;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongConsumer;
+
+/**
+ * Follows a file being appended to. Complete lines appended since the last processed offset are parsed to batches on
+ * the thread connecting to the stream, then the follower waits for the file to change. Changes are watched by a
+ * {@link WatchService} and the file is polled anyway every poll interval, since some file systems do not report
+ * changes. The stream completes when the follower is stopped, so accumulators attached to it are updated in place
+ * and their results can be taken between polls.
+ * @author Dmitry Dobrynin
+ */
+public class FileFollower implements PriceSource {
+    public static final long DEFAULT_POLL_INTERVAL = 1000;
+    public static final int DEFAULT_BUFFER_SIZE = 1 << 20;
+
+    private final Path path;
+    private final long pollInterval;
+    private final int bufferSize;
+    private volatile long offset;
+    private volatile boolean stopped;
+    private LongConsumer caughtUp = offset -> {};
+
+    public FileFollower(Path path) {
+        this(path, DEFAULT_POLL_INTERVAL, DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * Creates a follower.
+     * @param path specifies file to be followed
+     * @param pollInterval specifies milliseconds the follower waits for a change before it checks the file anyway
+     * @param bufferSize specifies size of a buffer appended bytes are read into, it grows for longer lines
+     */
+    public FileFollower(Path path, long pollInterval, int bufferSize) {
+        if (pollInterval <= 0 || bufferSize <= 0)
+            throw new IllegalArgumentException(String.format("Invalid poll interval %s or buffer size %s!",
+                    pollInterval, bufferSize));
+        this.path = path;
+        this.pollInterval = pollInterval;
+        this.bufferSize = bufferSize;
+    }
+
+    /**
+     * Starts following at the offset instead of the beginning of the file.
+     * @param offset specifies offset just after a line separator
+     * @return this follower
+     */
+    public FileFollower from(long offset) {
+        if (offset < 0) throw new IllegalArgumentException("Invalid offset " + offset + "!");
+        this.offset = offset;
+        return this;
+    }
+
+    /**
+     * Notifies of every poll after all complete lines appended so far have been emitted.
+     * @param caughtUp receives the processed offset on the thread connecting to the stream
+     * @return this follower
+     */
+    public FileFollower onCaughtUp(LongConsumer caughtUp) {
+        this.caughtUp = caughtUp;
+        return this;
+    }
+
+    /**
+     * Provides offset just after the last processed line.
+     * @return processed offset
+     */
+    public long offset() {
+        return offset;
+    }
+
+    /**
+     * Stops following, the stream completes within the poll interval.
+     */
+    public void stop() {
+        stopped = true;
+    }
+
+    public ConnectableObservable<PriceBatch> batches() {
+        return Observable.<PriceBatch>create(this::follow).publish();
+    }
+
+    private void follow(Subscriber<? super PriceBatch> subscriber) {
+        InstrumentPriceParser parser = new InstrumentPriceParser();
+        PriceBatchPool pool = new PriceBatchPool(PriceBatch.DEFAULT_CAPACITY, 2);
+        ByteBuffer buffer = ByteBuffer.allocate(bufferSize);
+        try (WatchService watcher = watch()) {
+            while (!stopped && !subscriber.isUnsubscribed()) {
+                if (Files.exists(path)) {
+                    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                        buffer = readAppended(channel, buffer, parser, pool, subscriber);
+                    }
+                }
+                caughtUp.accept(offset);
+                await(watcher);
+            }
+            if (!subscriber.isUnsubscribed()) subscriber.onCompleted();
+        } catch (Exception e) {
+            subscriber.onError(e);
+        }
+    }
+
+    /**
+     * Parses complete lines appended since the processed offset, a buffer without a line separator is doubled.
+     */
+    private ByteBuffer readAppended(FileChannel channel, ByteBuffer buffer, InstrumentPriceParser parser,
+                                    PriceBatchPool pool, Subscriber<? super PriceBatch> subscriber) throws IOException {
+        long size = channel.size();
+        if (size < offset) throw new IOException(String.format("File %s has been truncated to %s bytes below " +
+                "processed offset %s!", path, size, offset));
+        while (offset < size && !subscriber.isUnsubscribed()) {
+            buffer.clear();
+            int read = Math.max(channel.read(buffer, offset), 0);
+            int end = read;
+            while (end > 0 && buffer.get(end - 1) != '\n')
+                end--;
+            if (end == 0) {
+                if (read < buffer.capacity()) break;
+                buffer = ByteBuffer.allocate(buffer.capacity() * 2);
+                continue;
+            }
+            buffer.position(0).limit(end);
+            parser.parseLines(buffer, pool, batch -> {
+                subscriber.onNext(batch);
+                pool.release(batch);
+            });
+            offset += end;
+            PipelineMetrics.shared().add(PipelineMetrics.Counter.BYTES_READ, end);
+        }
+        return buffer;
+    }
+
+    /**
+     * Watches the directory of the file, no changes are watched if the file system does not support it.
+     */
+    private WatchService watch() {
+        Path directory = path.toAbsolutePath().getParent();
+        try {
+            WatchService watcher = directory.getFileSystem().newWatchService();
+            directory.register(watcher, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+            return watcher;
+        } catch (IOException | UnsupportedOperationException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Waits for a change of the directory of the file or the poll interval, whichever comes first.
+     */
+    private void await(WatchService watcher) throws InterruptedException {
+        if (watcher == null) {
+            Thread.sleep(pollInterval);
+            return;
+        }
+        WatchKey key = watcher.poll(pollInterval, TimeUnit.MILLISECONDS);
+        for (; key != null; key = watcher.poll()) {
+            key.pollEvents();
+            key.reset();
+        }
+    }
+}
@@ -0,0 +1,185 @@
+package com.luxoft.aggregator;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+
+/**
+ * Represents decimal numbers as longs multiplied by 10^scale. Conversions fail rather than lose digits, quotients are
+ * rounded half up to the scale. Sums are kept in 128 bits, so summing overflows only if the result itself does not
+ * fit a long.
+ * @author Dmitry Dobrynin
+ */
+public final class FixedPoint {
+    public static final int MAX_SCALE = 18;
+
+    private final int scale;
+
+    public FixedPoint(int scale) {
+        if (scale < 0 || scale > MAX_SCALE) throw new IllegalArgumentException("Invalid scale " + scale + "!");
+        this.scale = scale;
+    }
+
+    public int scale() {
+        return scale;
+    }
+
+    /**
+     * Converts a decimal to a fixed point number.
+     * @param value specifies decimal
+     * @return value multiplied by 10^scale
+     * @throws ArithmeticException if the value has more fractional digits than the scale or is too large
+     */
+    public long toLong(BigDecimal value) {
+        int valueScale = value.scale();
+        if (valueScale >= 0 && valueScale <= scale && value.unscaledValue().bitLength() < 64)
+            return Math.multiplyExact(value.unscaledValue().longValue(), PriceBatch.POWERS_OF_TEN[scale - valueScale]);
+        return value.setScale(scale).unscaledValue().longValueExact();
+    }
+
+    /**
+     * Converts a fixed point number to a decimal.
+     * @param value specifies fixed point number
+     * @return decimal having the scale
+     */
+    public BigDecimal toBigDecimal(long value) {
+        return BigDecimal.valueOf(value, scale);
+    }
+
+    /**
+     * Divides a signed 128-bit number by a positive long rounding half up.
+     * @throws ArithmeticException if the quotient does not fit a long
+     */
+    static long divide(long high, long low, long divisor) {
+        boolean negative = high < 0;
+        if (negative) {
+            low = -low;
+            high = low == 0 ? -high : ~high;
+        }
+        if (Long.compareUnsigned(high, divisor) >= 0) throw new ArithmeticException("Fixed point overflow!");
+        long[] remainder = new long[1];
+        long quotient = divideUnsigned(high, low, divisor, remainder);
+        if (Long.compareUnsigned(remainder[0], divisor - remainder[0]) >= 0) {
+            if (quotient == -1) throw new ArithmeticException("Fixed point overflow!");
+            quotient++;
+        }
+        if (quotient < 0 && !(negative && quotient == Long.MIN_VALUE))
+            throw new ArithmeticException("Fixed point overflow!");
+        return negative ? -quotient : quotient;
+    }
+
+    /**
+     * Divides an unsigned 128-bit number by an unsigned long as described in Hacker's Delight, the high part has to be
+     * less than the divisor.
+     */
+    private static long divideUnsigned(long high, long low, long divisor, long[] remainder) {
+        int shift = Long.numberOfLeadingZeros(divisor);
+        divisor <<= shift;
+        long divisorHigh = divisor >>> 32, divisorLow = divisor & 0xFFFFFFFFL;
+        long numerator = shift == 0 ? high : high << shift | low >>> (64 - shift);
+        low <<= shift;
+        long lowHigh = low >>> 32, lowLow = low & 0xFFFFFFFFL;
+
+        long quotientHigh = Long.divideUnsigned(numerator, divisorHigh);
+        long rest = numerator - quotientHigh * divisorHigh;
+        while (quotientHigh >>> 32 != 0 ||
+                Long.compareUnsigned(quotientHigh * divisorLow, rest << 32 | lowHigh) > 0) {
+            quotientHigh--;
+            rest += divisorHigh;
+            if (rest >>> 32 != 0) break;
+        }
+
+        numerator = (numerator << 32 | lowHigh) - quotientHigh * divisor;
+        long quotientLow = Long.divideUnsigned(numerator, divisorHigh);
+        rest = numerator - quotientLow * divisorHigh;
+        while (quotientLow >>> 32 != 0 ||
+                Long.compareUnsigned(quotientLow * divisorLow, rest << 32 | lowLow) > 0) {
+            quotientLow--;
+            rest += divisorHigh;
+            if (rest >>> 32 != 0) break;
+        }
+
+        remainder[0] = ((numerator << 32 | lowLow) - quotientLow * divisor) >>> shift;
+        return quotientHigh << 32 | quotientLow;
+    }
+
+    /**
+     * Converts a 128 bit value to a big integer.
+     * @param high specifies high 64 bits
+     * @param low specifies low 64 bits
+     * @return the value
+     */
+    static BigInteger toBigInteger(long high, long low) {
+        BigInteger unsignedLow = BigInteger.valueOf(low >>> 1).shiftLeft(1).add(BigInteger.valueOf(low & 1));
+        return BigInteger.valueOf(high).shiftLeft(64).add(unsignedLow);
+    }
+
+    /**
+     * Accumulates sum of longs in 128 bits, so it never overflows.
+     */
+    public static class Sum {
+        long high;
+        long low;
+        long count;
+
+        public void add(long value) {
+            long result = low + value;
+            high += (value >> 63) + (Long.compareUnsigned(result, low) < 0 ? 1 : 0);
+            low = result;
+            count++;
+        }
+
+        public void merge(Sum other) {
+            long result = low + other.low;
+            high += other.high + (Long.compareUnsigned(result, low) < 0 ? 1 : 0);
+            low = result;
+            count += other.count;
+        }
+
+        public long count() {
+            return count;
+        }
+
+        /**
+         * Provides the sum.
+         * @return the sum
+         * @throws ArithmeticException if the sum does not fit a long
+         */
+        public long sum() {
+            if (high != low >> 63) throw new ArithmeticException("Fixed point overflow!");
+            return low;
+        }
+
+        /**
+         * Provides the mean of accumulated values.
+         * @return the sum divided by the count rounded half up
+         * @throws ArithmeticException if nothing has been accumulated
+         */
+        public long mean() {
+            if (count == 0) throw new ArithmeticException("Mean of no values!");
+            return divide(high, low, count);
+        }
+
+        public BigInteger toBigInteger() {
+            return FixedPoint.toBigInteger(high, low);
+        }
+    }
+
+    /**
+     * Keeps maximum of longs starting with zero as the maximum of decimals does.
+     */
+    public static class Max {
+        long max;
+
+        public void add(long value) {
+            if (value > max) max = value;
+        }
+
+        public void merge(Max other) {
+            add(other.max);
+        }
+
+        public long max() {
+            return max;
+        }
+    }
+}
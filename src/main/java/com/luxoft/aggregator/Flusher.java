@@ -41,7 +41,12 @@ public class Flusher extends Subscriber<InstrumentPrice> {
             String line = String.format("%s,%s,%s\n", price.getName(),
                     price.getDate().format(InstrumentPriceUtilities.DATE_FORMATTER),
                     price.getPrice());
+            long started = PipelineMetrics.started();
             writer.append(line);
+            PipelineMetrics metrics = PipelineMetrics.shared();
+            metrics.record(PipelineMetrics.Stage.WRITE, started);
+            metrics.increment(PipelineMetrics.Counter.RECORDS_WRITTEN);
+            metrics.add(PipelineMetrics.Counter.BYTES_WRITTEN, line.length());
         } catch (IOException e) {
             e.printStackTrace();
             close();
@@ -0,0 +1,325 @@
+package com.luxoft.aggregator;
+
+import rx.Observable;
+import rx.Subscriber;
+import rx.observables.ConnectableObservable;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.zip.*;
+
+/**
+ * Reads a gzip compressed file. Decoded blocks are parsed to batches on their own threads and handed to the thread
+ * connecting to the stream through a bounded queue in the file order, the lines split between blocks are parsed by the
+ * connecting thread. Members of a block gzip (BGZF) file know their compressed sizes, so they are read one after
+ * another and inflated in parallel, any other file is inflated sequentially by a thread of its own starting from the
+ * first member lacking its size.
+ * @author Dmitry Dobrynin
+ */
+public class GzipSource implements PriceSource {
+    public static final int DEFAULT_BLOCK_SIZE = 4 << 20;
+    private static final int HEADER_SIZE = 12;
+    private static final int TRAILER_SIZE = 8;
+    private static final int FEXTRA = 4;
+    private static final Object END_OF_FILE = new Object();
+
+    private final Path path;
+    private final int threads;
+    private final int blockSize;
+
+    public GzipSource(Path path) {
+        this(path, Runtime.getRuntime().availableProcessors(), DEFAULT_BLOCK_SIZE);
+    }
+
+    /**
+     * Creates a source.
+     * @param path specifies gzip compressed file
+     * @param threads specifies amount of threads inflating and parsing blocks
+     * @param blockSize specifies amount of decoded bytes parsed at once, a block consists of whole members
+     */
+    public GzipSource(Path path, int threads, int blockSize) {
+        if (threads <= 0 || blockSize <= 0)
+            throw new IllegalArgumentException(String.format("Invalid threads %s or block size %s!",
+                    threads, blockSize));
+        this.path = path;
+        this.threads = threads;
+        this.blockSize = blockSize;
+    }
+
+    /**
+     * Checks whether a file is gzip compressed judging by its name.
+     * @param path specifies file
+     * @return true if the file name ends with .gz
+     */
+    public static boolean isCompressed(Path path) {
+        return path.getFileName().toString().endsWith(".gz");
+    }
+
+    /**
+     * Provides prices parsed by the inflating threads, batches are returned to a pool after they have been emitted.
+     * @return a stream of batches to be connected to
+     */
+    public ConnectableObservable<PriceBatch> batches() {
+        InstrumentPriceParser parser = new InstrumentPriceParser();
+        PriceBatchPool pool = new PriceBatchPool(PriceBatch.DEFAULT_CAPACITY, threads * 4);
+        return Observable.<PriceBatch>create(subscriber -> read(subscriber, parser, pool))
+                .lift(pool.releasing()).publish();
+    }
+
+    @SuppressWarnings("unchecked")
+    private void read(Subscriber<? super PriceBatch> subscriber, InstrumentPriceParser parser, PriceBatchPool pool) {
+        ExecutorService executor = Executors.newFixedThreadPool(threads + 1,
+                new MappedFileSource.ScannerThreadFactory(path));
+        BlockingQueue<Object> blocks = new ArrayBlockingQueue<>(threads * 2);
+        String queue = PipelineMetrics.shared().registerQueue("gzip-" + path.getFileName(), blocks::size);
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            executor.execute(() -> readBlocks(channel, executor, blocks, parser, pool));
+            ByteBuffer split = ByteBuffer.allocate(256);
+            for (Object item = blocks.take(); item != END_OF_FILE; item = blocks.take()) {
+                if (item instanceof Throwable) throw (Throwable) item;
+                Block block = ((Future<Block>) item).get();
+                if (block.head < 0) {
+                    split = append(split, block.bytes, 0, block.length);
+                    continue;
+                }
+                split = append(split, block.bytes, 0, block.head);
+                parseSplit(split, parser, pool, subscriber);
+                for (PriceBatch batch : block.batches) {
+                    if (subscriber.isUnsubscribed()) return;
+                    subscriber.onNext(batch);
+                }
+                split = append(split, block.bytes, block.tail, block.length);
+            }
+            parseSplit(split, parser, pool, subscriber);
+            if (!subscriber.isUnsubscribed()) subscriber.onCompleted();
+        } catch (ExecutionException e) {
+            subscriber.onError(e.getCause());
+        } catch (Throwable e) {
+            subscriber.onError(e);
+        } finally {
+            executor.shutdownNow();
+            PipelineMetrics.shared().unregisterQueue(queue);
+        }
+    }
+
+    private static void parseSplit(ByteBuffer split, InstrumentPriceParser parser, PriceBatchPool pool,
+                                   Subscriber<? super PriceBatch> subscriber) {
+        split.flip();
+        if (split.hasRemaining() && !subscriber.isUnsubscribed()) parser.parseLines(split, pool, subscriber::onNext);
+        split.clear();
+    }
+
+    private static ByteBuffer append(ByteBuffer buffer, byte[] bytes, int from, int to) {
+        if (buffer.remaining() < to - from) {
+            ByteBuffer wider = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + to - from));
+            buffer.flip();
+            buffer = wider.put(buffer);
+        }
+        return buffer.put(bytes, from, to - from);
+    }
+
+    /**
+     * Reads members of the file and submits blocks of them to be inflated and parsed, blocks are queued in the file
+     * order. Sizes of members are taken from their headers while there are ones.
+     */
+    private void readBlocks(FileChannel channel, ExecutorService executor, BlockingQueue<Object> blocks,
+                            InstrumentPriceParser parser, PriceBatchPool pool) {
+        try {
+            long size = channel.size(), offset = 0;
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE + 0xffff).order(ByteOrder.LITTLE_ENDIAN);
+            List<Member> members = new ArrayList<>();
+            int decoded = 0;
+            while (offset < size) {
+                int memberSize = memberSize(channel, offset, header);
+                if (memberSize < 0) break;
+                Member member = new Member(offset, read(channel, offset, memberSize));
+                PipelineMetrics.shared().add(PipelineMetrics.Counter.BYTES_READ, memberSize);
+                members.add(member);
+                decoded += member.decodedSize();
+                offset += memberSize;
+                if (decoded >= blockSize) {
+                    put(blocks, executor.submit(inflating(members, decoded, parser, pool)));
+                    members = new ArrayList<>();
+                    decoded = 0;
+                }
+            }
+            if (!members.isEmpty()) put(blocks, executor.submit(inflating(members, decoded, parser, pool)));
+            if (offset < size) {
+                inflateSequentially(channel.position(offset), executor, blocks, parser, pool);
+                PipelineMetrics.shared().add(PipelineMetrics.Counter.BYTES_READ, size - offset);
+            }
+            put(blocks, END_OF_FILE);
+        } catch (CancellationException e) {
+            // the stream has been unsubscribed or failed
+        } catch (Throwable e) {
+            try {
+                blocks.put(e);
+            } catch (InterruptedException ignored) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private static Callable<Block> inflating(List<Member> members, int length, InstrumentPriceParser parser,
+                                             PriceBatchPool pool) {
+        return () -> Block.parse(inflate(members, length), length, parser, pool);
+    }
+
+    private void inflateSequentially(FileChannel channel, ExecutorService executor, BlockingQueue<Object> blocks,
+                                     InstrumentPriceParser parser, PriceBatchPool pool) throws IOException {
+        InputStream in = new GZIPInputStream(new BufferedInputStream(Channels.newInputStream(channel), 1 << 16),
+                1 << 16);
+        while (true) {
+            byte[] bytes = new byte[blockSize];
+            int length = 0, read;
+            while (length < bytes.length && (read = in.read(bytes, length, bytes.length - length)) >= 0)
+                length += read;
+            if (length == 0) return;
+            int blockLength = length;
+            put(blocks, executor.submit(() -> Block.parse(bytes, blockLength, parser, pool)));
+            if (length < bytes.length) return;
+        }
+    }
+
+    private static void put(BlockingQueue<Object> blocks, Object item) {
+        try {
+            blocks.put(item);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CancellationException();
+        }
+    }
+
+    /**
+     * Provides the size of a BGZF member taken from its header.
+     * @return size of the member or -1 if there is no member of a known size at the offset
+     */
+    static int memberSize(FileChannel channel, long offset, ByteBuffer header) throws IOException {
+        header.clear().limit(HEADER_SIZE);
+        readFully(channel, header, offset);
+        if (header.position() < HEADER_SIZE || (header.get(0) & 0xff) != 0x1f || (header.get(1) & 0xff) != 0x8b ||
+                header.get(2) != 8 || header.get(3) != FEXTRA) return -1;
+        int extraLength = header.getShort(10) & 0xffff;
+        header.limit(HEADER_SIZE + extraLength);
+        readFully(channel, header, offset);
+        for (int i = HEADER_SIZE; i + 4 <= header.position(); ) {
+            int fieldLength = header.getShort(i + 2) & 0xffff;
+            if (header.get(i) == 'B' && header.get(i + 1) == 'C' && fieldLength == 2 && i + 6 <= header.position())
+                return (header.getShort(i + 4) & 0xffff) + 1;
+            i += 4 + fieldLength;
+        }
+        return -1;
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long offset) throws IOException {
+        while (buffer.hasRemaining())
+            if (channel.read(buffer, offset + buffer.position()) < 0) return;
+    }
+
+    private static ByteBuffer read(FileChannel channel, long offset, int size) throws IOException {
+        ByteBuffer member = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+        readFully(channel, member, offset);
+        if (member.hasRemaining()) throw new ZipException("Truncated gzip member at offset " + offset + "!");
+        return member;
+    }
+
+    private static byte[] inflate(List<Member> members, int length) throws ZipException {
+        byte[] decoded = new byte[length];
+        Inflater inflater = new Inflater(true);
+        CRC32 crc = new CRC32();
+        try {
+            int position = 0;
+            for (Member member : members) {
+                member.inflate(inflater, decoded, position, crc);
+                position += member.decodedSize();
+                inflater.reset();
+                crc.reset();
+            }
+        } finally {
+            inflater.end();
+        }
+        return decoded;
+    }
+
+    /**
+     * Represents compressed bytes of a BGZF member.
+     */
+    private static class Member {
+        final long offset;
+        final ByteBuffer bytes;
+
+        Member(long offset, ByteBuffer bytes) throws ZipException {
+            this.offset = offset;
+            this.bytes = bytes;
+            int limit = bytes.limit();
+            if (limit < HEADER_SIZE + TRAILER_SIZE || decodedSize() < 0 || decodedSize() > (long) limit * 1032)
+                throw new ZipException("Corrupt gzip member at offset " + offset + "!");
+        }
+
+        int decodedSize() {
+            return bytes.getInt(bytes.limit() - 4);
+        }
+
+        void inflate(Inflater inflater, byte[] target, int position, CRC32 crc) throws ZipException {
+            int dataStart = HEADER_SIZE + (bytes.getShort(10) & 0xffff), dataEnd = bytes.limit() - TRAILER_SIZE;
+            inflater.setInput(bytes.array(), dataStart, dataEnd - dataStart);
+            int length = 0, size = decodedSize();
+            try {
+                while (length < size && !inflater.finished()) {
+                    int inflated = inflater.inflate(target, position + length, size - length);
+                    if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) break;
+                    length += inflated;
+                }
+            } catch (DataFormatException e) {
+                throw new ZipException("Corrupt gzip member at offset " + offset + ": " + e.getMessage() + "!");
+            }
+            crc.update(target, position, length);
+            if (length != size || (int) crc.getValue() != bytes.getInt(dataEnd))
+                throw new ZipException("Corrupt gzip member at offset " + offset + "!");
+        }
+    }
+
+    /**
+     * Represents decoded bytes parsed except the lines split with the neighbouring blocks.
+     */
+    static class Block {
+        final byte[] bytes;
+        final int length;
+        final List<PriceBatch> batches = new ArrayList<>();
+        /** the end of the first line or -1 if there is no line separator */
+        int head = -1;
+        /** the start of the last incomplete line */
+        int tail;
+
+        Block(byte[] bytes, int length) {
+            this.bytes = bytes;
+            this.length = length;
+        }
+
+        static Block parse(byte[] bytes, int length, InstrumentPriceParser parser, PriceBatchPool pool) {
+            Block block = new Block(bytes, length);
+            int first = 0, last = length;
+            while (first < length && bytes[first] != '\n')
+                first++;
+            while (last > first && bytes[last - 1] != '\n')
+                last--;
+            if (first == length) return block;
+            block.head = first + 1;
+            block.tail = last;
+            if (block.tail > block.head)
+                parser.parseLines(ByteBuffer.wrap(bytes, block.head, block.tail - block.head), pool,
+                        block.batches::add);
+            return block;
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package com.luxoft.aggregator;
+
+import java.util.Arrays;
+
+/**
+ * Maps instrument names to dense int identifiers assigned in order of appearance. Lookups of known names do not
+ * lock nor allocate, so a name can be resolved straight from a window of a parsed line.
+ * @author Dmitry Dobrynin
+ */
+public class InstrumentDictionary {
+    private static final InstrumentDictionary SHARED = new InstrumentDictionary();
+
+    private volatile Entry[] table = new Entry[1024];
+    private volatile String[] names = new String[512];
+    private int size;
+
+    /**
+     * Provides the dictionary used by instrument prices.
+     * @return shared dictionary
+     */
+    public static InstrumentDictionary shared() {
+        return SHARED;
+    }
+
+    /**
+     * Provides an identifier of the instrument registering it on first sight.
+     * @param name specifies instrument name
+     * @return instrument identifier
+     */
+    public int idOf(CharSequence name) {
+        return idOf(name, 0, name.length());
+    }
+
+    /**
+     * Provides an identifier of the instrument registering it on first sight.
+     * @param chars specifies characters containing instrument name
+     * @param start specifies the start index of the name inclusive
+     * @param end specifies the end index of the name exclusive
+     * @return instrument identifier
+     */
+    public int idOf(CharSequence chars, int start, int end) {
+        int hash = hash(chars, start, end);
+        int id = find(table, chars, start, end, hash);
+        return id >= 0 ? id : register(chars, start, end, hash);
+    }
+
+    /**
+     * Searches for an identifier of the instrument without registering it.
+     * @param name specifies instrument name
+     * @return instrument identifier or -1 if the instrument is unknown
+     */
+    public int find(CharSequence name) {
+        return find(table, name, 0, name.length(), hash(name, 0, name.length()));
+    }
+
+    /**
+     * Resolves the instrument name.
+     * @param id specifies instrument identifier
+     * @return instrument name
+     */
+    public String nameOf(int id) {
+        String[] known = names;
+        if (id < 0 || id >= known.length || known[id] == null)
+            throw new IllegalArgumentException("Unknown instrument " + id + "!");
+        return known[id];
+    }
+
+    /**
+     * Provides amount of known instruments, identifiers are always less than the size.
+     * @return amount of registered instruments
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    private synchronized int register(CharSequence chars, int start, int end, int hash) {
+        int id = find(table, chars, start, end, hash);
+        if (id >= 0) return id;
+
+        String name = chars.subSequence(start, end).toString();
+        id = size++;
+        String[] known = id < names.length ? names : Arrays.copyOf(names, names.length * 2);
+        known[id] = name;
+        names = known;
+
+        Entry[] entries = size * 2 > table.length ? new Entry[table.length * 2] : table;
+        if (entries != table)
+            for (Entry entry : table)
+                if (entry != null) entries[slot(entries, entry.hash)] = entry;
+        entries[slot(entries, hash)] = new Entry(name, id, hash);
+        table = entries;
+        return id;
+    }
+
+    private static int find(Entry[] entries, CharSequence chars, int start, int end, int hash) {
+        int mask = entries.length - 1;
+        for (int i = hash & mask; ; i = (i + 1) & mask) {
+            Entry entry = entries[i];
+            if (entry == null) return -1;
+            if (entry.hash == hash && entry.matches(chars, start, end)) return entry.id;
+        }
+    }
+
+    private static int slot(Entry[] entries, int hash) {
+        int mask = entries.length - 1;
+        int i = hash & mask;
+        while (entries[i] != null) i = (i + 1) & mask;
+        return i;
+    }
+
+    private static int hash(CharSequence chars, int start, int end) {
+        int hash = 0;
+        for (int i = start; i < end; i++)
+            hash = 31 * hash + chars.charAt(i);
+        return hash ^ (hash >>> 16);
+    }
+
+    private static class Entry {
+        final String name;
+        final int id;
+        final int hash;
+
+        Entry(String name, int id, int hash) {
+            this.name = name;
+            this.id = id;
+            this.hash = hash;
+        }
+
+        boolean matches(CharSequence chars, int start, int end) {
+            if (name.length() != end - start) return false;
+            for (int i = start; i < end; i++)
+                if (name.charAt(i - start) != chars.charAt(i)) return false;
+            return true;
+        }
+    }
+}
@@ -8,18 +8,30 @@ import java.math.BigDecimal;
  * @author Dmitry Dobrynin
  */
 public class InstrumentPrice {
-    private String name;
+    private int instrumentId;
     private LocalDate date;
     private BigDecimal price;
 
     public InstrumentPrice(String name, LocalDate date, BigDecimal price) {
-        this.name = name;
+        this(InstrumentDictionary.shared().idOf(name), date, price);
+    }
+
+    public InstrumentPrice(int instrumentId, LocalDate date, BigDecimal price) {
+        this.instrumentId = instrumentId;
         this.date = date;
         this.price = price;
     }
 
+    /**
+     * Provides an identifier of the instrument assigned by the shared {@link InstrumentDictionary}.
+     * @return instrument identifier
+     */
+    public int getInstrumentId() {
+        return instrumentId;
+    }
+
     public String getName() {
-        return name;
+        return InstrumentDictionary.shared().nameOf(instrumentId);
     }
 
     public LocalDate getDate() {
@@ -35,21 +47,21 @@ public class InstrumentPrice {
         if (!(o instanceof InstrumentPrice)) return false;
 
         InstrumentPrice that = (InstrumentPrice) o;
-        return name.equals(that.name) && date.equals(that.date);
+        return instrumentId == that.instrumentId && date.equals(that.date);
 
     }
 
     public int hashCode() {
-        int result = name.hashCode();
+        int result = instrumentId;
         result = 31 * result + date.hashCode();
         return result;
     }
 
     public String toString() {
-        return String.format("InstrumentPrice(%s,%s,%s)", name, date, price);
+        return String.format("InstrumentPrice(%s,%s,%s)", getName(), date, price);
     }
 
     public InstrumentPrice multiply(BigDecimal coef) {
-        return new InstrumentPrice(name, date, coef.multiply(price));
+        return new InstrumentPrice(instrumentId, date, coef.multiply(price));
     }
 }
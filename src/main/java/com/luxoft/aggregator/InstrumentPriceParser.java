@@ -2,31 +2,259 @@ package com.luxoft.aggregator;
 
 import rx.functions.Func1;
 import java.math.BigDecimal;
-import java.time.LocalDate;
-import java.time.format.DateTimeFormatter;
-import java.util.Locale;
+import java.nio.ByteBuffer;
+import java.util.function.Consumer;
+
+import static com.luxoft.aggregator.PipelineMetrics.Counter.*;
 
 /**
- * Parses an instrument price from a string.
+ * Parses an instrument price from a string. Lines are scanned in place, the date is decoded to an epoch day and
+ * the price to an unscaled long, so nothing is allocated unless the line is converted to an {@link InstrumentPrice}.
+ * Invalid lines are rejected to {@link ParseErrors} with the code of their cause.
  * @author Dmitry Dobrynin
  */
 public class InstrumentPriceParser implements Func1<String, Either<InstrumentPrice, Tuple<String, Exception>>> {
+    private static final String MONTHS = "JanFebMarAprMayJunJulAugSepOctNovDec";
+    private static final byte[] MONTH_BY_NAME = new byte[26 * 26 * 26];
+    private static final int DAYS_0000_TO_1970 = 719528;
+    private static final int DATE_LENGTH = 11;
+    private static final int MAX_FAST_DIGITS = 18;
+
+    static {
+        for (int month = 0; month < 12; month++)
+            MONTH_BY_NAME[monthIndex(MONTHS, month * 3)] = (byte) (month + 1);
+    }
+
+    private final ParseErrors errors;
+
+    public InstrumentPriceParser() {
+        this(ParseErrors.shared());
+    }
+
+    /**
+     * Creates a parser.
+     * @param errors receives rejected lines
+     */
+    public InstrumentPriceParser(ParseErrors errors) {
+        this.errors = errors;
+    }
+
     public InstrumentPrice parseFrom(String line) {
-        if (line != null) {
-            String[] parts = line.trim().split("\\s*,\\s*");
-            if (parts.length == 3 && !parts[0].isEmpty() && !parts[1].isEmpty() && !parts[2].isEmpty())
-                return new InstrumentPrice(parts[0],
-                        LocalDate.parse(parts[1], InstrumentPriceUtilities.DATE_FORMATTER),
-                        new BigDecimal(parts[2]));
-        }
+        ParsedPrice parsed = new ParsedPrice();
+        if (line != null && parse(line, 0, line.length(), parsed))
+            return parsed.toInstrumentPrice(line);
         throw new IllegalArgumentException("Could not parse: " + line + "!");
     }
 
     public Either<InstrumentPrice, Tuple<String, Exception>> call(String line) {
+        PipelineMetrics metrics = PipelineMetrics.shared();
+        metrics.increment(RECORDS_READ);
+        ParsedPrice parsed = new ParsedPrice();
+        if (line != null && parse(line, 0, line.length(), parsed)) {
+            metrics.increment(RECORDS_PARSED);
+            return Either.l(parsed.toInstrumentPrice(line));
+        }
+        ParseError error = line == null ? ParseError.FIELD_COUNT : parsed.error;
+        metrics.increment(RECORDS_FAILED);
+        errors.reject(error, line == null ? "" : line);
+        return Either.r(Tuple.t(line, error.exception()));
+    }
+
+    /**
+     * Parses lines of a buffer from its position up to its limit to batches. Lines which could not be parsed are
+     * rejected, they are not carried by batches.
+     * @param buffer specifies bytes of lines
+     * @param pool provides batches
+     * @param sink receives filled batches
+     */
+    public void parseLines(ByteBuffer buffer, PriceBatchPool pool, Consumer<PriceBatch> sink) {
+        ByteSequence bytes = new ByteSequence(buffer);
+        ParsedPrice parsed = new ParsedPrice();
+        PriceBatch batch = pool.acquire();
+        long started = PipelineMetrics.started();
+        int failed = 0;
+        for (int i = buffer.position(), lineStart = i, limit = buffer.limit(); i <= limit; i++) {
+            if (i < limit && buffer.get(i) != '\n' || i == limit && lineStart == limit) continue;
+            int lineEnd = i > lineStart && buffer.get(i - 1) == '\r' ? i - 1 : i;
+            if (!parse(bytes, lineStart, lineEnd, parsed)) {
+                errors.reject(parsed.error, bytes, lineStart, lineEnd);
+                failed++;
+            } else {
+                int instrumentId = parsed.instrumentId(bytes);
+                if (!parsed.fitsLong() || !batch.add(instrumentId, parsed.epochDay, parsed.unscaledPrice,
+                        parsed.priceScale)) batch.add(instrumentId, parsed.epochDay, parsed.price());
+            }
+            lineStart = i + 1;
+            if (batch.isFull()) {
+                measure(batch, failed, started);
+                sink.accept(batch);
+                batch = pool.acquire();
+                started = PipelineMetrics.started();
+                failed = 0;
+            }
+        }
+        if (!batch.isEmpty() || failed > 0) measure(batch, failed, started);
+        if (batch.isEmpty()) pool.release(batch);
+        else sink.accept(batch);
+    }
+
+    private static void measure(PriceBatch batch, int failed, long started) {
+        if (!PipelineMetrics.ENABLED) return;
+        PipelineMetrics metrics = PipelineMetrics.shared();
+        metrics.record(PipelineMetrics.Stage.PARSE, started);
+        metrics.add(RECORDS_READ, batch.size + failed);
+        metrics.add(RECORDS_PARSED, batch.size);
+        metrics.add(RECORDS_FAILED, failed);
+    }
+
+    /**
+     * Parses a line in the form of name,dd-MMM-yyyy,price surrounded by optional whitespaces, trailing empty fields are
+     * ignored the way {@link String#split(String)} drops them.
+     * @param line specifies characters to be parsed
+     * @param from specifies the start index of the line inclusive
+     * @param to specifies the end index of the line exclusive
+     * @param target receives parsed values or the code of the error
+     * @return true if the line has been parsed successfully
+     */
+    public boolean parse(CharSequence line, int from, int to, ParsedPrice target) {
+        target.error = null;
+        to = trimSeparators(line, from, to);
+        int firstComma = indexOfComma(line, from, to);
+        int secondComma = indexOfComma(line, firstComma + 1, to);
+        if (secondComma >= to || indexOfComma(line, secondComma + 1, to) < to)
+            return fail(target, ParseError.FIELD_COUNT);
+
+        int nameStart = skipWhitespaces(line, from, firstComma);
+        int nameEnd = trimWhitespaces(line, nameStart, firstComma);
+        if (nameStart == nameEnd) return fail(target, ParseError.FIELD_COUNT);
+        target.nameStart = nameStart;
+        target.nameEnd = nameEnd;
+
+        int dateStart = skipWhitespaces(line, firstComma + 1, secondComma);
+        int dateEnd = trimWhitespaces(line, dateStart, secondComma);
+        int priceStart = skipWhitespaces(line, secondComma + 1, to);
+        int priceEnd = trimWhitespaces(line, priceStart, to);
+        return parseDate(line, dateStart, dateEnd, target) && parsePrice(line, priceStart, priceEnd, target);
+    }
+
+    private static boolean fail(ParsedPrice target, ParseError error) {
+        target.error = error;
+        return false;
+    }
+
+    /**
+     * Decodes a date in the dd-MMM-yyyy format resolving day of month like the smart resolver of
+     * {@link InstrumentPriceUtilities#DATE_FORMATTER} does.
+     */
+    static boolean parseDate(CharSequence line, int from, int to, ParsedPrice target) {
+        if (to - from != DATE_LENGTH || line.charAt(from + 2) != '-' || line.charAt(from + 6) != '-')
+            return fail(target, ParseError.BAD_DATE);
+        int day = digits(line, from, from + 2);
+        int month = monthIndex(line, from + 3) < 0 ? 0 : MONTH_BY_NAME[monthIndex(line, from + 3)];
+        int year = digits(line, from + 7, to);
+        if (day < 1 || day > 31 || month == 0 || year < 1) return fail(target, ParseError.BAD_DATE);
+        target.epochDay = epochDay(year, month, Math.min(day, lengthOfMonth(year, month)));
+        return true;
+    }
+
+    /**
+     * Decodes a decimal number to an unscaled long and a scale, numbers in exponential notation or with too many
+     * digits are delegated to {@link BigDecimal}.
+     */
+    static boolean parsePrice(CharSequence line, int from, int to, ParsedPrice target) {
+        target.bigPrice = null;
+        target.fitsLong = true;
+        int i = from;
+        boolean negative = false;
+        if (i < to && (line.charAt(i) == '-' || line.charAt(i) == '+')) negative = line.charAt(i++) == '-';
+        long unscaled = 0;
+        int digits = 0, significantDigits = 0, scale = -1;
+        for (; i < to; i++) {
+            char c = line.charAt(i);
+            if (c >= '0' && c <= '9') {
+                unscaled = unscaled * 10 + (c - '0');
+                digits++;
+                if (scale >= 0) scale++;
+                if (unscaled > 0 && ++significantDigits > MAX_FAST_DIGITS) return parseBigPrice(line, from, to, target);
+            } else if (c == '.' && scale < 0) {
+                scale = 0;
+            } else if (c == 'e' || c == 'E') {
+                return parseBigPrice(line, from, to, target);
+            } else {
+                return fail(target, ParseError.BAD_NUMBER);
+            }
+        }
+        if (digits == 0) return fail(target, ParseError.BAD_NUMBER);
+        target.unscaledPrice = negative ? -unscaled : unscaled;
+        target.priceScale = Math.max(scale, 0);
+        return true;
+    }
+
+    private static boolean parseBigPrice(CharSequence line, int from, int to, ParsedPrice target) {
         try {
-            return Either.l(parseFrom(line));
-        } catch (Exception e) {
-            return Either.r(Tuple.t(line, e));
+            BigDecimal price = new BigDecimal(line.subSequence(from, to).toString());
+            BigDecimal scaled = price.scale() < 0 ? price.setScale(0) : price;
+            target.bigPrice = price;
+            target.fitsLong = scaled.unscaledValue().bitLength() < 64;
+            target.unscaledPrice = scaled.unscaledValue().longValue();
+            target.priceScale = scaled.scale();
+            return true;
+        } catch (NumberFormatException e) {
+            return fail(target, ParseError.BAD_NUMBER);
+        }
+    }
+
+    private static int indexOfComma(CharSequence line, int from, int to) {
+        while (from < to && line.charAt(from) != ',') from++;
+        return from;
+    }
+
+    private static int skipWhitespaces(CharSequence line, int from, int to) {
+        while (from < to && line.charAt(from) <= ' ') from++;
+        return from;
+    }
+
+    private static int trimWhitespaces(CharSequence line, int from, int to) {
+        while (to > from && line.charAt(to - 1) <= ' ') to--;
+        return to;
+    }
+
+    private static int trimSeparators(CharSequence line, int from, int to) {
+        while (to > from && (line.charAt(to - 1) <= ' ' || line.charAt(to - 1) == ',')) to--;
+        return to;
+    }
+
+    private static int digits(CharSequence line, int from, int to) {
+        int value = 0;
+        for (int i = from; i < to; i++) {
+            char c = line.charAt(i);
+            if (c < '0' || c > '9') return -1;
+            value = value * 10 + (c - '0');
         }
+        return value;
+    }
+
+    private static int monthIndex(CharSequence line, int at) {
+        int first = line.charAt(at) - 'A', second = line.charAt(at + 1) - 'a', third = line.charAt(at + 2) - 'a';
+        if (first < 0 || first >= 26 || second < 0 || second >= 26 || third < 0 || third >= 26) return -1;
+        return (first * 26 + second) * 26 + third;
+    }
+
+    private static boolean isLeapYear(int year) {
+        return (year & 3) == 0 && (year % 100 != 0 || year % 400 == 0);
+    }
+
+    private static int lengthOfMonth(int year, int month) {
+        return month == 2 ? (isLeapYear(year) ? 29 : 28) : month == 4 || month == 6 || month == 9 || month == 11 ? 30 : 31;
+    }
+
+    /**
+     * Calculates an epoch day the same way as {@link java.time.LocalDate#toEpochDay()} does for positive years.
+     */
+    static int epochDay(int year, int month, int day) {
+        int days = 365 * year + (year + 3) / 4 - (year + 99) / 100 + (year + 399) / 400;
+        days += (367 * month - 362) / 12 + day - 1;
+        if (month > 2) days -= isLeapYear(year) ? 1 : 2;
+        return days - DAYS_0000_TO_1970;
     }
 }
@@ -4,7 +4,7 @@ import java.io.*;
 import java.nio.charset.Charset;
 import java.util.*;
 
-import com.google.common.io.Files;
+import com.google.common.io.Resources;
 import org.h2.jdbcx.JdbcDataSource;
 import org.springframework.jdbc.core.JdbcTemplate;
 import rx.Observable;
@@ -15,6 +15,7 @@ import java.time.LocalDate;
 import java.math.BigDecimal;
 import java.math.MathContext;
 import java.time.format.DateTimeFormatter;
+import java.util.function.IntPredicate;
 import static com.luxoft.aggregator.Tuple.t;
 import static java.util.Arrays.asList;
 
@@ -39,6 +40,36 @@ public class InstrumentPriceUtilities {
         return price -> instrumentPredicate.call(price.getName());
     }
 
+    /**
+     * Applies restriction on instrument identifier.
+     * @param instrumentPredicate specifies restriction
+     * @return true if instrument identifier satisfies condition
+     */
+    public static Func1<InstrumentPrice, Boolean> instrumentId(IntPredicate instrumentPredicate) {
+        return price -> instrumentPredicate.test(price.getInstrumentId());
+    }
+
+    /**
+     * Collects elements if instrument identifier belongs to one of the specified instruments.
+     * @param instruments instruments to be collected
+     * @return true if instrument is specified
+     */
+    public static IntPredicate anyOfIds(String... instruments) {
+        BitSet instrumentIds = new BitSet();
+        for (String instrument : instruments)
+            instrumentIds.set(InstrumentDictionary.shared().idOf(instrument));
+        return instrumentIds::get;
+    }
+
+    /**
+     * Collects elements if instrument identifier does not belong to any of the specified instruments.
+     * @param instruments instruments to be filtered out
+     * @return true if instrument is not in the specified instruments
+     */
+    public static IntPredicate noneOfIds(String... instruments) {
+        return anyOfIds(instruments).negate();
+    }
+
     /**
      * Collects elements if instrument name is specified as an argument.
      * @param instruments instruments to be collected
@@ -97,6 +128,46 @@ public class InstrumentPriceUtilities {
         return prices.map(InstrumentPrice::getPrice).reduce(BigDecimal.ZERO, BigDecimal::max);
     }
 
+    /**
+     * Aggregates a stream to calculate mean value in fixed point arithmetic.
+     * @param prices a stream of instrument prices
+     * @param fixedPoint specifies scale of prices
+     * @return stream of a single mean multiplied by 10^scale and rounded half up
+     */
+    public static Observable<Long> mean(Observable<InstrumentPrice> prices, FixedPoint fixedPoint) {
+        return sumOf(prices, fixedPoint).map(FixedPoint.Sum::mean);
+    }
+
+    /**
+     * Aggregates a stream to calculate maximum price in fixed point arithmetic.
+     * @param prices a stream of instrument prices
+     * @param fixedPoint specifies scale of prices
+     * @return stream of a single maximum multiplied by 10^scale
+     */
+    public static Observable<Long> max(Observable<InstrumentPrice> prices, FixedPoint fixedPoint) {
+        return Observable.defer(() -> prices.reduce(new FixedPoint.Max(), (max, price) -> {
+            max.add(fixedPoint.toLong(price.getPrice()));
+            return max;
+        })).map(FixedPoint.Max::max);
+    }
+
+    /**
+     * Aggregates a stream to calculate sum of prices in fixed point arithmetic.
+     * @param prices a stream of instrument prices
+     * @param fixedPoint specifies scale of prices
+     * @return stream of a single sum multiplied by 10^scale
+     */
+    public static Observable<Long> sum(Observable<InstrumentPrice> prices, FixedPoint fixedPoint) {
+        return sumOf(prices, fixedPoint).map(FixedPoint.Sum::sum);
+    }
+
+    private static Observable<FixedPoint.Sum> sumOf(Observable<InstrumentPrice> prices, FixedPoint fixedPoint) {
+        return Observable.defer(() -> prices.reduce(new FixedPoint.Sum(), (sum, price) -> {
+            sum.add(fixedPoint.toLong(price.getPrice()));
+            return sum;
+        }));
+    }
+
     /**
      * Collects most relevant instrument prices from an input stream.
      * @param prices specifies original stream of instrument prices
@@ -123,7 +194,10 @@ public class InstrumentPriceUtilities {
      */
     public static Observable<InstrumentPrice> enrichPrice(Observable<InstrumentPrice> prices,
                                                           MultiplierProvider provider) {
-        return prices.map(price -> provider.multiplierFor(price.getName()).map(price::multiply).orElse(price));
+        return prices.map(price -> {
+            PipelineMetrics.shared().increment(PipelineMetrics.Counter.RECORDS_ENRICHED);
+            return provider.multiplierFor(price.getInstrumentId()).map(price::multiply).orElse(price);
+        });
     }
 
     /**
@@ -132,11 +206,20 @@ public class InstrumentPriceUtilities {
      * @throws IOException if the initializing script could not be loaded
      */
     public static DataSource createDataSource() throws IOException {
+        return createDataSource("jdbc:h2:mem:test;DB_CLOSE_DELAY=-1");
+    }
+
+    /**
+     * Creates a database and creates a table unless it exists.
+     * @param url specifies URL of the database
+     * @return data source
+     * @throws IOException if the initializing script could not be loaded
+     */
+    public static DataSource createDataSource(String url) throws IOException {
         JdbcDataSource dataSource = new JdbcDataSource();
-        dataSource.setURL("jdbc:h2:mem:test;DB_CLOSE_DELAY=-1");
+        dataSource.setURL(url);
         new JdbcTemplate(dataSource)
-                .execute(Files.asCharSource(new File("src/main/resources/initialize-schema.sql"),
-                        Charset.forName("UTF-8")).read());
+                .execute(Resources.toString(Resources.getResource("initialize-schema.sql"), Charset.forName("UTF-8")));
         return dataSource;
     }
 }
@@ -0,0 +1,516 @@
+package com.luxoft.aggregator;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.function.IntUnaryOperator;
+
+/**
+ * Calculates statistics of prices of every instrument in a single pass: count, mean, variance, skewness, kurtosis,
+ * minimum, maximum, exponentially weighted moving average and quantiles. State of an instrument is kept in flat
+ * primitive arrays at the offset of its identifier and all statistics are mergeable, so shards may calculate them
+ * independently.
+ * <p>
+ * Moments are updated by Welford's method generalized by Terriberry and merged by Pebay's formulas. Quantiles are
+ * estimated by a sketch of logarithmic buckets: a price falls into bucket ceil(log(price) / log(gamma)), so every
+ * estimate is within the relative accuracy of a price of the bucket. Each instrument owns a window of adjacent buckets
+ * moved towards higher prices when needed, the lowest bucket collects prices below the window.
+ * <p>
+ * Minimum and maximum of an instrument are kept as big decimals once it has an oversized price.
+ * @author Dmitry Dobrynin
+ */
+public class InstrumentStatistics implements PriceAccumulator<InstrumentStatistics>,
+        Checkpointable<InstrumentStatistics> {
+    public static final double DEFAULT_ALPHA = 0.1;
+    public static final double DEFAULT_RELATIVE_ACCURACY = 0.02;
+    public static final int DEFAULT_BUCKETS = 128;
+    private static final int EMPTY = Integer.MIN_VALUE;
+
+    private final double alpha;
+    private final double gamma;
+    private final double logGamma;
+    private final int buckets;
+    private final long[] window;
+
+    private long[] counts = new long[0];
+    private double[] means = new double[0];
+    private double[] m2 = new double[0];
+    private double[] m3 = new double[0];
+    private double[] m4 = new double[0];
+    private long[] mins = new long[0];
+    private long[] maxs = new long[0];
+    private byte[] minScales = new byte[0];
+    private byte[] maxScales = new byte[0];
+    private double[] ewmas = new double[0];
+    private double[] decays = new double[0];
+    private long[] nonPositive = new long[0];
+    private int[] offsets = new int[0];
+    private long[] bucketCounts = new long[0];
+    private BigDecimal[] bigMins;
+    private BigDecimal[] bigMaxs;
+
+    public InstrumentStatistics() {
+        this(DEFAULT_ALPHA, DEFAULT_RELATIVE_ACCURACY, DEFAULT_BUCKETS);
+    }
+
+    /**
+     * Creates statistics.
+     * @param alpha specifies weight of the latest price in the moving average
+     * @param relativeAccuracy specifies relative accuracy of quantiles
+     * @param buckets specifies amount of buckets of the quantile sketch of every instrument
+     */
+    public InstrumentStatistics(double alpha, double relativeAccuracy, int buckets) {
+        if (alpha <= 0 || alpha > 1) throw new IllegalArgumentException("Invalid alpha " + alpha + "!");
+        if (relativeAccuracy <= 0 || relativeAccuracy >= 1)
+            throw new IllegalArgumentException("Invalid relative accuracy " + relativeAccuracy + "!");
+        if (buckets < 2) throw new IllegalArgumentException("Invalid amount of buckets " + buckets + "!");
+        this.alpha = alpha;
+        this.gamma = (1 + relativeAccuracy) / (1 - relativeAccuracy);
+        this.logGamma = Math.log(gamma);
+        this.buckets = buckets;
+        this.window = new long[buckets];
+    }
+
+    private InstrumentStatistics(InstrumentStatistics other) {
+        alpha = other.alpha;
+        gamma = other.gamma;
+        logGamma = other.logGamma;
+        buckets = other.buckets;
+        window = new long[buckets];
+        counts = other.counts.clone();
+        means = other.means.clone();
+        m2 = other.m2.clone();
+        m3 = other.m3.clone();
+        m4 = other.m4.clone();
+        mins = other.mins.clone();
+        maxs = other.maxs.clone();
+        minScales = other.minScales.clone();
+        maxScales = other.maxScales.clone();
+        ewmas = other.ewmas.clone();
+        decays = other.decays.clone();
+        nonPositive = other.nonPositive.clone();
+        offsets = other.offsets.clone();
+        bucketCounts = other.bucketCounts.clone();
+        if (other.bigMins != null) {
+            bigMins = other.bigMins.clone();
+            bigMaxs = other.bigMaxs.clone();
+        }
+    }
+
+    public void accept(PriceBatch batch, int row) {
+        if (batch.isOversized(row)) add(batch.instrumentId[row], batch.price(row));
+        else add(batch.instrumentId[row], batch.scaledPrice[row], batch.priceScale[row]);
+    }
+
+    void add(int instrumentId, long scaledPrice, int scale) {
+        if (instrumentId >= counts.length) grow(instrumentId);
+        long n = addPrice(instrumentId, (double) scaledPrice / PriceBatch.POWERS_OF_TEN[PriceBatch.PRICE_SCALE]);
+        if (isBig(instrumentId)) {
+            BigDecimal price = PriceBatch.price(scaledPrice, scale);
+            keepBig(instrumentId, price, price);
+            return;
+        }
+        if (n == 1 || scaledPrice < mins[instrumentId]) {
+            mins[instrumentId] = scaledPrice;
+            minScales[instrumentId] = (byte) scale;
+        }
+        if (n == 1 || scaledPrice > maxs[instrumentId]) {
+            maxs[instrumentId] = scaledPrice;
+            maxScales[instrumentId] = (byte) scale;
+        }
+    }
+
+    void add(int instrumentId, BigDecimal price) {
+        if (instrumentId >= counts.length) grow(instrumentId);
+        toBig(instrumentId);
+        addPrice(instrumentId, price.doubleValue());
+        keepBig(instrumentId, price, price);
+    }
+
+    /**
+     * Updates moments, moving average and sketch of the instrument.
+     * @return amount of prices of the instrument
+     */
+    private long addPrice(int instrumentId, double price) {
+        double n = ++counts[instrumentId];
+        double delta = price - means[instrumentId];
+        double deltaN = delta / n;
+        double deltaN2 = deltaN * deltaN;
+        double term = delta * deltaN * (n - 1);
+        means[instrumentId] += deltaN;
+        m4[instrumentId] += term * deltaN2 * (n * n - 3 * n + 3) + 6 * deltaN2 * m2[instrumentId] -
+                4 * deltaN * m3[instrumentId];
+        m3[instrumentId] += term * deltaN * (n - 2) - 3 * deltaN * m2[instrumentId];
+        m2[instrumentId] += term;
+
+        ewmas[instrumentId] = (1 - alpha) * ewmas[instrumentId] + alpha * price;
+        decays[instrumentId] *= 1 - alpha;
+
+        if (price > 0) addToSketch(instrumentId, (int) Math.ceil(Math.log(price) / logGamma), 1);
+        else nonPositive[instrumentId]++;
+        return counts[instrumentId];
+    }
+
+    private boolean isBig(int instrumentId) {
+        return bigMins != null && bigMins[instrumentId] != null;
+    }
+
+    /**
+     * Starts keeping minimum and maximum of the instrument as big decimals.
+     */
+    private void toBig(int instrumentId) {
+        if (bigMins == null) {
+            bigMins = new BigDecimal[counts.length];
+            bigMaxs = new BigDecimal[counts.length];
+        }
+        if (bigMins[instrumentId] == null && counts[instrumentId] > 0) {
+            bigMins[instrumentId] = PriceBatch.price(mins[instrumentId], minScales[instrumentId]);
+            bigMaxs[instrumentId] = PriceBatch.price(maxs[instrumentId], maxScales[instrumentId]);
+        }
+    }
+
+    private void keepBig(int instrumentId, BigDecimal min, BigDecimal max) {
+        if (bigMins[instrumentId] == null || min.compareTo(bigMins[instrumentId]) < 0) bigMins[instrumentId] = min;
+        if (bigMaxs[instrumentId] == null || max.compareTo(bigMaxs[instrumentId]) > 0) bigMaxs[instrumentId] = max;
+    }
+
+    public void merge(InstrumentStatistics other) {
+        if (other.buckets != buckets || other.gamma != gamma || other.alpha != alpha)
+            throw new IllegalArgumentException("Could not merge statistics of different settings!");
+        if (other.counts.length > counts.length) grow(other.counts.length - 1);
+        for (int instrumentId = 0; instrumentId < other.counts.length; instrumentId++) {
+            long nb = other.counts[instrumentId];
+            if (nb == 0) continue;
+            long na = counts[instrumentId];
+            if (isBig(instrumentId) || other.isBig(instrumentId)) {
+                toBig(instrumentId);
+                keepBig(instrumentId, other.min(instrumentId).get(), other.max(instrumentId).get());
+            } else if (na == 0 || other.mins[instrumentId] < mins[instrumentId]) {
+                mins[instrumentId] = other.mins[instrumentId];
+                minScales[instrumentId] = other.minScales[instrumentId];
+            }
+            if (!isBig(instrumentId) && (na == 0 || other.maxs[instrumentId] > maxs[instrumentId])) {
+                maxs[instrumentId] = other.maxs[instrumentId];
+                maxScales[instrumentId] = other.maxScales[instrumentId];
+            }
+            mergeMoments(instrumentId, na, other, nb);
+
+            ewmas[instrumentId] = other.decays[instrumentId] * ewmas[instrumentId] + other.ewmas[instrumentId];
+            decays[instrumentId] *= other.decays[instrumentId];
+
+            nonPositive[instrumentId] += other.nonPositive[instrumentId];
+            int offset = other.offsets[instrumentId];
+            if (offset != EMPTY)
+                for (int i = 0, base = instrumentId * buckets; i < buckets; i++) {
+                    long count = other.bucketCounts[base + i];
+                    if (count > 0) addToSketch(instrumentId, offset + i, count);
+                }
+        }
+    }
+
+    public InstrumentStatistics copy() {
+        return new InstrumentStatistics(this);
+    }
+
+    /**
+     * Writes settings and state of instruments having prices.
+     */
+    public void writeTo(DataOutput out) throws IOException {
+        out.writeDouble(alpha);
+        out.writeDouble(gamma);
+        out.writeInt(buckets);
+        out.writeInt(counts.length);
+        int filled = 0;
+        for (long count : counts)
+            if (count > 0) filled++;
+        out.writeInt(filled);
+        for (int instrumentId = 0; instrumentId < counts.length; instrumentId++) {
+            if (counts[instrumentId] == 0) continue;
+            out.writeInt(instrumentId);
+            out.writeLong(counts[instrumentId]);
+            out.writeDouble(means[instrumentId]);
+            out.writeDouble(m2[instrumentId]);
+            out.writeDouble(m3[instrumentId]);
+            out.writeDouble(m4[instrumentId]);
+            out.writeLong(mins[instrumentId]);
+            out.writeByte(minScales[instrumentId]);
+            out.writeLong(maxs[instrumentId]);
+            out.writeByte(maxScales[instrumentId]);
+            PriceBatches.writeDecimal(out, isBig(instrumentId) ? bigMins[instrumentId] : null);
+            PriceBatches.writeDecimal(out, isBig(instrumentId) ? bigMaxs[instrumentId] : null);
+            out.writeDouble(ewmas[instrumentId]);
+            out.writeDouble(decays[instrumentId]);
+            out.writeLong(nonPositive[instrumentId]);
+            out.writeInt(offsets[instrumentId]);
+            for (int i = 0, base = instrumentId * buckets; i < buckets; i++)
+                out.writeLong(bucketCounts[base + i]);
+        }
+    }
+
+    public void readFrom(DataInput in, IntUnaryOperator instrumentIds) throws IOException {
+        if (in.readDouble() != alpha || in.readDouble() != gamma || in.readInt() != buckets)
+            throw new IOException("Could not read statistics of different settings!");
+        int instruments = in.readInt(), filled = in.readInt();
+        if (instruments < 0 || filled < 0 || filled > instruments)
+            throw new IOException("Invalid amount of instruments " + instruments + "!");
+        clear();
+        grow(instruments - 1);
+        for (int i = 0; i < filled; i++) {
+            int written = in.readInt();
+            if (written < 0 || written >= instruments) throw new IOException("Invalid instrument " + written + "!");
+            int instrumentId = instrumentIds.applyAsInt(written);
+            if (instrumentId >= counts.length) grow(instrumentId);
+            counts[instrumentId] = in.readLong();
+            means[instrumentId] = in.readDouble();
+            m2[instrumentId] = in.readDouble();
+            m3[instrumentId] = in.readDouble();
+            m4[instrumentId] = in.readDouble();
+            mins[instrumentId] = in.readLong();
+            minScales[instrumentId] = in.readByte();
+            maxs[instrumentId] = in.readLong();
+            maxScales[instrumentId] = in.readByte();
+            BigDecimal bigMin = PriceBatches.readDecimal(in), bigMax = PriceBatches.readDecimal(in);
+            if (bigMin != null && bigMax != null) {
+                if (bigMins == null) toBig(instrumentId);
+                bigMins[instrumentId] = bigMin;
+                bigMaxs[instrumentId] = bigMax;
+            }
+            ewmas[instrumentId] = in.readDouble();
+            decays[instrumentId] = in.readDouble();
+            nonPositive[instrumentId] = in.readLong();
+            offsets[instrumentId] = in.readInt();
+            for (int j = 0, base = instrumentId * buckets; j < buckets; j++)
+                bucketCounts[base + j] = in.readLong();
+        }
+    }
+
+    private void mergeMoments(int instrumentId, double na, InstrumentStatistics other, double nb) {
+        double n = na + nb;
+        double delta = other.means[instrumentId] - means[instrumentId];
+        double delta2 = delta * delta;
+        double m2a = m2[instrumentId], m2b = other.m2[instrumentId];
+        double m3a = m3[instrumentId], m3b = other.m3[instrumentId];
+        m4[instrumentId] += other.m4[instrumentId] +
+                delta2 * delta2 * na * nb * (na * na - na * nb + nb * nb) / (n * n * n) +
+                6 * delta2 * (na * na * m2b + nb * nb * m2a) / (n * n) + 4 * delta * (na * m3b - nb * m3a) / n;
+        m3[instrumentId] += m3b + delta2 * delta * na * nb * (na - nb) / (n * n) +
+                3 * delta * (na * m2b - nb * m2a) / n;
+        m2[instrumentId] += m2b + delta2 * na * nb / n;
+        means[instrumentId] += delta * nb / n;
+        counts[instrumentId] += (long) nb;
+    }
+
+    private void addToSketch(int instrumentId, int key, long count) {
+        int base = instrumentId * buckets;
+        int offset = offsets[instrumentId];
+        if (offset == EMPTY) {
+            offsets[instrumentId] = offset = key - buckets / 2;
+        } else if (key >= offset + buckets) {
+            offset = moveWindow(instrumentId, key - buckets + 1);
+        } else if (key < offset) {
+            int highest = buckets - 1;
+            while (bucketCounts[base + highest] == 0)
+                highest--;
+            offset = moveWindow(instrumentId, Math.max(key, offset + highest - buckets + 1));
+        }
+        bucketCounts[base + Math.max(key - offset, 0)] += count;
+    }
+
+    /**
+     * Moves the window of buckets, buckets below the new window are collected by its lowest bucket. The window is not
+     * moved down below any bucket having prices.
+     */
+    private int moveWindow(int instrumentId, int offset) {
+        int base = instrumentId * buckets;
+        int previous = offsets[instrumentId];
+        Arrays.fill(window, 0);
+        for (int i = 0; i < buckets; i++) {
+            long count = bucketCounts[base + i];
+            if (count > 0) window[Math.max(previous + i - offset, 0)] += count;
+        }
+        for (int i = 0; i < buckets; i++)
+            bucketCounts[base + i] = window[i];
+        return offsets[instrumentId] = offset;
+    }
+
+    private void clear() {
+        counts = new long[0];
+        means = m2 = m3 = m4 = ewmas = decays = new double[0];
+        mins = maxs = nonPositive = bucketCounts = new long[0];
+        minScales = maxScales = new byte[0];
+        offsets = new int[0];
+        bigMins = bigMaxs = null;
+    }
+
+    private void grow(int instrumentId) {
+        int instruments = Math.max(instrumentId + 1, counts.length * 2);
+        int previous = counts.length;
+        counts = Arrays.copyOf(counts, instruments);
+        means = Arrays.copyOf(means, instruments);
+        m2 = Arrays.copyOf(m2, instruments);
+        m3 = Arrays.copyOf(m3, instruments);
+        m4 = Arrays.copyOf(m4, instruments);
+        mins = Arrays.copyOf(mins, instruments);
+        maxs = Arrays.copyOf(maxs, instruments);
+        minScales = Arrays.copyOf(minScales, instruments);
+        maxScales = Arrays.copyOf(maxScales, instruments);
+        ewmas = Arrays.copyOf(ewmas, instruments);
+        decays = Arrays.copyOf(decays, instruments);
+        Arrays.fill(decays, previous, instruments, 1);
+        nonPositive = Arrays.copyOf(nonPositive, instruments);
+        offsets = Arrays.copyOf(offsets, instruments);
+        Arrays.fill(offsets, previous, instruments, EMPTY);
+        bucketCounts = Arrays.copyOf(bucketCounts, instruments * buckets);
+        if (bigMins != null) {
+            bigMins = Arrays.copyOf(bigMins, instruments);
+            bigMaxs = Arrays.copyOf(bigMaxs, instruments);
+        }
+    }
+
+    /**
+     * Provides amount of prices of the instrument.
+     * @param instrumentId specifies instrument
+     * @return amount of prices
+     */
+    public long count(int instrumentId) {
+        return instrumentId < counts.length ? counts[instrumentId] : 0;
+    }
+
+    public double mean(int instrumentId) {
+        return count(instrumentId) > 0 ? means[instrumentId] : Double.NaN;
+    }
+
+    /**
+     * Provides sample variance of prices of the instrument.
+     * @param instrumentId specifies instrument
+     * @return variance or NaN unless there are two prices at least
+     */
+    public double variance(int instrumentId) {
+        long n = count(instrumentId);
+        return n > 1 ? m2[instrumentId] / (n - 1) : Double.NaN;
+    }
+
+    public double standardDeviation(int instrumentId) {
+        return Math.sqrt(variance(instrumentId));
+    }
+
+    /**
+     * Provides skewness of prices of the instrument.
+     * @param instrumentId specifies instrument
+     * @return skewness or NaN if all prices are equal
+     */
+    public double skewness(int instrumentId) {
+        long n = count(instrumentId);
+        return n > 0 && m2[instrumentId] > 0 ? Math.sqrt(n) * m3[instrumentId] / Math.pow(m2[instrumentId], 1.5) :
+                Double.NaN;
+    }
+
+    /**
+     * Provides excess kurtosis of prices of the instrument.
+     * @param instrumentId specifies instrument
+     * @return kurtosis or NaN if all prices are equal
+     */
+    public double kurtosis(int instrumentId) {
+        long n = count(instrumentId);
+        return n > 0 && m2[instrumentId] > 0 ? n * m4[instrumentId] / (m2[instrumentId] * m2[instrumentId]) - 3 :
+                Double.NaN;
+    }
+
+    public Optional<BigDecimal> min(int instrumentId) {
+        if (count(instrumentId) == 0) return Optional.empty();
+        return Optional.of(isBig(instrumentId) ? bigMins[instrumentId] :
+                PriceBatch.price(mins[instrumentId], minScales[instrumentId]));
+    }
+
+    public Optional<BigDecimal> max(int instrumentId) {
+        if (count(instrumentId) == 0) return Optional.empty();
+        return Optional.of(isBig(instrumentId) ? bigMaxs[instrumentId] :
+                PriceBatch.price(maxs[instrumentId], maxScales[instrumentId]));
+    }
+
+    /**
+     * Provides exponentially weighted moving average of prices of the instrument in order they have been accepted.
+     * The average is corrected by the weight of missing prices preceding the first one.
+     * @param instrumentId specifies instrument
+     * @return moving average or NaN if there are no prices
+     */
+    public double movingAverage(int instrumentId) {
+        return count(instrumentId) > 0 ? ewmas[instrumentId] / (1 - decays[instrumentId]) : Double.NaN;
+    }
+
+    /**
+     * Estimates a quantile of prices of the instrument, quantiles 0 and 1 are the exact minimum and maximum.
+     * @param instrumentId specifies instrument
+     * @param quantile specifies quantile between 0 and 1
+     * @return estimated quantile or NaN if there are no prices
+     */
+    public double quantile(int instrumentId, double quantile) {
+        if (quantile < 0 || quantile > 1) throw new IllegalArgumentException("Invalid quantile " + quantile + "!");
+        long n = count(instrumentId);
+        if (n == 0) return Double.NaN;
+        double min = isBig(instrumentId) ? bigMins[instrumentId].doubleValue() :
+                (double) mins[instrumentId] / PriceBatch.POWERS_OF_TEN[PriceBatch.PRICE_SCALE];
+        double max = isBig(instrumentId) ? bigMaxs[instrumentId].doubleValue() :
+                (double) maxs[instrumentId] / PriceBatch.POWERS_OF_TEN[PriceBatch.PRICE_SCALE];
+        if (quantile == 0) return min;
+        if (quantile == 1) return max;
+        double rank = quantile * (n - 1);
+        long seen = nonPositive[instrumentId];
+        if (seen > rank) return min;
+        for (int i = 0, base = instrumentId * buckets; i < buckets; i++) {
+            seen += bucketCounts[base + i];
+            if (seen > rank) {
+                double estimate = 2 * Math.pow(gamma, offsets[instrumentId] + i) / (gamma + 1);
+                return Math.min(Math.max(estimate, min), max);
+            }
+        }
+        return max;
+    }
+
+    /**
+     * Summarizes statistics of every instrument.
+     * @return instrument names along with their statistics in order of instrument identifiers
+     */
+    public List<Tuple<String, Summary>> summaries() {
+        InstrumentDictionary dictionary = InstrumentDictionary.shared();
+        List<Tuple<String, Summary>> summaries = new ArrayList<>();
+        for (int instrumentId = 0; instrumentId < counts.length; instrumentId++)
+            if (counts[instrumentId] > 0)
+                summaries.add(Tuple.t(dictionary.nameOf(instrumentId), new Summary(this, instrumentId)));
+        return summaries;
+    }
+
+    /**
+     * Contains statistics of an instrument.
+     */
+    public static class Summary {
+        public final long count;
+        public final double mean, standardDeviation, skewness, kurtosis, movingAverage, p50, p95, p99;
+        public final BigDecimal min, max;
+
+        Summary(InstrumentStatistics statistics, int instrumentId) {
+            count = statistics.count(instrumentId);
+            mean = statistics.mean(instrumentId);
+            standardDeviation = statistics.standardDeviation(instrumentId);
+            skewness = statistics.skewness(instrumentId);
+            kurtosis = statistics.kurtosis(instrumentId);
+            movingAverage = statistics.movingAverage(instrumentId);
+            p50 = statistics.quantile(instrumentId, 0.5);
+            p95 = statistics.quantile(instrumentId, 0.95);
+            p99 = statistics.quantile(instrumentId, 0.99);
+            min = statistics.min(instrumentId).orElse(null);
+            max = statistics.max(instrumentId).orElse(null);
+        }
+
+        public String toString() {
+            return String.format("(count=%s, mean=%.6f, stddev=%.6f, skewness=%.4f, kurtosis=%.4f, min=%s, max=%s, " +
+                    "ewma=%.6f, p50=%.6f, p95=%.6f, p99=%.6f)", count, mean, standardDeviation, skewness, kurtosis,
+                    min, max, movingAverage, p50, p95, p99);
+        }
+    }
+}
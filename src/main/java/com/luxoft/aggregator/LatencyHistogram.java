@@ -0,0 +1,91 @@
+package com.luxoft.aggregator;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts non-negative values in log-linear buckets the way HDR histograms do. Values below 64 have buckets of their
+ * own, every further power of two is split into 32 buckets, so a value is reported with an error below 1/32 of it.
+ * Recording increments a counter of a fixed array and never allocates, it can be done by several threads.
+ * @author Dmitry Dobrynin
+ */
+public class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKETS = bucketOf(Long.MAX_VALUE) + 1;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    static int bucketOf(long value) {
+        if (value < 2 * SUB_BUCKETS) return (int) value;
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        return shift * SUB_BUCKETS + (int) (value >>> shift);
+    }
+
+    /**
+     * Provides the least value of a bucket.
+     */
+    static long lowestOf(int bucket) {
+        if (bucket < 2 * SUB_BUCKETS) return bucket;
+        int shift = bucket / SUB_BUCKETS - 1;
+        return (long) (bucket % SUB_BUCKETS + SUB_BUCKETS) << shift;
+    }
+
+    /**
+     * Counts a value, a negative one is counted as 0.
+     * @param value specifies value such as nanoseconds
+     */
+    public void record(long value) {
+        if (value < 0) value = 0;
+        counts.incrementAndGet(bucketOf(value));
+        count.increment();
+        sum.add(value);
+        max.accumulate(value);
+    }
+
+    public long count() {
+        return count.sum();
+    }
+
+    public long max() {
+        return max.get();
+    }
+
+    public double mean() {
+        long count = count();
+        return count == 0 ? 0 : (double) sum.sum() / count;
+    }
+
+    /**
+     * Provides the value not exceeded by the percentage of recorded values.
+     * @param percentile specifies percentage from 0 to 100
+     * @return the greatest value of the bucket reaching the percentage, 0 if nothing has been recorded
+     */
+    public long percentile(double percentile) {
+        if (percentile < 0 || percentile > 100)
+            throw new IllegalArgumentException("Invalid percentile " + percentile + "!");
+        long total = 0;
+        for (int bucket = 0; bucket < BUCKETS; bucket++)
+            total += counts.get(bucket);
+        if (total == 0) return 0;
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * total)), counted = 0;
+        for (int bucket = 0; bucket < BUCKETS; bucket++) {
+            counted += counts.get(bucket);
+            if (counted >= rank)
+                return bucket + 1 < BUCKETS ? Math.min(lowestOf(bucket + 1) - 1, max()) : max();
+        }
+        return max();
+    }
+
+    public void reset() {
+        for (int bucket = 0; bucket < BUCKETS; bucket++)
+            counts.set(bucket, 0);
+        count.reset();
+        sum.reset();
+        max.reset();
+    }
+}
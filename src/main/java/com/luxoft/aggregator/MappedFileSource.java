@@ -0,0 +1,296 @@
+package com.luxoft.aggregator;
+
+import rx.Observable;
+import rx.Subscriber;
+import rx.observables.ConnectableObservable;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.LongConsumer;
+
+/**
+ * Reads a file by memory mapping it. The file is split into newline-aligned chunks which are scanned on several
+ * threads, scanned items are emitted in the file order on the thread connecting to the stream. Lines are either
+ * provided as strings or parsed straight from mapped bytes to batches by the scanning threads.
+ * @author Dmitry Dobrynin
+ */
+public class MappedFileSource implements PriceSource {
+    public static final int DEFAULT_CHUNK_SIZE = 32 << 20;
+    private static final int LINES_PER_TRANSFER = 1024;
+    private static final int TRANSFERS_PER_CHUNK = 16;
+    private static final Object END_OF_CHUNK = new Object();
+
+    private final Path path;
+    private final int chunkSize;
+    private final int threads;
+    private long start;
+    private long limit = Long.MAX_VALUE;
+    private LongConsumer chunkEnded = offset -> {};
+
+    public MappedFileSource(Path path) {
+        this(path, DEFAULT_CHUNK_SIZE, Runtime.getRuntime().availableProcessors());
+    }
+
+    public MappedFileSource(Path path, int chunkSize, int threads) {
+        if (chunkSize <= 0 || threads <= 0)
+            throw new IllegalArgumentException(String.format("Invalid chunk size %s or threads %s!", chunkSize, threads));
+        this.path = path;
+        this.chunkSize = chunkSize;
+        this.threads = threads;
+    }
+
+    public Path path() {
+        return path;
+    }
+
+    /**
+     * Starts reading at the offset instead of the beginning of the file.
+     * @param offset specifies offset just after a line separator
+     * @return this source
+     */
+    public MappedFileSource from(long offset) {
+        if (offset < 0) throw new IllegalArgumentException("Invalid offset " + offset + "!");
+        start = offset;
+        return this;
+    }
+
+    /**
+     * Stops reading at the offset instead of the end of the file.
+     * @param offset specifies offset just after a line separator
+     * @return this source
+     */
+    public MappedFileSource to(long offset) {
+        if (offset < start) throw new IllegalArgumentException("Invalid offset " + offset + "!");
+        limit = offset;
+        return this;
+    }
+
+    /**
+     * Notifies of every chunk all items of which have been emitted, so everything before the offset has been consumed
+     * by synchronous subscribers.
+     * @param chunkEnded receives offset of the end of a chunk on the thread connecting to the stream
+     * @return this source
+     */
+    public MappedFileSource onChunkEnded(LongConsumer chunkEnded) {
+        this.chunkEnded = chunkEnded;
+        return this;
+    }
+
+    /**
+     * Scans a chunk of a file.
+     * @param <T> type of scanned items
+     */
+    public interface ChunkScanner<T> {
+        /**
+         * Scans the chunk starting at its position up to its limit.
+         * @param chunk specifies bytes of the chunk, it always ends with a complete line
+         * @param sink receives scanned items
+         */
+        void scan(ByteBuffer chunk, Consumer<T> sink);
+    }
+
+    /**
+     * Provides lines of the file.
+     * @return a stream of lines to be connected to
+     */
+    public ConnectableObservable<String> lines() {
+        return scan(MappedFileSource::splitLines, LINES_PER_TRANSFER).publish();
+    }
+
+    /**
+     * Provides prices parsed by the scanning threads, batches are returned to a pool after they have been emitted.
+     * @return a stream of batches to be connected to
+     */
+    public ConnectableObservable<PriceBatch> batches() {
+        InstrumentPriceParser parser = new InstrumentPriceParser();
+        PriceBatchPool pool = new PriceBatchPool(PriceBatch.DEFAULT_CAPACITY, threads * (TRANSFERS_PER_CHUNK + 2));
+        ChunkScanner<PriceBatch> scanner = (chunk, sink) -> parser.parseLines(chunk, pool, sink);
+        return scan(scanner, 1).lift(pool.releasing()).publish();
+    }
+
+    /**
+     * Scans the file with the specified scanner.
+     * @param scanner specifies the way chunks are scanned
+     * @param <T> type of scanned items
+     * @return a stream of scanned items in the file order
+     */
+    public <T> Observable<T> scan(ChunkScanner<T> scanner) {
+        return scan(scanner, 1);
+    }
+
+    private <T> Observable<T> scan(ChunkScanner<T> scanner, int itemsPerTransfer) {
+        return Observable.create(subscriber -> {
+            ExecutorService executor = Executors.newFixedThreadPool(threads, new ScannerThreadFactory(path));
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                List<Chunk> chunks = split(channel);
+                for (Chunk chunk : chunks)
+                    executor.execute(() -> chunk.scan(channel, scanner, itemsPerTransfer));
+                for (Chunk chunk : chunks) {
+                    if (!chunk.emit(subscriber)) return;
+                    PipelineMetrics.shared().add(PipelineMetrics.Counter.BYTES_READ, chunk.end - chunk.start);
+                    chunkEnded.accept(chunk.end);
+                }
+                subscriber.onCompleted();
+            } catch (Throwable e) {
+                subscriber.onError(e);
+            } finally {
+                executor.shutdownNow();
+            }
+        });
+    }
+
+    /**
+     * Splits the file into chunks each of which ends just after a line separator or at the end of file.
+     */
+    List<Chunk> split(FileChannel channel) throws IOException {
+        long size = Math.min(channel.size(), limit);
+        List<Chunk> chunks = new ArrayList<>();
+        ByteBuffer probe = ByteBuffer.allocate(4096);
+        long start = this.start;
+        while (start < size) {
+            long end = nextLine(channel, Math.min(start + chunkSize, size), size, probe);
+            chunks.add(new Chunk(start, end));
+            start = end;
+        }
+        return chunks;
+    }
+
+    /**
+     * Finds the end of the line containing the position.
+     * @param channel specifies file
+     * @param position specifies position
+     * @param size specifies size of the file
+     * @param probe receives bytes being searched for a line separator
+     * @return offset just after the first line separator at the position or further or the size
+     * @throws IOException if the file could not be read
+     */
+    static long nextLine(FileChannel channel, long position, long size, ByteBuffer probe) throws IOException {
+        while (position < size) {
+            probe.clear();
+            int read = channel.read(probe, position);
+            if (read <= 0) break;
+            for (int i = 0; i < read; i++)
+                if (probe.get(i) == '\n') return Math.min(position + i + 1, size);
+            position += read;
+        }
+        return size;
+    }
+
+    /**
+     * Splits a chunk into lines ignoring a trailing carriage return.
+     */
+    static void splitLines(ByteBuffer chunk, Consumer<String> sink) {
+        byte[] line = new byte[256];
+        int length = 0;
+        for (int i = chunk.position(), limit = chunk.limit(); i < limit; i++) {
+            byte b = chunk.get(i);
+            if (b == '\n') {
+                sink.accept(decode(line, length));
+                length = 0;
+            } else {
+                if (length == line.length) {
+                    byte[] wider = new byte[line.length * 2];
+                    System.arraycopy(line, 0, wider, 0, length);
+                    line = wider;
+                }
+                line[length++] = b;
+            }
+        }
+        if (length > 0) sink.accept(decode(line, length));
+    }
+
+    private static String decode(byte[] line, int length) {
+        if (length > 0 && line[length - 1] == '\r') length--;
+        return new String(line, 0, length, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Represents a region of the file and items scanned from it.
+     */
+    static class Chunk {
+        final long start;
+        final long end;
+        private final BlockingQueue<Object> scanned = new ArrayBlockingQueue<>(TRANSFERS_PER_CHUNK);
+
+        Chunk(long start, long end) {
+            this.start = start;
+            this.end = end;
+        }
+
+        <T> void scan(FileChannel channel, ChunkScanner<T> scanner, int itemsPerTransfer) {
+            try {
+                Transfer<T> transfer = new Transfer<>(itemsPerTransfer);
+                scanner.scan(channel.map(FileChannel.MapMode.READ_ONLY, start, end - start), item -> {
+                    transfer.items.add(item);
+                    if (transfer.items.size() == itemsPerTransfer) {
+                        put(transfer.items);
+                        transfer.items = new ArrayList<>(itemsPerTransfer);
+                    }
+                });
+                if (!transfer.items.isEmpty()) put(transfer.items);
+                put(END_OF_CHUNK);
+            } catch (CancellationException e) {
+                // the stream has been unsubscribed or failed
+            } catch (Throwable e) {
+                try {
+                    scanned.put(e);
+                } catch (InterruptedException ignored) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+
+        private void put(Object item) {
+            try {
+                scanned.put(item);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new CancellationException();
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        <T> boolean emit(Subscriber<? super T> subscriber) throws Throwable {
+            for (Object item = scanned.take(); item != END_OF_CHUNK; item = scanned.take()) {
+                if (item instanceof Throwable) throw (Throwable) item;
+                for (T t : (List<T>) item) {
+                    if (subscriber.isUnsubscribed()) return false;
+                    subscriber.onNext(t);
+                }
+            }
+            return true;
+        }
+    }
+
+    private static class Transfer<T> {
+        List<T> items;
+
+        Transfer(int size) {
+            items = new ArrayList<>(size);
+        }
+    }
+
+    static class ScannerThreadFactory implements ThreadFactory {
+        private final AtomicInteger counter = new AtomicInteger();
+        private final String prefix;
+
+        ScannerThreadFactory(Path path) {
+            prefix = "scanner-" + path.getFileName() + "-";
+        }
+
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, prefix + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package com.luxoft.aggregator;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import javax.sql.DataSource;
+import java.sql.Timestamp;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reads names of multipliers changed since the last poll from the change log filled by {@link ModifierChangeTrigger}.
+ * A poll is a single query on the primary key of the log, so it can be repeated every few milliseconds.
+ * <p>
+ * Versions are assigned when changes are made but become visible when their transactions commit, so a lower version
+ * may appear after a higher one. A poll reads changes above the highest version all versions below which have been
+ * read, remembers versions read above it and skips them on later polls. A missing version is waited for during the gap
+ * timeout, after which its transaction is considered rolled back. Changes older than the retention are deleted.
+ * @author Dmitry Dobrynin
+ */
+public class ModifierChangeLog {
+    public static final long DEFAULT_GAP_TIMEOUT = TimeUnit.MINUTES.toMillis(1);
+    public static final long DEFAULT_RETENTION = TimeUnit.HOURS.toMillis(1);
+    private static final long PRUNE_PERIOD = TimeUnit.MINUTES.toMillis(1);
+
+    private final JdbcTemplate jdbc;
+    private final long gapTimeout;
+    private final long retention;
+    private final Set<Long> read = new HashSet<>();
+    private final Map<Long, Long> gaps = new HashMap<>();
+    private long version;
+    private long highest;
+    private long prunedAt;
+
+    public ModifierChangeLog(DataSource dataSource) {
+        this(dataSource, DEFAULT_GAP_TIMEOUT, DEFAULT_RETENTION);
+    }
+
+    /**
+     * Creates a change log starting after the latest recorded change.
+     * @param dataSource specifies database containing the change log
+     * @param gapTimeout specifies milliseconds of waiting for a missing version
+     * @param retention specifies milliseconds changes are kept in the log
+     */
+    public ModifierChangeLog(DataSource dataSource, long gapTimeout, long retention) {
+        if (gapTimeout < 0) throw new IllegalArgumentException("Invalid gap timeout " + gapTimeout + "!");
+        if (retention <= gapTimeout) throw new IllegalArgumentException("Invalid retention " + retention + "!");
+        jdbc = new JdbcTemplate(dataSource);
+        this.gapTimeout = gapTimeout;
+        this.retention = retention;
+        Long latest = jdbc.queryForObject("select max(version) from INSTRUMENT_PRICE_MODIFIER_CHANGE", Long.class);
+        version = highest = latest != null ? latest : 0;
+    }
+
+    /**
+     * Checks whether the database records changes of multipliers.
+     * @param dataSource specifies database
+     * @return true if the change log exists
+     */
+    public static boolean exists(DataSource dataSource) {
+        Integer tables = new JdbcTemplate(dataSource).queryForObject("select count(*) from INFORMATION_SCHEMA.TABLES " +
+                "where TABLE_NAME = 'INSTRUMENT_PRICE_MODIFIER_CHANGE'", Integer.class);
+        return tables != null && tables > 0;
+    }
+
+    /**
+     * Invalidates multipliers of the provider changed since the last poll.
+     * @param provider specifies provider to be notified
+     * @return amount of invalidated instruments
+     */
+    public synchronized int invalidate(MultiplierProvider provider) {
+        Set<String> changed = new LinkedHashSet<>();
+        jdbc.query("select version, name from INSTRUMENT_PRICE_MODIFIER_CHANGE where version > ? order by version",
+                new Object[] {version}, resultSet -> {
+                    if (read.add(resultSet.getLong("version"))) changed.add(resultSet.getString("name"));
+                });
+        long now = System.currentTimeMillis();
+        settle(now);
+        for (String instrument : changed)
+            provider.invalidateCachedInstrument(instrument);
+        if (now - prunedAt >= PRUNE_PERIOD) prune(now);
+        return changed.size();
+    }
+
+    /**
+     * Moves the version over read versions and versions missing longer than the gap timeout.
+     */
+    private void settle(long now) {
+        for (long found : read)
+            highest = Math.max(highest, found);
+        for (long missing = version + 1; missing <= highest; missing++)
+            if (!read.contains(missing)) gaps.putIfAbsent(missing, now);
+        while (version < highest) {
+            long next = version + 1;
+            if (!read.remove(next) && now - gaps.get(next) < gapTimeout) break;
+            gaps.remove(next);
+            version = next;
+        }
+    }
+
+    private void prune(long now) {
+        jdbc.update("delete from INSTRUMENT_PRICE_MODIFIER_CHANGE where changed < ?",
+                new Timestamp(now - retention));
+        prunedAt = now;
+    }
+}
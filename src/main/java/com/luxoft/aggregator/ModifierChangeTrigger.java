@@ -0,0 +1,38 @@
+package com.luxoft.aggregator;
+
+import org.h2.api.Trigger;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+/**
+ * Records names of inserted, updated and deleted multipliers to the change log, so providers reload only the changed
+ * ones. It is installed on INSTRUMENT_PRICE_MODIFIER by the schema script.
+ * @author Dmitry Dobrynin
+ */
+public class ModifierChangeTrigger implements Trigger {
+    private static final int NAME = 1;
+
+    public void init(Connection conn, String schemaName, String triggerName, String tableName, boolean before, int type) {
+    }
+
+    public void fire(Connection conn, Object[] oldRow, Object[] newRow) throws SQLException {
+        try (PreparedStatement statement =
+                     conn.prepareStatement("insert into INSTRUMENT_PRICE_MODIFIER_CHANGE (name) values (?)")) {
+            if (newRow != null) record(statement, newRow[NAME]);
+            if (oldRow != null && (newRow == null || !oldRow[NAME].equals(newRow[NAME]))) record(statement, oldRow[NAME]);
+        }
+    }
+
+    private static void record(PreparedStatement statement, Object name) throws SQLException {
+        statement.setObject(1, name);
+        statement.executeUpdate();
+    }
+
+    public void close() {
+    }
+
+    public void remove() {
+    }
+}
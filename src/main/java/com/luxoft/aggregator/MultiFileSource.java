@@ -0,0 +1,217 @@
+package com.luxoft.aggregator;
+
+import rx.Observable;
+import rx.Subscriber;
+import rx.observables.ConnectableObservable;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Reads several files concurrently. Every file is read by a worker of a bounded pool with a source of its own, the
+ * largest files are started first so that workers finish at about the same time. Batches of all files are copied to
+ * batches of a shared pool and emitted through a bounded queue on the thread connecting to the stream, so prices of
+ * different files are interleaved and calculations attached to the stream see all of them. Caches, partial states and
+ * temporary files written next to price files are not read.
+ * @author Dmitry Dobrynin
+ */
+public class MultiFileSource implements PriceSource {
+    private static final Object END_OF_FILE = new Object();
+    private static final int BATCHES_PER_WORKER = 4;
+    private static final List<String> ARTIFACTS = Arrays.asList(".columns", ".partial", ".tmp");
+
+    private final List<Path> files;
+    private final int threads;
+
+    public MultiFileSource(List<Path> files) {
+        this(files, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Creates a source.
+     * @param files specifies files
+     * @param threads specifies amount of files read at the same time
+     */
+    public MultiFileSource(List<Path> files, int threads) {
+        if (files.isEmpty() || threads <= 0)
+            throw new IllegalArgumentException(String.format("Invalid files %s or threads %s!", files, threads));
+        this.files = largestFirst(files);
+        this.threads = threads;
+    }
+
+    /**
+     * Creates a source of the files of a directory or the files matching a glob.
+     * @param input specifies directory or glob like data/prices-2014-*.gz
+     * @return a source
+     * @throws IOException if the directory could not be listed
+     * @throws IllegalArgumentException if there are no files
+     */
+    public static MultiFileSource of(String input) throws IOException {
+        List<Path> files = resolve(input);
+        if (files.isEmpty()) throw new IllegalArgumentException("No files match " + input + "!");
+        return new MultiFileSource(files);
+    }
+
+    /**
+     * Checks whether the input specifies several files, an existing file is a single one even if its name contains
+     * characters of a glob.
+     * @param input specifies file, directory or glob
+     * @return true if the input is a directory or a glob
+     */
+    public static boolean isMultiple(String input) {
+        Path path;
+        try {
+            path = Paths.get(input);
+        } catch (InvalidPathException e) {
+            return true;
+        }
+        return Files.isDirectory(path) || !Files.exists(path) && globStart(input) >= 0;
+    }
+
+    public List<Path> files() {
+        return files;
+    }
+
+    /**
+     * Lists price files of a directory or price files matching a glob. A glob is matched against paths relative to the
+     * directory preceding its first special character, which is walked as deep as the glob has names unless it
+     * contains **.
+     */
+    static List<Path> resolve(String input) throws IOException {
+        int globStart = globStart(input);
+        if (globStart < 0 || Files.isDirectory(Paths.get(input))) {
+            try (Stream<Path> files = Files.list(Paths.get(input))) {
+                return files.filter(MultiFileSource::isPriceFile).sorted().collect(Collectors.toList());
+            }
+        }
+        int separator = Math.max(input.lastIndexOf('/', globStart), input.lastIndexOf('\\', globStart));
+        Path directory = Paths.get(separator < 0 ? "." : input.substring(0, separator + 1));
+        String glob = input.substring(separator + 1);
+        PathMatcher matcher = directory.getFileSystem().getPathMatcher("glob:" + glob);
+        int depth = glob.contains("**") ? Integer.MAX_VALUE : glob.split("[/\\\\]").length;
+        try (Stream<Path> files = Files.walk(directory, depth)) {
+            return files.filter(file -> isPriceFile(file) && matcher.matches(directory.relativize(file)))
+                    .sorted().collect(Collectors.toList());
+        }
+    }
+
+    private static boolean isPriceFile(Path file) {
+        if (!Files.isRegularFile(file)) return false;
+        String name = file.getFileName().toString();
+        for (String artifact : ARTIFACTS)
+            if (name.endsWith(artifact)) return false;
+        return true;
+    }
+
+    private static int globStart(String input) {
+        for (int i = 0; i < input.length(); i++)
+            if ("*?[{".indexOf(input.charAt(i)) >= 0) return i;
+        return -1;
+    }
+
+    private static List<Path> largestFirst(List<Path> files) {
+        List<Path> sorted = new ArrayList<>(files);
+        Comparator<Path> bySize = Comparator.comparingLong(MultiFileSource::size);
+        sorted.sort(bySize.reversed().thenComparing(Path::getFileName).thenComparing(Comparator.naturalOrder()));
+        return sorted;
+    }
+
+    private static long size(Path file) {
+        try {
+            return Files.size(file);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Provides a source of a single file read on the worker thread.
+     */
+    private static PriceSource sourceOf(Path file) {
+        return GzipSource.isCompressed(file) ? new GzipSource(file, 1, GzipSource.DEFAULT_BLOCK_SIZE) :
+                new MappedFileSource(file, MappedFileSource.DEFAULT_CHUNK_SIZE, 1);
+    }
+
+    /**
+     * Provides prices of all files, batches are returned to a pool after they have been emitted.
+     * @return a stream of batches to be connected to
+     */
+    public ConnectableObservable<PriceBatch> batches() {
+        PriceBatchPool pool = new PriceBatchPool(PriceBatch.DEFAULT_CAPACITY, threads * (BATCHES_PER_WORKER + 1));
+        return Observable.<PriceBatch>create(subscriber -> read(subscriber, pool)).lift(pool.releasing()).publish();
+    }
+
+    private void read(Subscriber<? super PriceBatch> subscriber, PriceBatchPool pool) {
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(threads, files.size()),
+                new MappedFileSource.ScannerThreadFactory(files.get(0).toAbsolutePath().getParent()));
+        BlockingQueue<Object> batches = new ArrayBlockingQueue<>(threads * BATCHES_PER_WORKER);
+        String queue = PipelineMetrics.shared().registerQueue("files", batches::size);
+        try {
+            for (Path file : files)
+                executor.execute(() -> readFile(file, batches, pool));
+            for (int remaining = files.size(); remaining > 0; ) {
+                Object item = batches.take();
+                if (item == END_OF_FILE) remaining--;
+                else if (item instanceof Throwable) {
+                    subscriber.onError((Throwable) item);
+                    return;
+                } else {
+                    if (subscriber.isUnsubscribed()) return;
+                    subscriber.onNext((PriceBatch) item);
+                }
+            }
+            subscriber.onCompleted();
+        } catch (Exception e) {
+            subscriber.onError(e);
+        } finally {
+            executor.shutdownNow();
+            PipelineMetrics.shared().unregisterQueue(queue);
+        }
+    }
+
+    /**
+     * Reads a file on a worker thread copying its batches to the queue, since they are reused by the file source.
+     */
+    private static void readFile(Path file, BlockingQueue<Object> batches, PriceBatchPool pool) {
+        try {
+            ConnectableObservable<PriceBatch> source = sourceOf(file).batches();
+            source.subscribe(new Subscriber<PriceBatch>() {
+                public void onCompleted() {
+                    put(batches, END_OF_FILE);
+                }
+
+                public void onError(Throwable e) {
+                    if (!(e instanceof CancellationException)) put(batches, e);
+                }
+
+                public void onNext(PriceBatch batch) {
+                    PriceBatch copy = pool.acquire();
+                    copy.copyFrom(batch);
+                    put(batches, copy);
+                }
+            });
+            source.connect();
+        } catch (CancellationException e) {
+            // the stream has been unsubscribed or failed
+        } catch (Throwable e) {
+            put(batches, e);
+        }
+    }
+
+    private static void put(BlockingQueue<Object> batches, Object item) {
+        try {
+            batches.put(item);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CancellationException();
+        }
+    }
+}
@@ -1,33 +1,43 @@
 package com.luxoft.aggregator;
 
+import java.util.Arrays;
 import java.util.List;
 import java.util.Optional;
 import java.math.BigDecimal;
 import javax.sql.DataSource;
-import com.google.common.cache.*;
 import java.util.concurrent.TimeUnit;
 import org.springframework.jdbc.core.JdbcTemplate;
 
 /**
- * Searches for the multiplier of the instrument.
+ * Searches for the multiplier of the instrument. Found multipliers are cached for 5 seconds by default in an array
+ * indexed by instrument identifier.
  * @author Dmitry Dobrynin
  */
 public class MultiplierProvider {
-    private DataSource dataSource;
-    private LoadingCache<String, Optional<BigDecimal>> multiplierCache =
-            CacheBuilder
-                    .newBuilder()
-                    .expireAfterWrite(5, TimeUnit.SECONDS).build(new CacheLoader<String, Optional<BigDecimal>>() {
-                public Optional<BigDecimal> load(String instrument) throws Exception {
-                    return find(instrument);
-                }
-            });
+    public static final long DEFAULT_EXPIRATION = TimeUnit.SECONDS.toMillis(5);
+
+    DataSource dataSource;
+    InstrumentDictionary dictionary = InstrumentDictionary.shared();
+    private final long expiration;
+    private volatile CachedMultiplier[] multiplierCache = new CachedMultiplier[256];
 
     public MultiplierProvider(DataSource dataSource) {
+        this(dataSource, DEFAULT_EXPIRATION, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Creates a provider.
+     * @param dataSource specifies database containing multipliers
+     * @param expiration specifies period a found multiplier is cached for
+     * @param unit specifies unit of the expiration
+     */
+    public MultiplierProvider(DataSource dataSource, long expiration, TimeUnit unit) {
+        if (expiration < 0) throw new IllegalArgumentException("Invalid expiration " + expiration + "!");
         this.dataSource = dataSource;
+        this.expiration = unit.toNanos(expiration);
     }
 
-    private Optional<BigDecimal> find(String instrument) {
+    Optional<BigDecimal> find(String instrument) {
         List<BigDecimal> multipliers = new JdbcTemplate(dataSource).query(
                 "select multiplier from INSTRUMENT_PRICE_MODIFIER where name = ?",
                 new Object[] {instrument},
@@ -36,22 +46,75 @@ public class MultiplierProvider {
         return multipliers.isEmpty() ? Optional.empty() : Optional.of(multipliers.get(0));
     }
 
+    /**
+     * Finds the multiplier of the instrument measuring latency of the query.
+     */
+    Optional<BigDecimal> load(String instrument) {
+        long started = PipelineMetrics.started();
+        Optional<BigDecimal> multiplier = find(instrument);
+        PipelineMetrics metrics = PipelineMetrics.shared();
+        metrics.record(PipelineMetrics.Stage.MULTIPLIER_LOAD, started);
+        metrics.increment(PipelineMetrics.Counter.MULTIPLIER_LOADS);
+        return multiplier;
+    }
+
     public Optional<BigDecimal> multiplierFor(String instrument) {
-        return multiplierCache.getUnchecked(instrument);
+        return multiplierFor(dictionary.idOf(instrument));
+    }
+
+    /**
+     * Searches for the multiplier of the instrument.
+     * @param instrumentId identifier of the instrument assigned by the shared {@link InstrumentDictionary}
+     * @return multiplier if it exists
+     */
+    public Optional<BigDecimal> multiplierFor(int instrumentId) {
+        CachedMultiplier[] cached = multiplierCache;
+        CachedMultiplier multiplier = instrumentId < cached.length ? cached[instrumentId] : null;
+        long now = System.nanoTime();
+        PipelineMetrics metrics = PipelineMetrics.shared();
+        if (multiplier == null || now - multiplier.loadedAt >= expiration) {
+            metrics.increment(PipelineMetrics.Counter.MULTIPLIER_MISSES);
+            multiplier = new CachedMultiplier(load(dictionary.nameOf(instrumentId)), now);
+            cache(instrumentId, multiplier);
+        } else metrics.increment(PipelineMetrics.Counter.MULTIPLIER_HITS);
+        return multiplier.multiplier;
+    }
+
+    private synchronized void cache(int instrumentId, CachedMultiplier multiplier) {
+        CachedMultiplier[] cached = multiplierCache;
+        if (instrumentId >= cached.length)
+            cached = Arrays.copyOf(cached, Math.max(instrumentId + 1, cached.length * 2));
+        cached[instrumentId] = multiplier;
+        multiplierCache = cached;
     }
 
     /**
      * Invalidates previously cached value when multiplier is updated.
      * @param instrument instrument cache to be invalidated
      */
-    public void invalidateCachedInstrument(String instrument) {
-        multiplierCache.invalidate(instrument);
+    public synchronized void invalidateCachedInstrument(String instrument) {
+        int instrumentId = dictionary.find(instrument);
+        CachedMultiplier[] cached = multiplierCache;
+        if (instrumentId >= 0 && instrumentId < cached.length) {
+            cached[instrumentId] = null;
+            multiplierCache = cached;
+        }
     }
 
     /**
      * Cleans all cached values when all multipliers are updated.
      */
-    public void invalidateCache() {
-        multiplierCache.invalidateAll();
+    public synchronized void invalidateCache() {
+        multiplierCache = new CachedMultiplier[multiplierCache.length];
+    }
+
+    private static class CachedMultiplier {
+        final Optional<BigDecimal> multiplier;
+        final long loadedAt;
+
+        CachedMultiplier(Optional<BigDecimal> multiplier, long loadedAt) {
+            this.multiplier = multiplier;
+            this.loadedAt = loadedAt;
+        }
     }
 }
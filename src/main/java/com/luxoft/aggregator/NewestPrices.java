@@ -0,0 +1,207 @@
+package com.luxoft.aggregator;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.function.IntUnaryOperator;
+
+/**
+ * Keeps a limited amount of the newest prices of every instrument. Each instrument owns a fixed-size min-heap ordered
+ * by date placed in flat arrays at the offset of its identifier, so a price not newer than the oldest kept one of a
+ * full heap is rejected by a single comparison and memory depends on amount of instruments only. Prices of the same
+ * date are ordered by value and scale, so the higher ones are kept regardless of order of prices. Oversized prices are
+ * kept as big decimals in an array allocated when the first of them is kept.
+ * @author Dmitry Dobrynin
+ */
+public class NewestPrices implements PriceAccumulator<NewestPrices>, Checkpointable<NewestPrices> {
+    private final int maxElements;
+    private int[] days = new int[0];
+    private long[] prices = new long[0];
+    private byte[] scales = new byte[0];
+    private BigDecimal[] oversized;
+    private int[] sizes = new int[0];
+
+    public NewestPrices(int maxElements) {
+        if (maxElements <= 0) throw new IllegalArgumentException("Invalid amount of elements " + maxElements + "!");
+        this.maxElements = maxElements;
+    }
+
+    public void accept(PriceBatch batch, int row) {
+        int scale = batch.priceScale[row];
+        add(batch.instrumentId[row], batch.epochDay[row], batch.scaledPrice[row], scale,
+                scale == PriceBatch.OVERSIZED ? batch.price(row) : null);
+    }
+
+    public void merge(NewestPrices other) {
+        for (int instrumentId = 0; instrumentId < other.sizes.length; instrumentId++)
+            for (int i = instrumentId * other.maxElements, end = i + other.sizes[instrumentId]; i < end; i++)
+                add(instrumentId, other.days[i], other.prices[i], other.scales[i], other.oversized(i));
+    }
+
+    void add(int instrumentId, int day, long price, int scale) {
+        add(instrumentId, day, price, scale, null);
+    }
+
+    /**
+     * Keeps a price unless the heap of the instrument is full of prices not preceding it.
+     * @param oversizedPrice specifies price if the scale is {@link PriceBatch#OVERSIZED} or null
+     */
+    void add(int instrumentId, int day, long price, int scale, BigDecimal oversizedPrice) {
+        if (instrumentId >= sizes.length) grow(instrumentId);
+        int base = instrumentId * maxElements;
+        int size = sizes[instrumentId];
+        if (size < maxElements) {
+            int i = size;
+            sizes[instrumentId] = size + 1;
+            for (int parent = (i - 1) >> 1; i > 0 && compare(base + parent, day, price, scale, oversizedPrice) > 0;
+                 i = parent, parent = (i - 1) >> 1)
+                move(base + parent, base + i);
+            set(base + i, day, price, scale, oversizedPrice);
+        } else if (compare(base, day, price, scale, oversizedPrice) < 0) {
+            int i = 0;
+            for (int child = 1; child < size; i = child, child = 2 * i + 1) {
+                if (child + 1 < size && compare(base + child + 1, base + child) < 0) child++;
+                if (compare(base + child, day, price, scale, oversizedPrice) >= 0) break;
+                move(base + child, base + i);
+            }
+            set(base + i, day, price, scale, oversizedPrice);
+        }
+    }
+
+    public NewestPrices copy() {
+        NewestPrices copy = new NewestPrices(maxElements);
+        copy.days = days.clone();
+        copy.prices = prices.clone();
+        copy.scales = scales.clone();
+        copy.oversized = oversized != null ? oversized.clone() : null;
+        copy.sizes = sizes.clone();
+        return copy;
+    }
+
+    public void writeTo(DataOutput out) throws IOException {
+        out.writeInt(maxElements);
+        out.writeInt(sizes.length);
+        for (int instrumentId = 0; instrumentId < sizes.length; instrumentId++) {
+            out.writeInt(sizes[instrumentId]);
+            for (int i = instrumentId * maxElements, end = i + sizes[instrumentId]; i < end; i++) {
+                out.writeInt(days[i]);
+                out.writeLong(prices[i]);
+                out.writeByte(scales[i]);
+                if (scales[i] == PriceBatch.OVERSIZED) PriceBatches.writeDecimal(out, oversized[i]);
+            }
+        }
+    }
+
+    public void readFrom(DataInput in, IntUnaryOperator instrumentIds) throws IOException {
+        int elements = in.readInt();
+        if (elements != maxElements) throw new IOException("Invalid amount of elements " + elements + "!");
+        int instruments = in.readInt();
+        if (instruments < 0) throw new IOException("Invalid amount of instruments " + instruments + "!");
+        sizes = new int[0];
+        days = new int[0];
+        prices = new long[0];
+        scales = new byte[0];
+        oversized = null;
+        for (int written = 0; written < instruments; written++) {
+            int size = in.readInt();
+            if (size < 0 || size > maxElements) throw new IOException("Invalid amount of prices " + size + "!");
+            if (size == 0) continue;
+            int instrumentId = instrumentIds.applyAsInt(written);
+            if (instrumentId >= sizes.length) grow(instrumentId);
+            sizes[instrumentId] = size;
+            for (int i = instrumentId * maxElements, end = i + size; i < end; i++) {
+                int day = in.readInt();
+                long price = in.readLong();
+                byte scale = in.readByte();
+                set(i, day, price, scale, scale == PriceBatch.OVERSIZED ? PriceBatches.readDecimal(in) : null);
+            }
+        }
+    }
+
+    private void grow(int instrumentId) {
+        int instruments = Math.max(instrumentId + 1, sizes.length * 2);
+        sizes = Arrays.copyOf(sizes, instruments);
+        days = Arrays.copyOf(days, instruments * maxElements);
+        prices = Arrays.copyOf(prices, instruments * maxElements);
+        scales = Arrays.copyOf(scales, instruments * maxElements);
+        if (oversized != null) oversized = Arrays.copyOf(oversized, instruments * maxElements);
+    }
+
+    private void move(int from, int to) {
+        set(to, days[from], prices[from], scales[from], oversized(from));
+    }
+
+    private void set(int i, int day, long price, int scale, BigDecimal oversizedPrice) {
+        days[i] = day;
+        prices[i] = price;
+        scales[i] = (byte) scale;
+        if (oversizedPrice != null && oversized == null) oversized = new BigDecimal[scales.length];
+        if (oversized != null) oversized[i] = oversizedPrice;
+    }
+
+    private int compare(int i, int j) {
+        return compare(i, days[j], prices[j], scales[j], oversized(j));
+    }
+
+    /**
+     * Compares a kept price to a price by date, value and scale.
+     */
+    private int compare(int i, int day, long price, int scale, BigDecimal oversizedPrice) {
+        if (days[i] != day) return Integer.compare(days[i], day);
+        if (scales[i] != PriceBatch.OVERSIZED && oversizedPrice == null) {
+            int byValue = Long.compare(prices[i], price);
+            return byValue != 0 ? byValue : Integer.compare(scales[i], scale);
+        }
+        BigDecimal kept = scales[i] == PriceBatch.OVERSIZED ? oversized[i] : PriceBatch.price(prices[i], scales[i]);
+        BigDecimal other = oversizedPrice != null ? oversizedPrice : PriceBatch.price(price, scale);
+        int byValue = kept.compareTo(other);
+        return byValue != 0 ? byValue : Integer.compare(kept.scale(), other.scale());
+    }
+
+    private BigDecimal oversized(int i) {
+        return scales[i] == PriceBatch.OVERSIZED ? oversized[i] : null;
+    }
+
+    /**
+     * Provides amount of kept prices of the instrument.
+     * @param instrumentId specifies instrument
+     * @return amount of prices
+     */
+    public int size(int instrumentId) {
+        return instrumentId < sizes.length ? sizes[instrumentId] : 0;
+    }
+
+    /**
+     * Sums kept prices of the instrument.
+     * @param instrumentId specifies instrument
+     * @return sum of prices unless there are no prices of the instrument
+     */
+    public Optional<BigDecimal> sum(int instrumentId) {
+        int size = size(instrumentId);
+        if (size == 0) return Optional.empty();
+        PriceBatches.Sum sum = new PriceBatches.Sum();
+        for (int i = instrumentId * maxElements, end = i + size; i < end; i++)
+            if (scales[i] == PriceBatch.OVERSIZED) sum.add(oversized[i]);
+            else sum.add(prices[i], scales[i]);
+        return Optional.of(sum.toBigDecimal());
+    }
+
+    /**
+     * Sums kept prices of every instrument.
+     * @return instrument names along with sums of their prices in order of instrument identifiers
+     */
+    public List<Tuple<String, BigDecimal>> sums() {
+        InstrumentDictionary dictionary = InstrumentDictionary.shared();
+        List<Tuple<String, BigDecimal>> sums = new ArrayList<>();
+        for (int instrumentId = 0; instrumentId < sizes.length; instrumentId++) {
+            int id = instrumentId;
+            sum(id).ifPresent(sum -> sums.add(Tuple.t(dictionary.nameOf(id), sum)));
+        }
+        return sums;
+    }
+}
@@ -0,0 +1,44 @@
+package com.luxoft.aggregator;
+
+/**
+ * Categorizes rejected lines. Codes are counted instead of creating an exception per line, APIs carrying exceptions
+ * get the shared exception of a code, which has no stack trace.
+ * @author Dmitry Dobrynin
+ */
+public enum ParseError {
+    FIELD_COUNT("line does not consist of name, date and price"),
+    BAD_DATE("date is not in the dd-MMM-yyyy format"),
+    BAD_NUMBER("price is not a decimal number"),
+    NON_BUSINESS_DAY("date is not a business day"),
+    FUTURE_DATE("date is after the as-of date");
+
+    private final String description;
+    private final IllegalArgumentException exception;
+
+    ParseError(String description) {
+        this.description = description;
+        exception = new Rejection(name() + ": " + description + "!");
+    }
+
+    public String description() {
+        return description;
+    }
+
+    /**
+     * Provides the shared exception of the code.
+     * @return an exception without stack trace
+     */
+    public IllegalArgumentException exception() {
+        return exception;
+    }
+
+    private static class Rejection extends IllegalArgumentException {
+        Rejection(String message) {
+            super(message);
+        }
+
+        public synchronized Throwable fillInStackTrace() {
+            return this;
+        }
+    }
+}
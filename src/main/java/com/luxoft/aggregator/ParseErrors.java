@@ -0,0 +1,287 @@
+package com.luxoft.aggregator;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import static java.lang.String.format;
+
+/**
+ * Aggregates rejected lines instead of carrying an exception per line. A rejection increments the counter of its
+ * {@link ParseError}, the first lines are kept as a sample of a fixed size and, if a reject file has been enabled,
+ * raw lines are appended to a buffer handed over a bounded queue to a writer thread. Once the sample is full and no
+ * reject file is written, rejecting a line costs a counter increment only.
+ * @author Dmitry Dobrynin
+ */
+public class ParseErrors implements AutoCloseable {
+    public static final int DEFAULT_SAMPLES = 10;
+    public static final int DEFAULT_BUFFER_SIZE = 64 << 10;
+    private static final int BUFFERS = 4;
+    private static final ParseErrors SHARED =
+            new ParseErrors(Integer.getInteger("aggregator.errors.samples", DEFAULT_SAMPLES));
+
+    private final LongAdder[] counters = new LongAdder[ParseError.values().length];
+    private final AtomicReferenceArray<Tuple<ParseError, String>> samples;
+    private final AtomicInteger sampled = new AtomicInteger();
+    private volatile RejectFile rejectFile;
+
+    /**
+     * Creates errors.
+     * @param samples specifies amount of lines kept as a sample
+     */
+    public ParseErrors(int samples) {
+        if (samples < 0) throw new IllegalArgumentException("Invalid samples " + samples + "!");
+        this.samples = new AtomicReferenceArray<>(samples);
+        for (int i = 0; i < counters.length; i++)
+            counters[i] = new LongAdder();
+    }
+
+    /**
+     * Provides errors shared by the parser and filters, system property aggregator.errors.samples specifies the size
+     * of the sample.
+     * @return shared errors
+     */
+    public static ParseErrors shared() {
+        return SHARED;
+    }
+
+    /**
+     * Starts writing rejected lines to a file, the file is replaced.
+     * @param file specifies reject file
+     * @throws IOException if the file could not be opened
+     * @throws IllegalStateException if lines are being written to a reject file already
+     */
+    public synchronized void rejectTo(Path file) throws IOException {
+        if (rejectFile != null) throw new IllegalStateException("Rejected lines are written already!");
+        rejectFile = new RejectFile(FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING), DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * Rejects a line.
+     * @param error specifies cause
+     * @param line specifies characters containing the line
+     * @param from specifies the start index of the line inclusive
+     * @param to specifies the end index of the line exclusive
+     */
+    public void reject(ParseError error, CharSequence line, int from, int to) {
+        counters[error.ordinal()].increment();
+        if (sampled.get() < samples.length()) sample(error, text(line, from, to));
+        RejectFile file = rejectFile;
+        if (file != null) file.append(line, from, to);
+    }
+
+    public void reject(ParseError error, CharSequence line) {
+        reject(error, line, 0, line.length());
+    }
+
+    /**
+     * Rejects a parsed row, the line is restored from the row only if it is sampled or written to the reject file.
+     * @param error specifies cause
+     * @param batch specifies batch
+     * @param row specifies row
+     */
+    public void reject(ParseError error, PriceBatch batch, int row) {
+        if (sampled.get() < samples.length() || rejectFile != null) reject(error, lineOf(batch, row));
+        else counters[error.ordinal()].increment();
+    }
+
+    private static String lineOf(PriceBatch batch, int row) {
+        return InstrumentDictionary.shared().nameOf(batch.instrumentId(row)) + ',' +
+                LocalDate.ofEpochDay(batch.epochDay(row)).format(InstrumentPriceUtilities.DATE_FORMATTER) + ',' +
+                batch.price(row).toPlainString();
+    }
+
+    private static String text(CharSequence line, int from, int to) {
+        return line instanceof ByteSequence ? ((ByteSequence) line).decode(from, to) :
+                line.subSequence(from, to).toString();
+    }
+
+    private void sample(ParseError error, String line) {
+        int index = sampled.getAndIncrement();
+        if (index < samples.length()) samples.set(index, Tuple.t(error, line));
+    }
+
+    /**
+     * Counts lines rejected elsewhere, such as lines left out of a columnar cache when it was converted.
+     * @param error specifies cause
+     * @param lines specifies amount of rejected lines
+     */
+    public void add(ParseError error, long lines) {
+        counters[error.ordinal()].add(lines);
+    }
+
+    public long count(ParseError error) {
+        return counters[error.ordinal()].sum();
+    }
+
+    public long total() {
+        long total = 0;
+        for (LongAdder counter : counters)
+            total += counter.sum();
+        return total;
+    }
+
+    /**
+     * Provides the sample of rejected lines.
+     * @return the first rejected lines along with their causes
+     */
+    public List<Tuple<ParseError, String>> samples() {
+        List<Tuple<ParseError, String>> result = new ArrayList<>();
+        for (int i = 0, size = Math.min(sampled.get(), samples.length()); i < size; i++) {
+            Tuple<ParseError, String> sample = samples.get(i);
+            if (sample != null) result.add(sample);
+        }
+        return result;
+    }
+
+    /**
+     * Describes rejected lines.
+     * @return counts of causes followed by the sample, an empty string if nothing has been rejected
+     */
+    public String summary() {
+        long total = total();
+        if (total == 0) return "";
+        StringBuilder summary = new StringBuilder(format("Rejected %s lines:", total));
+        for (ParseError error : ParseError.values())
+            if (count(error) > 0) summary.append(format(" %s=%s", error, count(error)));
+        for (Tuple<ParseError, String> sample : samples())
+            summary.append(format("%n  %s: %s", sample._1, sample._2));
+        return summary.toString();
+    }
+
+    public void reset() {
+        for (LongAdder counter : counters)
+            counter.reset();
+        for (int i = 0; i < samples.length(); i++)
+            samples.set(i, null);
+        sampled.set(0);
+    }
+
+    /**
+     * Writes the remaining rejected lines and closes the reject file if it has been enabled, rejected lines are not
+     * written anymore.
+     * @throws IOException if rejected lines could not be written
+     */
+    public synchronized void close() throws IOException {
+        RejectFile file = rejectFile;
+        rejectFile = null;
+        if (file != null) file.close();
+    }
+
+    /**
+     * Collects raw lines to buffers written by a thread of its own.
+     */
+    private static class RejectFile {
+        private static final ByteBuffer END = ByteBuffer.allocate(0);
+
+        private final FileChannel channel;
+        private final BlockingQueue<ByteBuffer> filled = new ArrayBlockingQueue<>(BUFFERS + 1);
+        private final BlockingQueue<ByteBuffer> emptied = new ArrayBlockingQueue<>(BUFFERS + 1);
+        private final Thread writer;
+        private ByteBuffer current;
+        private boolean closed;
+        private volatile IOException failure;
+
+        RejectFile(FileChannel channel, int bufferSize) {
+            this.channel = channel;
+            for (int i = 0; i < BUFFERS; i++)
+                emptied.add(ByteBuffer.allocate(bufferSize));
+            current = ByteBuffer.allocate(bufferSize);
+            writer = new Thread(this::write, "reject-writer");
+            writer.setDaemon(true);
+            writer.start();
+        }
+
+        synchronized void append(CharSequence line, int from, int to) {
+            if (closed) return;
+            if (line instanceof ByteSequence) {
+                ByteBuffer buffer = ((ByteSequence) line).buffer();
+                for (int i = from; i < to; i++)
+                    put(buffer.get(i));
+            } else {
+                for (byte b : line.subSequence(from, to).toString().getBytes(StandardCharsets.UTF_8))
+                    put(b);
+            }
+            put((byte) '\n');
+        }
+
+        private void put(byte b) {
+            if (!current.hasRemaining()) {
+                current.flip();
+                hand(current);
+                try {
+                    current = emptied.take();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException("Interrupted while rejecting a line!", e);
+                }
+            }
+            current.put(b);
+        }
+
+        private void hand(ByteBuffer buffer) {
+            try {
+                filled.put(buffer);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while rejecting a line!", e);
+            }
+        }
+
+        synchronized void close() throws IOException {
+            closed = true;
+            current.flip();
+            hand(current);
+            hand(END);
+            try {
+                writer.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            channel.close();
+            if (failure != null) throw new IOException("Could not write rejected lines!", failure);
+        }
+
+        private void write() {
+            try {
+                for (ByteBuffer buffer = filled.take(); buffer != END; buffer = filled.take()) {
+                    while (failure == null && buffer.hasRemaining())
+                        channel.write(buffer);
+                    buffer.clear();
+                    emptied.put(buffer);
+                }
+            } catch (IOException e) {
+                failure = e;
+                drain();
+            } catch (InterruptedException ignored) {
+                // the process is exiting
+            }
+        }
+
+        /**
+         * Keeps returning buffers after a failure, so rejecting threads are not blocked.
+         */
+        private void drain() {
+            try {
+                for (ByteBuffer buffer = filled.take(); buffer != END; buffer = filled.take()) {
+                    buffer.clear();
+                    emptied.put(buffer);
+                }
+            } catch (InterruptedException ignored) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
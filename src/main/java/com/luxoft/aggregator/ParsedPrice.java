@@ -0,0 +1,99 @@
+package com.luxoft.aggregator;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+
+/**
+ * Contains an instrument price parsed by {@link InstrumentPriceParser} in a primitive form. Instances are mutable and
+ * meant to be reused for every parsed line.
+ * @author Dmitry Dobrynin
+ */
+public class ParsedPrice {
+    int nameStart;
+    int nameEnd;
+    int epochDay;
+    long unscaledPrice;
+    int priceScale;
+    boolean fitsLong;
+    BigDecimal bigPrice;
+    ParseError error;
+
+    /**
+     * Provides the instrument name.
+     * @param line specifies the parsed line
+     * @return a window of the line containing the instrument name
+     */
+    public CharSequence name(CharSequence line) {
+        return line.subSequence(nameStart, nameEnd);
+    }
+
+    public int getNameStart() {
+        return nameStart;
+    }
+
+    public int getNameEnd() {
+        return nameEnd;
+    }
+
+    public int getEpochDay() {
+        return epochDay;
+    }
+
+    /**
+     * Provides the price as an unscaled value, i.e. the price is unscaledPrice * 10^-priceScale.
+     * @return unscaled price
+     */
+    public long getUnscaledPrice() {
+        return unscaledPrice;
+    }
+
+    public int getPriceScale() {
+        return priceScale;
+    }
+
+    /**
+     * Checks whether the price is represented exactly by the unscaled price and the scale.
+     * @return false if the price has too many digits to be held by a long
+     */
+    public boolean fitsLong() {
+        return fitsLong;
+    }
+
+    /**
+     * Provides the cause of the last failed parsing.
+     * @return error code or null if the line has been parsed
+     */
+    public ParseError error() {
+        return error;
+    }
+
+    /**
+     * Provides the price as a big decimal.
+     * @return a newly created big decimal unless the price has been parsed by a big decimal
+     */
+    public BigDecimal price() {
+        return bigPrice != null ? bigPrice : BigDecimal.valueOf(unscaledPrice, priceScale);
+    }
+
+    /**
+     * Converts the parsed price to an object representation.
+     * @param line specifies the parsed line
+     * @return a newly created instrument price
+     */
+    public InstrumentPrice toInstrumentPrice(CharSequence line) {
+        return new InstrumentPrice(instrumentId(line), LocalDate.ofEpochDay(epochDay), price());
+    }
+
+    /**
+     * Resolves the instrument name to an identifier without copying the name unless it is seen for the first time.
+     * @param line specifies the parsed line
+     * @return identifier assigned by the shared {@link InstrumentDictionary}
+     */
+    public int instrumentId(CharSequence line) {
+        return InstrumentDictionary.shared().idOf(line, nameStart, nameEnd);
+    }
+
+    public String toString() {
+        return String.format("ParsedPrice(%s-%s,%s,%s)", nameStart, nameEnd, LocalDate.ofEpochDay(epochDay), price());
+    }
+}
@@ -0,0 +1,80 @@
+package com.luxoft.aggregator;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.function.Supplier;
+
+/**
+ * Stores partial states of accumulators calculated by separate processes, so that another process merges them. A file
+ * starts with magic and version followed by instrument names in order of identifiers of the writing process and the
+ * state of the accumulator. Identifiers are translated by names while a state is read, since every process assigns
+ * them in order of appearance.
+ * @author Dmitry Dobrynin
+ */
+public class PartialStates {
+    public static final int VERSION = 3;
+    private static final int MAGIC = 0x41475053;
+
+    /**
+     * Writes a partial state to a temporary file moved over the specified one when completed.
+     * @param file specifies file
+     * @param state specifies state
+     * @throws IOException if the state could not be written
+     */
+    public static void write(Path file, Checkpointable<?> state) throws IOException {
+        Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            writeState(out, InstrumentDictionary.shared().size(), state);
+        }
+        Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Reads a partial state.
+     * @param file specifies file
+     * @param accumulators creates an empty accumulator
+     * @param <A> type of accumulator
+     * @return accumulator having the read state
+     * @throws IOException if the state could not be read or it does not suit the accumulator
+     */
+    public static <A extends Checkpointable<A>> A read(Path file, Supplier<A> accumulators) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != MAGIC) throw new IOException("Invalid partial state " + file + "!");
+            int version = in.readInt();
+            if (version != VERSION) throw new IOException("Unsupported version " + version + " of " + file + "!");
+            return readState(in, accumulators);
+        }
+    }
+
+    /**
+     * Writes names of instruments registered so far and the state.
+     * @param names specifies amount of registered instruments taken no earlier than the state
+     */
+    static void writeState(DataOutput out, int names, Checkpointable<?> state) throws IOException {
+        InstrumentDictionary dictionary = InstrumentDictionary.shared();
+        out.writeInt(names);
+        for (int id = 0; id < names; id++)
+            out.writeUTF(dictionary.nameOf(id));
+        state.writeTo(out);
+    }
+
+    static <A extends Checkpointable<A>> A readState(DataInput in, Supplier<A> accumulators) throws IOException {
+        int names = in.readInt();
+        if (names < 0) throw new IOException("Invalid amount of instruments " + names + "!");
+        InstrumentDictionary dictionary = InstrumentDictionary.shared();
+        int[] instrumentIds = new int[names];
+        for (int id = 0; id < names; id++)
+            instrumentIds[id] = dictionary.idOf(in.readUTF());
+        A accumulator = accumulators.get();
+        try {
+            accumulator.readFrom(in, id -> instrumentIds[id]);
+        } catch (IndexOutOfBoundsException e) {
+            throw new IOException("State refers to an unknown instrument!", e);
+        }
+        return accumulator;
+    }
+}
@@ -0,0 +1,260 @@
+package com.luxoft.aggregator;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.LongSupplier;
+
+import static java.lang.String.format;
+
+/**
+ * Instruments stages of the pipeline with counters of records and bytes, latency histograms and depths of queues. The
+ * shared metrics are updated by sources, the parser, filters, calculations, the enrichment and flushers, they are
+ * exposed over JMX and reported periodically as a line of rates. Metrics are disabled entirely by system property
+ * aggregator.metrics=false, a disabled check is a constant the JIT compiler removes along with the guarded code.
+ * @author Dmitry Dobrynin
+ */
+public class PipelineMetrics implements PipelineMetricsMXBean {
+    public static final boolean ENABLED = !"false".equalsIgnoreCase(System.getProperty("aggregator.metrics"));
+    public static final long DEFAULT_PERIOD = 10_000;
+    public static final String OBJECT_NAME = "com.luxoft.aggregator:type=PipelineMetrics";
+    private static final PipelineMetrics SHARED = new PipelineMetrics();
+    private static final double[] PERCENTILES = {50, 99, 99.9};
+    private static final String[] PERCENTILE_TITLES = {"p50", "p99", "p99.9"};
+
+    /**
+     * Counted records and bytes.
+     */
+    public enum Counter {
+        RECORDS_READ("records.read"), RECORDS_PARSED("records.parsed"), RECORDS_FAILED("records.failed"),
+        RECORDS_FILTERED("records.filtered"), RECORDS_ENRICHED("records.enriched"), RECORDS_WRITTEN("records.written"),
+        BYTES_READ("bytes.read"), BYTES_WRITTEN("bytes.written"), MULTIPLIER_HITS("multiplier.hits"),
+        MULTIPLIER_MISSES("multiplier.misses"), MULTIPLIER_LOADS("multiplier.loads");
+
+        final String title;
+
+        Counter(String title) {
+            this.title = title;
+        }
+    }
+
+    /**
+     * Stages whose latencies are measured.
+     */
+    public enum Stage {
+        PARSE("parse"), CALCULATE("calculate"), WRITE("write"), MULTIPLIER_LOAD("multiplier.load");
+
+        final String title;
+
+        Stage(String title) {
+            this.title = title;
+        }
+    }
+
+    private final LongAdder[] counters = new LongAdder[Counter.values().length];
+    private final LatencyHistogram[] latencies = new LatencyHistogram[Stage.values().length];
+    private final Map<String, LongSupplier> queues = new ConcurrentHashMap<>();
+
+    PipelineMetrics() {
+        for (int i = 0; i < counters.length; i++)
+            counters[i] = new LongAdder();
+        for (int i = 0; i < latencies.length; i++)
+            latencies[i] = new LatencyHistogram();
+    }
+
+    public static PipelineMetrics shared() {
+        return SHARED;
+    }
+
+    /**
+     * Provides the start of a measured interval.
+     * @return current nanoseconds or 0 if metrics are disabled
+     */
+    public static long started() {
+        return ENABLED ? System.nanoTime() : 0;
+    }
+
+    public void add(Counter counter, long amount) {
+        if (ENABLED) counters[counter.ordinal()].add(amount);
+    }
+
+    public void increment(Counter counter) {
+        if (ENABLED) counters[counter.ordinal()].increment();
+    }
+
+    public long count(Counter counter) {
+        return counters[counter.ordinal()].sum();
+    }
+
+    /**
+     * Records latency of a stage.
+     * @param stage specifies stage
+     * @param started specifies the start provided by {@link #started()}
+     */
+    public void record(Stage stage, long started) {
+        if (ENABLED) latencies[stage.ordinal()].record(System.nanoTime() - started);
+    }
+
+    public LatencyHistogram latency(Stage stage) {
+        return latencies[stage.ordinal()];
+    }
+
+    /**
+     * Registers a queue whose depth is reported until it is unregistered. A queue named like one registered already,
+     * such as a shard of another engine, is registered by the name followed by a number.
+     * @param name specifies name of the queue
+     * @param depth provides current depth
+     * @return name to unregister the queue by
+     */
+    public String registerQueue(String name, LongSupplier depth) {
+        if (!ENABLED) return name;
+        String registered = name;
+        for (int i = 2; queues.putIfAbsent(registered, depth) != null; i++)
+            registered = name + "#" + i;
+        return registered;
+    }
+
+    public void unregisterQueue(String name) {
+        queues.remove(name);
+    }
+
+    public Map<String, Long> getCounters() {
+        Map<String, Long> result = new TreeMap<>();
+        for (Counter counter : Counter.values())
+            result.put(counter.title, count(counter));
+        return result;
+    }
+
+    public Map<String, Long> getQueueDepths() {
+        Map<String, Long> result = new TreeMap<>();
+        queues.forEach((name, depth) -> result.put(name, depth.getAsLong()));
+        return result;
+    }
+
+    public Map<String, Long> getLatencies() {
+        Map<String, Long> result = new TreeMap<>();
+        for (Stage stage : Stage.values()) {
+            LatencyHistogram histogram = latency(stage);
+            result.put(stage.title + ".count", histogram.count());
+            result.put(stage.title + ".mean", Math.round(histogram.mean()));
+            for (int i = 0; i < PERCENTILES.length; i++)
+                result.put(stage.title + "." + PERCENTILE_TITLES[i], histogram.percentile(PERCENTILES[i]));
+            result.put(stage.title + ".max", histogram.max());
+        }
+        return result;
+    }
+
+    public String getSummary() {
+        StringBuilder summary = new StringBuilder();
+        for (Counter counter : Counter.values())
+            summary.append(counter.title).append('=').append(count(counter)).append(' ');
+        appendLatencies(summary);
+        appendQueues(summary);
+        return summary.toString().trim();
+    }
+
+    public void reset() {
+        for (LongAdder counter : counters)
+            counter.reset();
+        for (LatencyHistogram histogram : latencies)
+            histogram.reset();
+    }
+
+    private void appendLatencies(StringBuilder line) {
+        for (Stage stage : Stage.values()) {
+            LatencyHistogram histogram = latency(stage);
+            if (histogram.count() > 0)
+                line.append(format("%s p50/p99/max=%s/%s/%s us ", stage.title, histogram.percentile(50) / 1000,
+                        histogram.percentile(99) / 1000, histogram.max() / 1000));
+        }
+    }
+
+    private void appendQueues(StringBuilder line) {
+        getQueueDepths().forEach((name, depth) -> line.append(name).append(".depth=").append(depth).append(' '));
+    }
+
+    /**
+     * Registers the metrics with the platform MBean server unless they have been registered or are disabled.
+     */
+    public void register() {
+        if (!ENABLED) return;
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName(OBJECT_NAME));
+        } catch (InstanceAlreadyExistsException ignored) {
+            // registered by a previous run
+        } catch (JMException e) {
+            throw new IllegalStateException("Could not register " + OBJECT_NAME + "!", e);
+        }
+    }
+
+    /**
+     * Starts reporting rates of counters since the previous report along with latencies and queue depths.
+     * @param period specifies milliseconds between reports
+     * @param log receives report lines on a daemon thread
+     * @return reporter to be closed when reporting should be stopped, it reports the last time when closed
+     */
+    public Reporter report(long period, Consumer<String> log) {
+        if (period <= 0) throw new IllegalArgumentException("Invalid period " + period + "!");
+        return new Reporter(period, log);
+    }
+
+    /**
+     * Reports metrics periodically.
+     */
+    public class Reporter implements AutoCloseable {
+        private final Consumer<String> log;
+        private final ScheduledExecutorService scheduler;
+        private final long[] reported = new long[counters.length];
+        private long reportedAt = System.nanoTime();
+
+        Reporter(long period, Consumer<String> log) {
+            this.log = log;
+            for (int i = 0; i < counters.length; i++)
+                reported[i] = counters[i].sum();
+            scheduler = ENABLED ? Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "metrics-reporter");
+                thread.setDaemon(true);
+                return thread;
+            }) : null;
+            if (scheduler != null) scheduler.scheduleAtFixedRate(this::report, period, period, TimeUnit.MILLISECONDS);
+        }
+
+        /**
+         * Provides rates of counters per second since the previous line along with latencies and queue depths.
+         */
+        synchronized String line() {
+            long now = System.nanoTime();
+            double seconds = Math.max(now - reportedAt, 1) / 1e9;
+            StringBuilder line = new StringBuilder();
+            for (Counter counter : Counter.values()) {
+                long count = count(counter);
+                line.append(counter.title).append('=').append(Math.round((count - reported[counter.ordinal()]) /
+                        seconds)).append("/s ");
+                reported[counter.ordinal()] = count;
+            }
+            reportedAt = now;
+            appendLatencies(line);
+            appendQueues(line);
+            return line.toString().trim();
+        }
+
+        private void report() {
+            log.accept(line());
+        }
+
+        public void close() {
+            if (scheduler == null) return;
+            scheduler.shutdownNow();
+            report();
+        }
+    }
+}
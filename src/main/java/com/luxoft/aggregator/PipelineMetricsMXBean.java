@@ -0,0 +1,31 @@
+package com.luxoft.aggregator;
+
+import java.util.Map;
+
+/**
+ * Exposes {@link PipelineMetrics} over JMX.
+ * @author Dmitry Dobrynin
+ */
+public interface PipelineMetricsMXBean {
+    /**
+     * Provides totals of counters such as records.parsed or bytes.read.
+     */
+    Map<String, Long> getCounters();
+
+    /**
+     * Provides current depths of registered queues.
+     */
+    Map<String, Long> getQueueDepths();
+
+    /**
+     * Provides count, mean, percentiles and maximum of latencies of every stage in nanoseconds.
+     */
+    Map<String, Long> getLatencies();
+
+    /**
+     * Provides totals of all metrics in a single line.
+     */
+    String getSummary();
+
+    void reset();
+}
@@ -0,0 +1,31 @@
+package com.luxoft.aggregator;
+
+/**
+ * Accumulates state of a calculation from prices one by one. Accumulators are not thread safe, an accumulator
+ * filled by every thread separately is combined with others by merging.
+ * @param <A> type of accumulator
+ * @author Dmitry Dobrynin
+ */
+public interface PriceAccumulator<A extends PriceAccumulator<A>> {
+    /**
+     * Accumulates a price.
+     * @param batch specifies batch containing the price
+     * @param row specifies row of the price
+     */
+    void accept(PriceBatch batch, int row);
+
+    /**
+     * Accumulates all prices of the batch.
+     * @param batch specifies prices
+     */
+    default void accept(PriceBatch batch) {
+        for (int row = 0; row < batch.size; row++)
+            accept(batch, row);
+    }
+
+    /**
+     * Combines state of another accumulator with this one as if this accumulator has accepted all its prices.
+     * @param other specifies accumulator to be merged
+     */
+    void merge(A other);
+}
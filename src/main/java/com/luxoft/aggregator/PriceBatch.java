@@ -0,0 +1,251 @@
+package com.luxoft.aggregator;
+
+import rx.Observable;
+import rx.Subscriber;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+
+/**
+ * Contains instrument prices as parallel primitive arrays. Prices are kept as longs scaled by 10^{@link #PRICE_SCALE}
+ * along with the scale they have been written with. A price having more fractional digits or being too large to be
+ * scaled is kept as a big decimal aside and its scale is {@link #OVERSIZED}. Batches are reused, so a batch is only
+ * valid while it is being emitted and must not be kept by subscribers.
+ * @author Dmitry Dobrynin
+ */
+public class PriceBatch {
+    public static final int PRICE_SCALE = 9;
+    public static final int DEFAULT_CAPACITY = 4096;
+    public static final byte OVERSIZED = -1;
+    static final long[] POWERS_OF_TEN = new long[19];
+
+    static {
+        POWERS_OF_TEN[0] = 1;
+        for (int i = 1; i < POWERS_OF_TEN.length; i++)
+            POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+    }
+
+    final int[] instrumentId;
+    final int[] epochDay;
+    final long[] scaledPrice;
+    final byte[] priceScale;
+    int size;
+    private BigDecimal[] oversizedPrices;
+
+    public PriceBatch(int capacity) {
+        instrumentId = new int[capacity];
+        epochDay = new int[capacity];
+        scaledPrice = new long[capacity];
+        priceScale = new byte[capacity];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int capacity() {
+        return instrumentId.length;
+    }
+
+    public boolean isFull() {
+        return size == instrumentId.length;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public void clear() {
+        size = 0;
+    }
+
+    /**
+     * Appends a price to the batch.
+     * @param instrumentId specifies instrument identifier
+     * @param epochDay specifies date of the price
+     * @param unscaledPrice specifies price multiplied by 10^scale
+     * @param scale specifies scale of the price
+     * @return false if the price can not be represented by a long scaled by 10^{@link #PRICE_SCALE}
+     */
+    public boolean add(int instrumentId, int epochDay, long unscaledPrice, int scale) {
+        if (scale < 0 || scale > PRICE_SCALE) return false;
+        long multiplier = POWERS_OF_TEN[PRICE_SCALE - scale];
+        long limit = Long.MAX_VALUE / multiplier;
+        if (unscaledPrice > limit || unscaledPrice < -limit) return false;
+        this.instrumentId[size] = instrumentId;
+        this.epochDay[size] = epochDay;
+        this.scaledPrice[size] = unscaledPrice * multiplier;
+        this.priceScale[size++] = (byte) scale;
+        return true;
+    }
+
+    /**
+     * Appends a price keeping it as a big decimal unless it can be represented by a scaled long.
+     * @param instrumentId specifies instrument identifier
+     * @param epochDay specifies date of the price
+     * @param price specifies price
+     */
+    public void add(int instrumentId, int epochDay, BigDecimal price) {
+        if (price.scale() < 0) price = price.setScale(0);
+        if (price.unscaledValue().bitLength() < 64 &&
+                add(instrumentId, epochDay, price.unscaledValue().longValue(), price.scale())) return;
+        this.instrumentId[size] = instrumentId;
+        this.epochDay[size] = epochDay;
+        setOversized(size++, price);
+    }
+
+    /**
+     * Replaces price of a row with a big decimal.
+     */
+    void setOversized(int row, BigDecimal price) {
+        if (oversizedPrices == null) oversizedPrices = new BigDecimal[capacity()];
+        scaledPrice[row] = 0;
+        priceScale[row] = OVERSIZED;
+        oversizedPrices[row] = price;
+    }
+
+    /**
+     * Copies a row of another batch.
+     * @param batch specifies source batch
+     * @param row specifies row to be copied
+     */
+    public void add(PriceBatch batch, int row) {
+        instrumentId[size] = batch.instrumentId[row];
+        epochDay[size] = batch.epochDay[row];
+        if (batch.priceScale[row] == OVERSIZED) {
+            setOversized(size++, batch.oversizedPrices[row]);
+        } else {
+            scaledPrice[size] = batch.scaledPrice[row];
+            priceScale[size++] = batch.priceScale[row];
+        }
+    }
+
+    /**
+     * Replaces content of the batch with rows of another batch.
+     * @param batch specifies source batch not exceeding capacity of this one
+     */
+    public void copyFrom(PriceBatch batch) {
+        if (batch.size > capacity())
+            throw new IllegalArgumentException("Batch of " + batch.size + " rows exceeds capacity " + capacity() + "!");
+        System.arraycopy(batch.instrumentId, 0, instrumentId, 0, batch.size);
+        System.arraycopy(batch.epochDay, 0, epochDay, 0, batch.size);
+        System.arraycopy(batch.scaledPrice, 0, scaledPrice, 0, batch.size);
+        System.arraycopy(batch.priceScale, 0, priceScale, 0, batch.size);
+        size = batch.size;
+        if (batch.oversizedPrices != null)
+            for (int row = 0; row < size; row++)
+                if (priceScale[row] == OVERSIZED) setOversized(row, batch.oversizedPrices[row]);
+    }
+
+    /**
+     * Appends an instrument price to the batch.
+     * @param price specifies price
+     */
+    public void add(InstrumentPrice price) {
+        add(price.getInstrumentId(), (int) price.getDate().toEpochDay(), price.getPrice());
+    }
+
+    public int instrumentId(int row) {
+        return instrumentId[row];
+    }
+
+    public int epochDay(int row) {
+        return epochDay[row];
+    }
+
+    /**
+     * Provides price of the row.
+     * @param row specifies row
+     * @return price multiplied by 10^{@link #PRICE_SCALE} or 0 if the price is oversized
+     */
+    public long scaledPrice(int row) {
+        return scaledPrice[row];
+    }
+
+    /**
+     * Provides scale the price of the row has been written with.
+     * @param row specifies row
+     * @return scale or {@link #OVERSIZED} if the price is kept as a big decimal
+     */
+    public int priceScale(int row) {
+        return priceScale[row];
+    }
+
+    public boolean isOversized(int row) {
+        return priceScale[row] == OVERSIZED;
+    }
+
+    /**
+     * Converts a scaled price to a big decimal with the specified scale.
+     * @param scaledPrice specifies price multiplied by 10^{@link #PRICE_SCALE}
+     * @param scale specifies scale not greater than {@link #PRICE_SCALE} at which the price is exact
+     * @return price
+     */
+    public static BigDecimal price(long scaledPrice, int scale) {
+        return BigDecimal.valueOf(scaledPrice / POWERS_OF_TEN[PRICE_SCALE - scale], scale);
+    }
+
+    public BigDecimal price(int row) {
+        return priceScale[row] == OVERSIZED ? oversizedPrices[row] : price(scaledPrice[row], priceScale[row]);
+    }
+
+    public InstrumentPrice toInstrumentPrice(int row) {
+        return new InstrumentPrice(instrumentId[row], LocalDate.ofEpochDay(epochDay[row]), price(row));
+    }
+
+    /**
+     * Provides an operator emitting prices contained by batches.
+     * @return an operator converting batches to instrument prices
+     */
+    public static Observable.Operator<InstrumentPrice, PriceBatch> prices() {
+        return child -> {
+            Subscriber<PriceBatch> parent = new Subscriber<PriceBatch>() {
+                public void onCompleted() {
+                    child.onCompleted();
+                }
+
+                public void onError(Throwable e) {
+                    child.onError(e);
+                }
+
+                public void onNext(PriceBatch batch) {
+                    for (int row = 0; row < batch.size && !child.isUnsubscribed(); row++)
+                        child.onNext(batch.toInstrumentPrice(row));
+                }
+            };
+            child.add(parent);
+            return parent;
+        };
+    }
+
+    /**
+     * Provides an operator collecting instrument prices to a reused batch.
+     * @param capacity specifies capacity of the batch
+     * @return an operator converting instrument prices to batches
+     */
+    public static Observable.Operator<PriceBatch, InstrumentPrice> collect(int capacity) {
+        return child -> {
+            PriceBatch batch = new PriceBatch(capacity);
+            Subscriber<InstrumentPrice> parent = new Subscriber<InstrumentPrice>() {
+                public void onCompleted() {
+                    if (!batch.isEmpty()) child.onNext(batch);
+                    child.onCompleted();
+                }
+
+                public void onError(Throwable e) {
+                    child.onError(e);
+                }
+
+                public void onNext(InstrumentPrice price) {
+                    batch.add(price);
+                    if (batch.isFull()) {
+                        child.onNext(batch);
+                        batch.clear();
+                    }
+                }
+            };
+            child.add(parent);
+            return parent;
+        };
+    }
+}
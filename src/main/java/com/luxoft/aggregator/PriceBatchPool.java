@@ -0,0 +1,60 @@
+package com.luxoft.aggregator;
+
+import rx.Observable;
+import rx.Subscriber;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Keeps batches for reuse. A new batch is created when the pool is empty, released batches exceeding the pool
+ * size are left to the garbage collector.
+ * @author Dmitry Dobrynin
+ */
+public class PriceBatchPool {
+    private final int batchCapacity;
+    private final BlockingQueue<PriceBatch> batches;
+
+    public PriceBatchPool(int batchCapacity, int poolSize) {
+        this.batchCapacity = batchCapacity;
+        this.batches = new ArrayBlockingQueue<>(poolSize);
+    }
+
+    public PriceBatch acquire() {
+        PriceBatch batch = batches.poll();
+        return batch != null ? batch : new PriceBatch(batchCapacity);
+    }
+
+    public void release(PriceBatch batch) {
+        batch.clear();
+        batches.offer(batch);
+    }
+
+    /**
+     * Provides an operator returning batches to the pool as soon as they have been emitted downstream.
+     * @return an operator releasing batches
+     */
+    public Observable.Operator<PriceBatch, PriceBatch> releasing() {
+        return child -> {
+            Subscriber<PriceBatch> parent = new Subscriber<PriceBatch>() {
+                public void onCompleted() {
+                    child.onCompleted();
+                }
+
+                public void onError(Throwable e) {
+                    child.onError(e);
+                }
+
+                public void onNext(PriceBatch batch) {
+                    try {
+                        child.onNext(batch);
+                    } finally {
+                        release(batch);
+                    }
+                }
+            };
+            child.add(parent);
+            return parent;
+        };
+    }
+}
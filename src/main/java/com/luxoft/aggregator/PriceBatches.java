@@ -0,0 +1,320 @@
+package com.luxoft.aggregator;
+
+import rx.Observable;
+import rx.Subscriber;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.util.function.IntPredicate;
+import java.util.function.Supplier;
+
+/**
+ * Provides filters and reductions on price batches. They loop over columns of batches and produce the same results
+ * as their counterparts in {@link InstrumentPriceUtilities}.
+ * @author Dmitry Dobrynin
+ */
+public class PriceBatches {
+    /**
+     * Restricts rows of a batch.
+     */
+    public interface RowPredicate {
+        boolean test(PriceBatch batch, int row);
+
+        default RowPredicate and(RowPredicate other) {
+            return (batch, row) -> test(batch, row) && other.test(batch, row);
+        }
+    }
+
+    /**
+     * Applies restriction on instrument identifier.
+     * @param instrumentPredicate specifies restriction
+     * @return true if instrument identifier satisfies condition
+     */
+    public static RowPredicate instrument(IntPredicate instrumentPredicate) {
+        return (batch, row) -> instrumentPredicate.test(batch.instrumentId[row]);
+    }
+
+    /**
+     * Allows to apply restriction on an epoch day.
+     * @param datePredicate specifies restriction
+     * @return true if date satisfies condition
+     */
+    public static RowPredicate date(IntPredicate datePredicate) {
+        return (batch, row) -> datePredicate.test(batch.epochDay[row]);
+    }
+
+    /**
+     * Restricts rows to days on which prices may be dated, other rows are rejected as dated by future or non-business
+     * days.
+     * @param calendar specifies calendar
+     * @param errors receives rejected rows
+     * @return true if the date is a business day not after the as-of date
+     */
+    public static RowPredicate businessDay(BusinessCalendar calendar, ParseErrors errors) {
+        return (batch, row) -> {
+            int epochDay = batch.epochDay[row];
+            if (calendar.test(epochDay)) return true;
+            errors.reject(calendar.isFuture(epochDay) ? ParseError.FUTURE_DATE : ParseError.NON_BUSINESS_DAY,
+                    batch, row);
+            return false;
+        };
+    }
+
+    /**
+     * Provides an operator copying rows satisfying the predicate to a batch reused for every emitted batch.
+     * @param predicate specifies restriction
+     * @return an operator filtering batches
+     */
+    public static Observable.Operator<PriceBatch, PriceBatch> filter(RowPredicate predicate) {
+        return child -> {
+            Subscriber<PriceBatch> parent = new Subscriber<PriceBatch>() {
+                PriceBatch filtered;
+
+                public void onCompleted() {
+                    child.onCompleted();
+                }
+
+                public void onError(Throwable e) {
+                    child.onError(e);
+                }
+
+                public void onNext(PriceBatch batch) {
+                    if (filtered == null || filtered.capacity() < batch.size) filtered = new PriceBatch(batch.capacity());
+                    filtered.clear();
+                    for (int row = 0; row < batch.size; row++)
+                        if (predicate.test(batch, row)) filtered.add(batch, row);
+                    PipelineMetrics.shared().add(PipelineMetrics.Counter.RECORDS_FILTERED, batch.size - filtered.size);
+                    if (filtered.size > 0) child.onNext(filtered);
+                }
+            };
+            child.add(parent);
+            return parent;
+        };
+    }
+
+    /**
+     * Aggregates a stream to calculate mean value.
+     * @param batches a stream of batches
+     * @return stream of a single value unless the stream is empty
+     */
+    public static Observable<BigDecimal> mean(Observable<PriceBatch> batches) {
+        return Observable.defer(() -> batches.reduce(new Sum(), Sum::add))
+                .filter(sum -> sum.count() > 0)
+                .map(Sum::mean);
+    }
+
+    /**
+     * Aggregates a stream to calculate maximum price from the supplied stream.
+     * @param batches a stream of batches
+     * @return stream of a single value
+     */
+    public static Observable<BigDecimal> max(Observable<PriceBatch> batches) {
+        return Observable.defer(() -> batches.reduce(new Max(), Max::add)).map(Max::toBigDecimal);
+    }
+
+    /**
+     * Accumulates all batches of a stream.
+     * @param batches a stream of batches
+     * @param accumulator supplies an accumulator for every subscription
+     * @param <A> type of accumulator
+     * @return stream of a single accumulator emitted on completion
+     */
+    public static <A extends PriceAccumulator<A>> Observable<A> accumulate(Observable<PriceBatch> batches,
+                                                                          Supplier<A> accumulator) {
+        return Observable.defer(() -> batches.reduce(accumulator.get(), (state, batch) -> {
+            long started = PipelineMetrics.started();
+            state.accept(batch);
+            PipelineMetrics.shared().record(PipelineMetrics.Stage.CALCULATE, started);
+            return state;
+        }));
+    }
+
+    /**
+     * Sums the newest prices of every instrument.
+     * @param batches a stream of batches
+     * @param maxElements specifies amount of the newest prices of an instrument to be summed
+     * @return stream of instrument names along with sums emitted on completion in order of instrument identifiers
+     */
+    public static Observable<Tuple<String, BigDecimal>> newestSums(Observable<PriceBatch> batches, int maxElements) {
+        return accumulate(batches, () -> new NewestPrices(maxElements)).flatMapIterable(NewestPrices::sums);
+    }
+
+    /**
+     * Rolls prices of every instrument up to months and years.
+     * @param batches a stream of batches
+     * @return stream of a single rollup emitted on completion
+     */
+    public static Observable<CalendarRollups> rollups(Observable<PriceBatch> batches) {
+        return accumulate(batches, CalendarRollups::new);
+    }
+
+    /**
+     * Calculates statistics of prices of every instrument.
+     * @param batches a stream of batches
+     * @return stream of instrument names along with statistics emitted on completion in order of instrument identifiers
+     */
+    public static Observable<Tuple<String, InstrumentStatistics.Summary>> statistics(Observable<PriceBatch> batches) {
+        return accumulate(batches, InstrumentStatistics::new).flatMapIterable(InstrumentStatistics::summaries);
+    }
+
+    /**
+     * Writes a big decimal which may be null.
+     */
+    static void writeDecimal(DataOutput out, BigDecimal value) throws IOException {
+        out.writeUTF(value == null ? "" : value.toString());
+    }
+
+    static BigDecimal readDecimal(DataInput in) throws IOException {
+        String value = in.readUTF();
+        try {
+            return value.isEmpty() ? null : new BigDecimal(value);
+        } catch (NumberFormatException e) {
+            throw new IOException("Invalid decimal " + value + "!", e);
+        }
+    }
+
+    /**
+     * Accumulates sum of scaled prices in 128 bits along with the maximum scale of summed prices, oversized prices are
+     * summed as big decimals aside.
+     */
+    static class Sum {
+        final FixedPoint.Sum sum = new FixedPoint.Sum();
+        int scale;
+        BigDecimal oversized;
+        long oversizedCount;
+
+        Sum add(PriceBatch batch) {
+            for (int row = 0; row < batch.size; row++)
+                add(batch, row);
+            return this;
+        }
+
+        void add(PriceBatch batch, int row) {
+            if (batch.priceScale[row] == PriceBatch.OVERSIZED) add(batch.price(row));
+            else add(batch.scaledPrice[row], batch.priceScale[row]);
+        }
+
+        void add(long price, int priceScale) {
+            sum.add(price);
+            if (priceScale > scale) scale = priceScale;
+        }
+
+        void add(BigDecimal price) {
+            oversized = oversized == null ? price : oversized.add(price);
+            oversizedCount++;
+        }
+
+        void merge(Sum other) {
+            sum.merge(other.sum);
+            scale = Math.max(scale, other.scale);
+            if (other.oversized != null) {
+                oversized = oversized == null ? other.oversized : oversized.add(other.oversized);
+                oversizedCount += other.oversizedCount;
+            }
+        }
+
+        BigDecimal toBigDecimal() {
+            if (sum.count() == 0 && oversized != null) return oversized;
+            BigDecimal fixed = new BigDecimal(sum.toBigInteger(), PriceBatch.PRICE_SCALE).setScale(scale);
+            return oversized != null ? fixed.add(oversized) : fixed;
+        }
+
+        long count() {
+            return sum.count() + oversizedCount;
+        }
+
+        BigDecimal mean() {
+            return toBigDecimal().divide(new BigDecimal(count()), MathContext.DECIMAL64);
+        }
+
+        void copyFrom(Sum other) {
+            sum.high = other.sum.high;
+            sum.low = other.sum.low;
+            sum.count = other.sum.count;
+            scale = other.scale;
+            oversized = other.oversized;
+            oversizedCount = other.oversizedCount;
+        }
+
+        void writeTo(DataOutput out) throws IOException {
+            out.writeLong(sum.high);
+            out.writeLong(sum.low);
+            out.writeLong(sum.count);
+            out.writeByte(scale);
+            writeDecimal(out, oversized);
+            out.writeLong(oversizedCount);
+        }
+
+        void readFrom(DataInput in) throws IOException {
+            sum.high = in.readLong();
+            sum.low = in.readLong();
+            sum.count = in.readLong();
+            scale = in.readByte();
+            oversized = readDecimal(in);
+            oversizedCount = in.readLong();
+        }
+    }
+
+    /**
+     * Keeps maximum scaled price along with its scale starting with zero, the maximum of oversized prices is kept as a
+     * big decimal aside.
+     */
+    static class Max {
+        long max;
+        int scale;
+        BigDecimal oversized;
+
+        Max add(PriceBatch batch) {
+            for (int row = 0; row < batch.size; row++)
+                add(batch, row);
+            return this;
+        }
+
+        void add(PriceBatch batch, int row) {
+            if (batch.priceScale[row] == PriceBatch.OVERSIZED) add(batch.price(row));
+            else add(batch.scaledPrice[row], batch.priceScale[row]);
+        }
+
+        void add(long price, int priceScale) {
+            if (price > max) {
+                max = price;
+                scale = priceScale;
+            }
+        }
+
+        void add(BigDecimal price) {
+            if (oversized == null || price.compareTo(oversized) > 0) oversized = price;
+        }
+
+        void merge(Max other) {
+            add(other.max, other.scale);
+            if (other.oversized != null) add(other.oversized);
+        }
+
+        BigDecimal toBigDecimal() {
+            BigDecimal fixed = PriceBatch.price(max, scale);
+            return oversized != null && oversized.compareTo(fixed) > 0 ? oversized : fixed;
+        }
+
+        void copyFrom(Max other) {
+            max = other.max;
+            scale = other.scale;
+            oversized = other.oversized;
+        }
+
+        void writeTo(DataOutput out) throws IOException {
+            out.writeLong(max);
+            out.writeByte(scale);
+            writeDecimal(out, oversized);
+        }
+
+        void readFrom(DataInput in) throws IOException {
+            max = in.readLong();
+            scale = in.readByte();
+            oversized = readDecimal(in);
+        }
+    }
+}
@@ -0,0 +1,343 @@
+package com.luxoft.aggregator;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.SplittableRandom;
+import java.util.concurrent.*;
+
+import static java.nio.file.StandardOpenOption.*;
+
+/**
+ * Generates input files of the requested size. A file is generated by blocks on several threads, every block is
+ * generated by its own random seeded by the seed of the file and the number of the block, so the file is the same
+ * whatever amount of threads is used. Instruments are chosen by Zipf's law, INSTRUMENT1 being the most popular one.
+ * @author Dmitry Dobrynin
+ */
+public class PriceFileGenerator {
+    static final int BLOCK_SIZE = 4 << 20;
+    private static final int MAX_LINE_LENGTH = 128;
+    private static final int FUTURE_DAYS = 365;
+    private static final int DATE_LENGTH = 11;
+
+    private long seed = 1;
+    private int instruments = 10_000;
+    private double skew = 1;
+    private LocalDate from = LocalDate.of(1996, 1, 1);
+    private LocalDate to = BusinessCalendar.DEFAULT_AS_OF;
+    private double weekendFraction = 0.02;
+    private double futureFraction = 0.01;
+    private double malformedFraction = 0.001;
+    private double sortedness;
+    private int threads = Runtime.getRuntime().availableProcessors();
+
+    public PriceFileGenerator seed(long seed) {
+        this.seed = seed;
+        return this;
+    }
+
+    /**
+     * Specifies amount of distinct instruments.
+     */
+    public PriceFileGenerator instruments(int instruments) {
+        if (instruments <= 0) throw new IllegalArgumentException("Invalid amount of instruments " + instruments + "!");
+        this.instruments = instruments;
+        return this;
+    }
+
+    /**
+     * Specifies exponent of Zipf's law, the popularity of the instrument ranked k is proportional to 1 / k^skew, so
+     * 0 makes instruments equally popular.
+     */
+    public PriceFileGenerator skew(double skew) {
+        if (skew < 0) throw new IllegalArgumentException("Invalid skew " + skew + "!");
+        this.skew = skew;
+        return this;
+    }
+
+    /**
+     * Specifies range of dates, dates after the last one are the future ones.
+     */
+    public PriceFileGenerator dates(LocalDate from, LocalDate to) {
+        if (from.isAfter(to)) throw new IllegalArgumentException("Invalid dates from " + from + " to " + to + "!");
+        this.from = from;
+        this.to = to;
+        return this;
+    }
+
+    public PriceFileGenerator weekendFraction(double weekendFraction) {
+        this.weekendFraction = fraction(weekendFraction);
+        return this;
+    }
+
+    public PriceFileGenerator futureFraction(double futureFraction) {
+        this.futureFraction = fraction(futureFraction);
+        return this;
+    }
+
+    public PriceFileGenerator malformedFraction(double malformedFraction) {
+        this.malformedFraction = fraction(malformedFraction);
+        return this;
+    }
+
+    /**
+     * Specifies fraction of lines dated according to their position in the file, 1 makes the file sorted by date
+     * unless there are weekend or future dates.
+     */
+    public PriceFileGenerator sortedness(double sortedness) {
+        this.sortedness = fraction(sortedness);
+        return this;
+    }
+
+    public PriceFileGenerator threads(int threads) {
+        if (threads <= 0) throw new IllegalArgumentException("Invalid amount of threads " + threads + "!");
+        this.threads = threads;
+        return this;
+    }
+
+    private static double fraction(double fraction) {
+        if (fraction < 0 || fraction > 1) throw new IllegalArgumentException("Invalid fraction " + fraction + "!");
+        return fraction;
+    }
+
+    /**
+     * Generates a file.
+     * @param file specifies file to be written
+     * @param size specifies size of the file, the last line may make the file slightly bigger
+     * @return amount of written lines
+     * @throws IOException if the file could not be written
+     */
+    public long generate(Path file, long size) throws IOException {
+        Tables tables = new Tables();
+        ExecutorService executor = Executors.newFixedThreadPool(threads, r -> {
+            Thread thread = new Thread(r, "generator-" + file.getFileName());
+            thread.setDaemon(true);
+            return thread;
+        });
+        try (FileChannel channel = FileChannel.open(file, CREATE, WRITE, TRUNCATE_EXISTING)) {
+            long blocks = (size + BLOCK_SIZE - 1) / BLOCK_SIZE;
+            Deque<Future<Block>> generated = new ArrayDeque<>();
+            long lines = 0;
+            for (long next = 0; next < blocks || !generated.isEmpty(); ) {
+                while (next < blocks && generated.size() < 2 * threads) {
+                    long index = next++;
+                    generated.add(executor.submit(() -> generate(index, size, tables)));
+                }
+                Block block = generated.poll().get();
+                ByteBuffer buffer = ByteBuffer.wrap(block.bytes, 0, block.length);
+                while (buffer.hasRemaining())
+                    channel.write(buffer);
+                lines += block.lines;
+            }
+            return lines;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Generating " + file + " has been interrupted!");
+        } catch (ExecutionException e) {
+            throw new IOException("Could not generate " + file + "!", e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private Block generate(long index, long size, Tables tables) {
+        long start = index * BLOCK_SIZE;
+        int budget = (int) Math.min(BLOCK_SIZE, size - start);
+        SplittableRandom random = new SplittableRandom(seed * 0x9E3779B97F4A7C15L + index);
+        Block block = new Block(budget + MAX_LINE_LENGTH);
+        while (block.length < budget) {
+            line(random, tables, (double) (start + block.length) / size, block);
+            block.lines++;
+        }
+        return block;
+    }
+
+    private void line(SplittableRandom random, Tables tables, double position, Block block) {
+        byte[] name = tables.names[tables.instrument(random)];
+        double kind = random.nextDouble();
+        if (kind < malformedFraction) {
+            malformed(random, tables, name, block);
+            return;
+        }
+        block.put(name).put(tables.dates, tables.date(date(random, position, kind - malformedFraction)), DATE_LENGTH)
+                .put((byte) ',');
+        price(random, block);
+        block.put((byte) '\n');
+    }
+
+    /**
+     * Chooses an epoch day, the kind is uniformly distributed between 0 and the fraction of well-formed lines.
+     */
+    private int date(SplittableRandom random, double position, double kind) {
+        int first = (int) from.toEpochDay(), last = (int) to.toEpochDay();
+        if (kind < futureFraction) return last + 1 + random.nextInt(FUTURE_DAYS);
+        int day = random.nextDouble() < sortedness ? first + (int) (position * (last - first + 1)) :
+                first + random.nextInt(last - first + 1);
+        int dayOfWeek = Math.floorMod(day + 3, 7);
+        if (kind < futureFraction + weekendFraction) {
+            return dayOfWeek < DayOfWeek.SATURDAY.ordinal() ? day - dayOfWeek - 1 : day;
+        } else {
+            return dayOfWeek < DayOfWeek.SATURDAY.ordinal() ? day : day - (dayOfWeek - DayOfWeek.FRIDAY.ordinal());
+        }
+    }
+
+    private static void price(SplittableRandom random, Block block) {
+        block.digits(random.nextInt(10_000), 1);
+        int scale = random.nextInt(10);
+        if (scale > 0) block.put((byte) '.').digits(random.nextInt((int) PriceBatch.POWERS_OF_TEN[scale]), scale);
+    }
+
+    private void malformed(SplittableRandom random, Tables tables, byte[] name, Block block) {
+        int day = tables.date((int) to.toEpochDay());
+        switch (random.nextInt(4)) {
+            case 0:
+                block.put(name, 0, name.length - 1);
+                break;
+            case 1:
+                block.put(name).put("kjhda,".getBytes(StandardCharsets.US_ASCII));
+                price(random, block);
+                break;
+            case 2:
+                block.put(name).put(tables.dates, day, DATE_LENGTH).put(",lsakdj".getBytes(StandardCharsets.US_ASCII));
+                break;
+            default:
+                block.put(name).put(tables.dates, day, DATE_LENGTH);
+        }
+        block.put((byte) '\n');
+    }
+
+    /**
+     * Keeps encoded names, dates and popularity of instruments shared by generating threads.
+     */
+    private class Tables {
+        final byte[][] names = new byte[instruments][];
+        final double[] popularity;
+        final int firstDay = (int) from.toEpochDay() - 7;
+        final byte[] dates;
+
+        Tables() {
+            for (int i = 0; i < instruments; i++)
+                names[i] = ("INSTRUMENT" + (i + 1) + ',').getBytes(StandardCharsets.US_ASCII);
+
+            popularity = skew == 0 ? null : new double[instruments];
+            if (popularity != null) {
+                double total = 0;
+                for (int i = 0; i < instruments; i++)
+                    popularity[i] = total += Math.pow(i + 1, -skew);
+                for (int i = 0; i < instruments; i++)
+                    popularity[i] /= total;
+            }
+
+            int days = (int) to.toEpochDay() + FUTURE_DAYS + 1 - firstDay;
+            dates = new byte[days * (DATE_LENGTH + 1)];
+            for (int day = 0; day < days; day++) {
+                byte[] date = LocalDate.ofEpochDay(firstDay + day).format(InstrumentPriceUtilities.DATE_FORMATTER)
+                        .getBytes(StandardCharsets.US_ASCII);
+                System.arraycopy(date, 0, dates, day * (DATE_LENGTH + 1), DATE_LENGTH);
+                dates[day * (DATE_LENGTH + 1) + DATE_LENGTH] = ',';
+            }
+        }
+
+        int instrument(SplittableRandom random) {
+            if (popularity == null) return random.nextInt(instruments);
+            int found = Arrays.binarySearch(popularity, random.nextDouble());
+            return Math.min(found >= 0 ? found : -found - 1, instruments - 1);
+        }
+
+        /**
+         * Provides offset of the date followed by a comma in the table of dates.
+         */
+        int date(int epochDay) {
+            return (epochDay - firstDay) * (DATE_LENGTH + 1);
+        }
+    }
+
+    private static class Block {
+        final byte[] bytes;
+        int length;
+        long lines;
+
+        Block(int capacity) {
+            bytes = new byte[capacity];
+        }
+
+        Block put(byte b) {
+            bytes[length++] = b;
+            return this;
+        }
+
+        Block put(byte[] source) {
+            return put(source, 0, source.length);
+        }
+
+        Block put(byte[] source, int offset, int count) {
+            System.arraycopy(source, offset, bytes, length, count);
+            length += count;
+            return this;
+        }
+
+        Block digits(int value, int minDigits) {
+            int digits = 1;
+            for (int rest = value / 10; rest > 0; rest /= 10)
+                digits++;
+            digits = Math.max(digits, minDigits);
+            for (int i = length + digits - 1; i >= length; i--, value /= 10)
+                bytes[i] = (byte) ('0' + value % 10);
+            length += digits;
+            return this;
+        }
+    }
+
+    /**
+     * Generates a file, arguments are the file name, its size optionally followed by k, m or g and settings in form
+     * name=value: seed, instruments, skew, from, to, weekend, future, malformed, sortedness and threads.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.out.println("Usage: PriceFileGenerator <file> <size>[k|m|g] [name=value]...");
+            return;
+        }
+        PriceFileGenerator generator = new PriceFileGenerator();
+        LocalDate from = generator.from, to = generator.to;
+        for (int i = 2; i < args.length; i++) {
+            String[] setting = args[i].split("=", 2);
+            if (setting.length != 2) throw new IllegalArgumentException("Invalid setting " + args[i] + "!");
+            String value = setting[1];
+            switch (setting[0]) {
+                case "seed": generator.seed(Long.parseLong(value)); break;
+                case "instruments": generator.instruments(Integer.parseInt(value)); break;
+                case "skew": generator.skew(Double.parseDouble(value)); break;
+                case "from": from = LocalDate.parse(value); break;
+                case "to": to = LocalDate.parse(value); break;
+                case "weekend": generator.weekendFraction(Double.parseDouble(value)); break;
+                case "future": generator.futureFraction(Double.parseDouble(value)); break;
+                case "malformed": generator.malformedFraction(Double.parseDouble(value)); break;
+                case "sortedness": generator.sortedness(Double.parseDouble(value)); break;
+                case "threads": generator.threads(Integer.parseInt(value)); break;
+                default: throw new IllegalArgumentException("Unknown setting " + setting[0] + "!");
+            }
+        }
+        generator.dates(from, to);
+        long started = System.nanoTime();
+        long lines = generator.generate(Paths.get(args[0]), size(args[1]));
+        System.out.println(String.format("Generated %s lines in %s ms", lines, (System.nanoTime() - started) / 1_000_000));
+    }
+
+    /**
+     * Parses a size optionally followed by k, m or g.
+     */
+    public static long size(String size) {
+        String lower = size.toLowerCase();
+        int shift = lower.endsWith("k") ? 10 : lower.endsWith("m") ? 20 : lower.endsWith("g") ? 30 : 0;
+        return Long.parseLong(shift == 0 ? lower : lower.substring(0, lower.length() - 1)) << shift;
+    }
+}
@@ -0,0 +1,15 @@
+package com.luxoft.aggregator;
+
+import rx.observables.ConnectableObservable;
+
+/**
+ * Provides parsed instrument prices in batches.
+ * @author Dmitry Dobrynin
+ */
+public interface PriceSource {
+    /**
+     * Provides a stream of batches, lines which could not be parsed are rejected to the shared {@link ParseErrors}.
+     * @return a stream of batches to be connected to
+     */
+    ConnectableObservable<PriceBatch> batches();
+}
@@ -0,0 +1,199 @@
+package com.luxoft.aggregator;
+
+import rx.Observable;
+import rx.Subscriber;
+
+import java.util.function.Supplier;
+import java.util.function.UnaryOperator;
+
+/**
+ * Aggregates prices on several worker threads. Prices are partitioned by instrument onto shards, every shard owns an
+ * accumulator and is fed with batches through a single producer single consumer ring, so no locks are involved.
+ * Accumulators of shards are merged when the stream is completed.
+ * @param <A> type of accumulator
+ * @author Dmitry Dobrynin
+ */
+public class ShardedEngine<A extends PriceAccumulator<A>> {
+    public static final int DEFAULT_RING_CAPACITY = 64;
+
+    private final int shards;
+    private final Supplier<A> accumulators;
+    private final int ringCapacity;
+    private volatile Shard<A>[] running;
+
+    public ShardedEngine(int shards, Supplier<A> accumulators) {
+        this(shards, accumulators, DEFAULT_RING_CAPACITY);
+    }
+
+    public ShardedEngine(int shards, Supplier<A> accumulators, int ringCapacity) {
+        if (shards <= 0) throw new IllegalArgumentException("Invalid amount of shards " + shards + "!");
+        this.shards = shards;
+        this.accumulators = accumulators;
+        this.ringCapacity = ringCapacity;
+    }
+
+    /**
+     * Aggregates batches on shards, the batches are subscribed to when the result is subscribed to.
+     * @param batches specifies batches to be aggregated
+     * @return a stream of the single merged accumulator
+     */
+    public Observable<A> aggregate(Observable<PriceBatch> batches) {
+        return Observable.create(subscriber -> {
+            @SuppressWarnings("unchecked")
+            Shard<A>[] workers = new Shard[shards];
+            for (int i = 0; i < shards; i++)
+                workers[i] = new Shard<>(accumulators.get(), ringCapacity, "shard-" + i);
+            running = workers;
+
+            batches.subscribe(new Subscriber<PriceBatch>() {
+                public void onCompleted() {
+                    try {
+                        A result = workers[0].finish();
+                        for (int i = 1; i < workers.length; i++)
+                            result.merge(workers[i].finish());
+                        subscriber.onNext(result);
+                        subscriber.onCompleted();
+                    } catch (Throwable e) {
+                        subscriber.onError(e);
+                    }
+                }
+
+                public void onError(Throwable e) {
+                    for (Shard<A> worker : workers)
+                        worker.cancel();
+                    subscriber.onError(e);
+                }
+
+                public void onNext(PriceBatch batch) {
+                    for (int row = 0; row < batch.size; row++)
+                        workers[batch.instrumentId[row] % workers.length].add(batch, row);
+                }
+            });
+        });
+    }
+
+    /**
+     * Takes a snapshot of accumulators of running shards, it has to be called on the thread emitting batches between
+     * them. Partially filled batches are published and every shard is waited for to accumulate all published batches,
+     * then its accumulator is copied, so shards keep on running while the copies are used.
+     * @param copy specifies the way an accumulator is copied
+     * @return merged copies of accumulators of all shards or an empty accumulator if nothing is being aggregated
+     */
+    public A snapshot(UnaryOperator<A> copy) {
+        Shard<A>[] workers = running;
+        if (workers == null) return accumulators.get();
+        A result = workers[0].snapshot(copy);
+        for (int i = 1; i < workers.length; i++)
+            result.merge(workers[i].snapshot(copy));
+        return result;
+    }
+
+    /**
+     * Accumulates prices of a partition on a dedicated thread. Filled batches go to the worker through one ring and
+     * come back empty through another one.
+     */
+    private static class Shard<A extends PriceAccumulator<A>> implements Runnable {
+        private final A accumulator;
+        private final SpscRing<PriceBatch> filled;
+        private final SpscRing<PriceBatch> emptied;
+        private final Thread thread;
+        private final String queue;
+        private PriceBatch current;
+        private int allocated;
+        private long published;
+        private volatile long consumed;
+        private volatile boolean completed;
+        private volatile Throwable failure;
+
+        Shard(A accumulator, int ringCapacity, String name) {
+            this.accumulator = accumulator;
+            filled = new SpscRing<>(ringCapacity);
+            emptied = new SpscRing<>(filled.capacity() + 2);
+            thread = new Thread(this, name);
+            thread.setDaemon(true);
+            queue = PipelineMetrics.shared().registerQueue(name, filled::size);
+            thread.start();
+        }
+
+        void add(PriceBatch batch, int row) {
+            if (current == null) current = acquire();
+            current.add(batch, row);
+            if (current.isFull()) publish();
+        }
+
+        private PriceBatch acquire() {
+            PriceBatch batch = emptied.poll();
+            if (batch == null && allocated < emptied.capacity()) {
+                allocated++;
+                return new PriceBatch(PriceBatch.DEFAULT_CAPACITY);
+            }
+            for (int attempt = 0; batch == null; attempt++) {
+                checkFailure();
+                SpscRing.idle(attempt);
+                batch = emptied.poll();
+            }
+            return batch;
+        }
+
+        private void publish() {
+            for (int attempt = 0; !filled.offer(current); attempt++) {
+                checkFailure();
+                SpscRing.idle(attempt);
+            }
+            current = null;
+            published++;
+        }
+
+        private void checkFailure() {
+            if (failure != null) throw new IllegalStateException("Shard " + thread.getName() + " failed!", failure);
+        }
+
+        A snapshot(UnaryOperator<A> copy) {
+            if (current != null && current.size > 0) publish();
+            for (int attempt = 0; consumed != published; attempt++) {
+                checkFailure();
+                SpscRing.idle(attempt);
+            }
+            return copy.apply(accumulator);
+        }
+
+        A finish() throws InterruptedException {
+            if (current != null && current.size > 0) publish();
+            completed = true;
+            thread.join();
+            checkFailure();
+            return accumulator;
+        }
+
+        void cancel() {
+            completed = true;
+            thread.interrupt();
+        }
+
+        public void run() {
+            PipelineMetrics metrics = PipelineMetrics.shared();
+            try {
+                for (int attempt = 0; !Thread.currentThread().isInterrupted(); ) {
+                    PriceBatch batch = filled.poll();
+                    if (batch != null) {
+                        long started = PipelineMetrics.started();
+                        accumulator.accept(batch);
+                        metrics.record(PipelineMetrics.Stage.CALCULATE, started);
+                        batch.clear();
+                        emptied.offer(batch);
+                        consumed++;
+                        attempt = 0;
+                    } else if (completed && filled.size() == 0) {
+                        return;
+                    } else {
+                        SpscRing.idle(attempt++);
+                    }
+                }
+            } catch (Throwable e) {
+                failure = e;
+            } finally {
+                metrics.unregisterQueue(queue);
+            }
+        }
+    }
+}
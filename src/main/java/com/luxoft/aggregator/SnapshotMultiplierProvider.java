@@ -0,0 +1,127 @@
+package com.luxoft.aggregator;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import javax.sql.DataSource;
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static java.lang.String.format;
+
+/**
+ * Provides multipliers from a snapshot of the whole table loaded by a single query. The snapshot is an array indexed
+ * by instrument identifier, it is updated on a background thread and published by a volatile write, so looking a
+ * multiplier up never waits for the database. When the database has the change log only changed multipliers are
+ * reloaded as soon as they are polled, otherwise the whole snapshot is reloaded periodically.
+ * @author Dmitry Dobrynin
+ */
+public class SnapshotMultiplierProvider extends MultiplierProvider implements AutoCloseable {
+    public static final long DEFAULT_REFRESH_PERIOD = TimeUnit.SECONDS.toMillis(5);
+    public static final long DEFAULT_POLL_PERIOD = 20;
+
+    private final ModifierChangeLog changeLog;
+    private final ScheduledExecutorService refresher;
+    private volatile Optional<BigDecimal>[] snapshot;
+
+    public SnapshotMultiplierProvider(DataSource dataSource) {
+        this(dataSource, ModifierChangeLog.exists(dataSource) ? DEFAULT_POLL_PERIOD : DEFAULT_REFRESH_PERIOD,
+                TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Loads the snapshot and starts updating it.
+     * @param dataSource specifies database containing multipliers
+     * @param period specifies period of polling the change log or reloading the snapshot if there is no change log
+     * @param unit specifies unit of the period
+     */
+    public SnapshotMultiplierProvider(DataSource dataSource, long period, TimeUnit unit) {
+        super(dataSource);
+        changeLog = ModifierChangeLog.exists(dataSource) ? new ModifierChangeLog(dataSource) : null;
+        snapshot = load();
+        refresher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "multiplier-refresher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        refresher.scheduleWithFixedDelay(this::updateQuietly, period, period, unit);
+    }
+
+    @SuppressWarnings("unchecked")
+    private Optional<BigDecimal>[] load() {
+        long started = PipelineMetrics.started();
+        List<Tuple<Integer, BigDecimal>> rows = new JdbcTemplate(dataSource).query(
+                "select name, multiplier from INSTRUMENT_PRICE_MODIFIER",
+                (resultSet, i) -> Tuple.t(dictionary.idOf(resultSet.getString("name")), resultSet.getBigDecimal("multiplier"))
+        );
+        Optional<BigDecimal>[] multipliers = new Optional[dictionary.size()];
+        Arrays.fill(multipliers, Optional.empty());
+        for (Tuple<Integer, BigDecimal> row : rows)
+            multipliers[row._1] = Optional.of(row._2);
+        PipelineMetrics metrics = PipelineMetrics.shared();
+        metrics.record(PipelineMetrics.Stage.MULTIPLIER_LOAD, started);
+        metrics.increment(PipelineMetrics.Counter.MULTIPLIER_LOADS);
+        return multipliers;
+    }
+
+    /**
+     * Searches for the multiplier of the instrument in the current snapshot.
+     * @param instrumentId identifier of the instrument assigned by the shared {@link InstrumentDictionary}
+     * @return multiplier if it exists
+     */
+    public Optional<BigDecimal> multiplierFor(int instrumentId) {
+        Optional<BigDecimal>[] multipliers = snapshot;
+        Optional<BigDecimal> multiplier =
+                instrumentId < multipliers.length ? multipliers[instrumentId] : Optional.empty();
+        if (multiplier.isPresent()) PipelineMetrics.shared().increment(PipelineMetrics.Counter.MULTIPLIER_HITS);
+        return multiplier;
+    }
+
+    /**
+     * Reloads the snapshot on the calling thread.
+     */
+    public synchronized void refresh() {
+        snapshot = load();
+    }
+
+    private void updateQuietly() {
+        try {
+            if (changeLog != null) changeLog.invalidate(this);
+            else refresh();
+        } catch (Exception e) {
+            System.err.println(format("Failed to update multipliers because of %s!", e));
+        }
+    }
+
+    /**
+     * Reloads the multiplier of the instrument since it has been changed.
+     * @param instrument instrument which multiplier has been changed
+     */
+    public synchronized void invalidateCachedInstrument(String instrument) {
+        int instrumentId = dictionary.idOf(instrument);
+        Optional<BigDecimal>[] multipliers = snapshot;
+        multipliers = Arrays.copyOf(multipliers, Math.max(instrumentId + 1, multipliers.length));
+        for (int i = snapshot.length; i < multipliers.length; i++)
+            multipliers[i] = Optional.empty();
+        multipliers[instrumentId] = load(instrument);
+        snapshot = multipliers;
+    }
+
+    /**
+     * Reloads the snapshot since multipliers have been updated.
+     */
+    public void invalidateCache() {
+        refresh();
+    }
+
+    /**
+     * Stops updating the snapshot.
+     */
+    public void close() {
+        refresher.shutdownNow();
+    }
+}
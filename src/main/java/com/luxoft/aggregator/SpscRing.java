@@ -0,0 +1,87 @@
+package com.luxoft.aggregator;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Bounded lock-free queue for exactly one producer thread and one consumer thread.
+ * @param <T> type of elements
+ * @author Dmitry Dobrynin
+ */
+public class SpscRing<T> {
+    private final Object[] elements;
+    private final int mask;
+    private final Sequence head = new Sequence();
+    private final Sequence tail = new Sequence();
+    private long cachedHead;
+    private long cachedTail;
+
+    public SpscRing(int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        elements = new Object[size];
+        mask = size - 1;
+    }
+
+    public int capacity() {
+        return elements.length;
+    }
+
+    /**
+     * Appends an element, must be called by the producer only.
+     * @param element specifies element
+     * @return false if the ring is full
+     */
+    public boolean offer(T element) {
+        long position = tail.get();
+        if (position - cachedHead >= elements.length) {
+            cachedHead = head.get();
+            if (position - cachedHead >= elements.length) return false;
+        }
+        elements[(int) position & mask] = element;
+        tail.lazySet(position + 1);
+        return true;
+    }
+
+    /**
+     * Takes the eldest element, must be called by the consumer only.
+     * @return an element or null if the ring is empty
+     */
+    @SuppressWarnings("unchecked")
+    public T poll() {
+        long position = head.get();
+        if (position >= cachedTail) {
+            cachedTail = tail.get();
+            if (position >= cachedTail) return null;
+        }
+        int index = (int) position & mask;
+        T element = (T) elements[index];
+        elements[index] = null;
+        head.lazySet(position + 1);
+        return element;
+    }
+
+    /**
+     * Provides approximate amount of elements, can be called by any thread.
+     * @return amount of elements
+     */
+    public int size() {
+        return (int) Math.max(0, tail.get() - head.get());
+    }
+
+    /**
+     * Waits a bit after an unsuccessful attempt to offer or poll, spinning first and parking later.
+     * @param attempt specifies amount of unsuccessful attempts so far
+     */
+    public static void idle(int attempt) {
+        if (attempt > 200) LockSupport.parkNanos(50_000);
+        else if (attempt > 100) Thread.yield();
+    }
+
+    /**
+     * Keeps a sequence apart from other data to avoid false sharing between producer and consumer.
+     */
+    @SuppressWarnings("unused")
+    private static class Sequence extends AtomicLong {
+        long p1, p2, p3, p4, p5, p6, p7;
+    }
+}
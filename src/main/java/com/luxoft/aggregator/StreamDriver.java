@@ -3,11 +3,15 @@ package com.luxoft.aggregator;
 import rx.Observable;
 
 import java.io.*;
-import java.time.*;
-import java.util.*;
-import java.math.BigDecimal;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.function.LongConsumer;
+import java.util.function.Supplier;
+
 import static com.luxoft.aggregator.InstrumentPriceUtilities.*;
-import static java.lang.String.format;
 import static java.lang.System.out;
 
 /**
@@ -15,64 +19,221 @@ import static java.lang.System.out;
  * @author Dmitry Dobrynin
  */
 public class StreamDriver {
+    public static final long DEFAULT_CADENCE = 1000;
+
     Aggregator agg;
+    int shards;
+    Checkpointer<CalculationPlan> checkpointer;
+    FileFollower follower;
+    long cadence;
+    WritableByteChannel multiplied;
+    PrintStream results = out;
 
     public StreamDriver(Aggregator agg) {
+        this(agg, Integer.getInteger("aggregator.shards", 0));
+    }
+
+    /**
+     * Creates a driver.
+     * @param agg specifies aggregator
+     * @param shards specifies amount of shards calculating on their own threads, 0 calculates on the reading thread
+     */
+    public StreamDriver(Aggregator agg, int shards) {
+        this(agg, shards, null);
+    }
+
+    /**
+     * Creates a driver resuming calculations from a checkpoint.
+     * @param agg specifies aggregator
+     * @param shards specifies amount of shards calculating on their own threads, 0 calculates on the reading thread
+     * @param checkpointer specifies checkpointer of the source of the aggregator or null
+     */
+    public StreamDriver(Aggregator agg, int shards, Checkpointer<CalculationPlan> checkpointer) {
         this.agg = agg;
+        this.shards = shards;
+        this.checkpointer = checkpointer;
+    }
+
+    /**
+     * Makes the driver print results updated by appended prices every cadence until the follower is stopped.
+     * @param follower specifies follower being the source of the aggregator
+     * @param cadence specifies milliseconds between printed results at least
+     * @return this driver
+     */
+    public StreamDriver follow(FileFollower follower, long cadence) {
+        this.follower = follower;
+        this.cadence = cadence;
+        return this;
     }
 
+    /**
+     * Makes the driver write multiplied prices and results elsewhere than to multiplied.txt and the standard output.
+     * @param multiplied specifies channel of multiplied prices closed when the stream completes
+     * @param results specifies stream of results and rejected lines
+     * @return this driver
+     */
+    public StreamDriver output(WritableByteChannel multiplied, PrintStream results) {
+        this.multiplied = multiplied;
+        this.results = results;
+        return this;
+    }
+
+    /**
+     * Consumes the stream of the aggregator, the multiplier provider refreshing its snapshot is closed afterwards.
+     */
     public void run() throws IOException {
-        MultiplierProvider multiplierProvider = new MultiplierProvider(createDataSource());
+        try (SnapshotMultiplierProvider multiplierProvider = new SnapshotMultiplierProvider(createDataSource())) {
+            run(multiplierProvider);
+        }
+    }
 
-        agg.failedToParse().forEach(StreamDriver::printError);
+    private void run(MultiplierProvider multiplierProvider) throws IOException {
+        ParseErrors errors = ParseErrors.shared();
+        errors.reset();
+        CalculationRules rules = CalculationRules.configured();
+        CalculationPlan restored = checkpointer != null ? checkpointer.restore(rules::compile) : rules.compile();
 
-        Observable<InstrumentPrice> validPrices = agg.attach(StreamDriver::checkNonFutureAndBusinessDay);
+        BusinessCalendar calendar = BusinessCalendar.configured();
+        Observable<InstrumentPrice> validPrices = agg.attach(prices -> checkNonFutureAndBusinessDay(prices, calendar));
+        Observable<PriceBatch> validBatches =
+                agg.attachBatches(batches -> checkNonFutureAndBusinessDayBatches(batches, calendar));
 
         enrichPrice(validPrices, multiplierProvider)
-                .subscribe(new Flusher(new FileOutputStream("multiplied.txt")));
-
-        Observable.combineLatest(meanOfInstr1(validPrices), meanOfInstr2(validPrices), maxOfInstr3(validPrices),
-                sumOfMostNewInstrumentPrices(validPrices), Arrays::asList)
-                .forEach(out::println);
+                .subscribe(new AsyncFlusher(multiplied != null ? multiplied : multipliedFile()));
+
+        Observable<CalculationPlan> calculated;
+        Supplier<CalculationPlan> snapshots;
+        if (shards > 0) {
+            ShardedEngine<CalculationPlan> engine = new ShardedEngine<>(shards, rules::compile);
+            calculated = engine.aggregate(validBatches).map(plan -> {
+                plan.merge(restored);
+                return plan;
+            });
+            snapshots = () -> {
+                CalculationPlan snapshot = restored.copy();
+                snapshot.merge(engine.snapshot(CalculationPlan::copy));
+                return snapshot;
+            };
+        } else {
+            calculated = PriceBatches.accumulate(validBatches, () -> restored);
+            snapshots = restored::copy;
+        }
+        calculated.map(CalculationPlan::results).forEach(results::println);
+
+        if (checkpointer != null) checkpointer.track(snapshots);
+        if (follower != null) follower.onCaughtUp(new PeriodicResults(snapshots, cadence, results));
+        PipelineMetrics metrics = PipelineMetrics.shared();
+        metrics.register();
+        String rejects = System.getProperty("aggregator.rejects");
+        if (rejects != null) errors.rejectTo(Paths.get(rejects));
+        try (ParseErrors closed = errors; PipelineMetrics.Reporter ignored = metrics.report(
+                Long.getLong("aggregator.metrics.period", PipelineMetrics.DEFAULT_PERIOD), System.err::println)) {
+            agg.consumeStream();
+        }
+        printErrors(errors, results);
+        if (checkpointer != null) checkpointer.completed();
+    }
 
-        agg.consumeStream();
+    /**
+     * Opens multiplied.txt, a run resumed from a checkpoint appends to it instead of replacing prices written before.
+     */
+    private WritableByteChannel multipliedFile() throws IOException {
+        boolean resumed = checkpointer != null && checkpointer.offset() > 0;
+        return FileChannel.open(Paths.get("multiplied.txt"), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                resumed ? StandardOpenOption.APPEND : StandardOpenOption.TRUNCATE_EXISTING);
     }
 
+    /**
+     * Runs the task over the file, directory or glob specified by system property aggregator.input, a run resumes
+     * from a checkpoint file specified by system property aggregator.checkpoint or follows the input being appended
+     * to if system property aggregator.follow is true or reads the columnar cache of the input converting it when
+     * stale if system property aggregator.columnar is true. Rejected lines are written to the file specified by
+     * system property aggregator.rejects.
+     */
     public static void main(String[] args) throws IOException {
-        new StreamDriver(new Aggregator("src/main/resources/example_input.txt")).run();
+        String input = System.getProperty("aggregator.input", "src/main/resources/example_input.txt");
+        String checkpoint = System.getProperty("aggregator.checkpoint");
+        if (Boolean.getBoolean("aggregator.follow")) {
+            FileFollower follower = new FileFollower(singleFile(input, "aggregator.follow"));
+            new StreamDriver(new Aggregator(follower))
+                    .follow(follower, Long.getLong("aggregator.follow.cadence", DEFAULT_CADENCE)).run();
+        } else if (Boolean.getBoolean("aggregator.columnar")) {
+            Path file = singleFile(input, "aggregator.columnar"), cache = ColumnarCache.cacheOf(file);
+            if (!ColumnarCache.isFresh(file, cache)) ColumnarCache.write(file, cache);
+            new StreamDriver(new Aggregator(new ColumnarSource(cache))).run();
+        } else if (checkpoint == null) {
+            new StreamDriver(new Aggregator(input)).run();
+        } else {
+            MappedFileSource source = new MappedFileSource(singleFile(input, "aggregator.checkpoint"));
+            try (Checkpointer<CalculationPlan> checkpointer = new Checkpointer<>(Paths.get(checkpoint), source)) {
+                new StreamDriver(new Aggregator(source), Integer.getInteger("aggregator.shards", 0), checkpointer)
+                        .run();
+            }
+        }
+    }
+
+    /**
+     * Checks that the input is a single file, since following, caching and checkpointing keep an offset in one file.
+     */
+    static Path singleFile(String input, String property) {
+        if (MultiFileSource.isMultiple(input))
+            throw new IllegalArgumentException("Input " + input + " should be a single file with " + property + "!");
+        return Paths.get(input);
     }
 
     public static Observable<InstrumentPrice> checkNonFutureAndBusinessDay(Observable<InstrumentPrice> prices) {
-        LocalDate currentDate = LocalDate.of(2014, Month.DECEMBER, 19);
-        return prices.filter(date(d -> !d.isAfter(currentDate) && d.getDayOfWeek().ordinal() < 5));
+        return checkNonFutureAndBusinessDay(prices, BusinessCalendar.configured());
+    }
+
+    public static Observable<InstrumentPrice> checkNonFutureAndBusinessDay(Observable<InstrumentPrice> prices,
+                                                                          BusinessCalendar calendar) {
+        return prices.filter(date(calendar::test));
     }
 
-    public static void printError(Tuple<String, Exception> error) {
-        out.println(format("Failed to parse %s because of %s!", error._1, error._2));
+    public static Observable<PriceBatch> checkNonFutureAndBusinessDayBatches(Observable<PriceBatch> batches) {
+        return checkNonFutureAndBusinessDayBatches(batches, BusinessCalendar.configured());
     }
 
-    public static Observable<Optional<BigDecimal>> meanOfInstr1(Observable<InstrumentPrice> prices) {
-        return mean(prices.filter(instrument(anyOf("INSTRUMENT1"))))
-                .map(Optional::of).defaultIfEmpty(Optional.empty());
+    public static Observable<PriceBatch> checkNonFutureAndBusinessDayBatches(Observable<PriceBatch> batches,
+                                                                             BusinessCalendar calendar) {
+        return batches.lift(PriceBatches.filter(PriceBatches.businessDay(calendar, ParseErrors.shared())));
     }
 
-    public static Observable<Optional<BigDecimal>> meanOfInstr2(Observable<InstrumentPrice> prices) {
-        return mean(prices
-                .filter(instrument(anyOf("INSTRUMENT2")))
-                .filter(date(d -> d.getMonth() == Month.NOVEMBER && d.getYear() == 2014))
-        ).map(Optional::of).defaultIfEmpty(Optional.empty());
+    /**
+     * Prints counts of rejected lines along with their sample unless all lines have been accepted.
+     * @param errors specifies errors
+     */
+    public static void printErrors(ParseErrors errors) {
+        printErrors(errors, out);
     }
 
-    public static Observable<Optional<BigDecimal>> maxOfInstr3(Observable<InstrumentPrice> prices) {
-        return max(prices.filter(instrument(anyOf("INSTRUMENT3"))))
-                .map(Optional::of).defaultIfEmpty(Optional.empty());
+    static void printErrors(ParseErrors errors, PrintStream to) {
+        String summary = errors.summary();
+        if (!summary.isEmpty()) to.println(summary);
     }
 
-    public static Observable<Optional<BigDecimal>> sumOfMostNewInstrumentPrices(Observable<InstrumentPrice> prices) {
-        return mostRelevant(
-                prices.filter(instrument(noneOf("INSTRUMENT1", "INSTRUMENT2", "INSTRUMENT3"))), 10,
-                ((o1, o2) -> o1.getDate().compareTo(o2.getDate()))
-        ).map(InstrumentPrice::getPrice)
-                .reduce(BigDecimal::add).map(Optional::of).defaultIfEmpty(Optional.empty());
+    /**
+     * Prints results when prices have been appended and the cadence has passed since results were printed last time.
+     */
+    private static class PeriodicResults implements LongConsumer {
+        private final Supplier<CalculationPlan> snapshots;
+        private final long cadence;
+        private final PrintStream results;
+        private long printedOffset = -1;
+        private long printedAt;
+
+        PeriodicResults(Supplier<CalculationPlan> snapshots, long cadence, PrintStream results) {
+            this.snapshots = snapshots;
+            this.cadence = cadence;
+            this.results = results;
+        }
+
+        public void accept(long offset) {
+            long now = System.currentTimeMillis();
+            if (offset == printedOffset || now - printedAt < cadence) return;
+            results.println(snapshots.get().results());
+            printedOffset = offset;
+            printedAt = now;
+        }
     }
 }
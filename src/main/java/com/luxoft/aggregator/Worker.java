@@ -0,0 +1,62 @@
+package com.luxoft.aggregator;
+
+import rx.Observable;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Calculates rules of {@link StreamDriver} over a byte range of a file and writes the partial state of the plan, so
+ * that a {@link Coordinator} merges states of several workers.
+ * @author Dmitry Dobrynin
+ */
+public class Worker {
+    private final MappedFileSource source;
+    private final int shards;
+
+    /**
+     * Creates a worker.
+     * @param source specifies source limited to the range of the worker
+     * @param shards specifies amount of shards calculating on their own threads, 0 calculates on the reading thread
+     */
+    public Worker(MappedFileSource source, int shards) {
+        this.source = source;
+        this.shards = shards;
+    }
+
+    /**
+     * Calculates the range.
+     * @param rules specifies rules
+     * @return partial state of the range
+     */
+    public CalculationPlan calculate(CalculationRules rules) {
+        Aggregator agg = new Aggregator(source);
+        Observable<PriceBatch> validBatches = agg.attachBatches(StreamDriver::checkNonFutureAndBusinessDayBatches);
+        Observable<CalculationPlan> calculated = shards > 0 ?
+                new ShardedEngine<>(shards, rules::compile).aggregate(validBatches) :
+                PriceBatches.accumulate(validBatches, rules::compile);
+        CalculationPlan[] result = new CalculationPlan[1];
+        calculated.forEach(plan -> result[0] = plan);
+        agg.consumeStream();
+        StreamDriver.printErrors(ParseErrors.shared());
+        return result[0];
+    }
+
+    /**
+     * Runs a worker.
+     * @param args specifies input file, the start and the end offsets of the range just after line separators and
+     *             the file of the partial state
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 4) {
+            System.out.println("Usage: Worker <input> <from> <to> <partial state>");
+            return;
+        }
+        Path input = Paths.get(args[0]);
+        MappedFileSource source = new MappedFileSource(input).from(Long.parseLong(args[1])).to(Long.parseLong(args[2]));
+        CalculationPlan plan = new Worker(source, Integer.getInteger("aggregator.shards", 0))
+                .calculate(CalculationRules.configured());
+        PartialStates.write(Paths.get(args[3]), plan);
+    }
+}
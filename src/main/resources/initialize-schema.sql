@@ -1,10 +1,19 @@
-create table INSTRUMENT_PRICE_MODIFIER (
+create table if not exists INSTRUMENT_PRICE_MODIFIER (
   id bigint primary key auto_increment,
   name varchar2(256) not null unique,
   multiplier number(10,2) not null
 );
 
-insert into INSTRUMENT_PRICE_MODIFIER (name, multiplier) values ('INSTRUMENT1', 1.05);
-insert into INSTRUMENT_PRICE_MODIFIER (name, multiplier) values ('INSTRUMENT2', 1.10);
-insert into INSTRUMENT_PRICE_MODIFIER (name, multiplier) values ('INSTRUMENT3', 1.15);
-insert into INSTRUMENT_PRICE_MODIFIER (name, multiplier) values ('INSTRUMENT5', 2);
\ No newline at end of file
+merge into INSTRUMENT_PRICE_MODIFIER (name, multiplier) key (name) values ('INSTRUMENT1', 1.05);
+merge into INSTRUMENT_PRICE_MODIFIER (name, multiplier) key (name) values ('INSTRUMENT2', 1.10);
+merge into INSTRUMENT_PRICE_MODIFIER (name, multiplier) key (name) values ('INSTRUMENT3', 1.15);
+merge into INSTRUMENT_PRICE_MODIFIER (name, multiplier) key (name) values ('INSTRUMENT5', 2);
+
+create table if not exists INSTRUMENT_PRICE_MODIFIER_CHANGE (
+  version bigint primary key auto_increment,
+  name varchar2(256) not null,
+  changed timestamp default current_timestamp not null
+);
+
+create trigger if not exists INSTRUMENT_PRICE_MODIFIER_CHANGED after insert, update, delete on INSTRUMENT_PRICE_MODIFIER
+  for each row call "com.luxoft.aggregator.ModifierChangeTrigger";
@@ -0,0 +1,53 @@
+package com.luxoft.aggregator;
+
+import org.junit.Test;
+import rx.Observable;
+
+import java.io.ByteArrayOutputStream;
+import java.math.BigDecimal;
+import java.nio.channels.Channels;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Specification on asynchronous flusher.
+ * @author Dmitry Dobrynin
+ */
+public class AsyncFlusherTest {
+    @Test
+    public void writesTheSameLinesAsFlusher() {
+        Random random = new Random(7);
+        List<InstrumentPrice> prices = new ArrayList<>();
+        for (String price : new String[] {"0", "0.000", "1E+3", "-1.5", "0.0000001", "0.000001", "123.456000", "1E-10",
+                "12345678901234567890.5", "-0.01"})
+            prices.add(new InstrumentPrice("INSTRUMENT1", LocalDate.of(2014, 1, 2), new BigDecimal(price)));
+        prices.add(new InstrumentPrice("INSTRUMENT1", LocalDate.of(999, 12, 31), BigDecimal.ONE));
+        prices.add(new InstrumentPrice("INSTRUMENT1", LocalDate.of(10000, 1, 1), BigDecimal.ONE));
+        prices.add(new InstrumentPrice("INSTRUMENT1", LocalDate.MIN, new BigDecimal("-0.000001234567890123456789")));
+        prices.add(new InstrumentPrice("INSTRUMENT1", LocalDate.MAX, new BigDecimal("-123456789012345678")));
+        for (int i = 0; i < 20000; i++)
+            prices.add(new InstrumentPrice("INSTRUMENT\u00c4" + random.nextInt(50),
+                    LocalDate.of(1990, 1, 1).plusDays(random.nextInt(20000)),
+                    BigDecimal.valueOf(random.nextLong() >> random.nextInt(64), random.nextInt(20) - 2)));
+
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        Observable.from(prices).subscribe(new Flusher(expected));
+        ByteArrayOutputStream actual = new ByteArrayOutputStream();
+        Observable.from(prices).subscribe(new AsyncFlusher(Channels.newChannel(actual), 64, 2));
+
+        assertThat(new String(actual.toByteArray())).isEqualTo(new String(expected.toByteArray()));
+    }
+
+    @Test
+    public void writesBufferedLinesOnError() {
+        ByteArrayOutputStream actual = new ByteArrayOutputStream();
+        Observable.just(new InstrumentPrice("INSTRUMENT1", LocalDate.of(2014, 1, 2), BigDecimal.TEN))
+                .concatWith(Observable.error(new IllegalStateException()))
+                .subscribe(new AsyncFlusher(Channels.newChannel(actual)));
+        assertThat(new String(actual.toByteArray())).isEqualTo("INSTRUMENT1,02-Jan-2014,10\n");
+    }
+}
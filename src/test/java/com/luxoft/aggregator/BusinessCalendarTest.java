@@ -0,0 +1,61 @@
+package com.luxoft.aggregator;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.LocalDate;
+import java.util.Collections;
+
+import static java.time.Month.*;
+import static java.util.Arrays.asList;
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Specification on business calendar.
+ * @author Dmitry Dobrynin
+ */
+public class BusinessCalendarTest {
+    @Test
+    public void acceptsWeekdaysNotAfterAsOfDate() {
+        LocalDate asOf = LocalDate.of(2014, DECEMBER, 19);
+        BusinessCalendar calendar = new BusinessCalendar(asOf, Collections.emptyList());
+        LocalDate end = LocalDate.of(2016, JANUARY, 1);
+        for (LocalDate date = LocalDate.of(1960, JANUARY, 1); date.isBefore(end); date = date.plusDays(1))
+            assertThat(calendar.test(date)).isEqualTo(!date.isAfter(asOf) && date.getDayOfWeek().ordinal() < 5);
+    }
+
+    @Test
+    public void rejectsHolidaysLoadedFromFile() throws Exception {
+        File holidays = File.createTempFile("holidays", ".txt");
+        holidays.deleteOnExit();
+        Files.write(holidays.toPath(), asList("# Christmas", "2014-12-25", "", " 2015-01-01 "), StandardCharsets.UTF_8);
+
+        BusinessCalendar calendar = new BusinessCalendar(LocalDate.of(2015, JANUARY, 2),
+                BusinessCalendar.loadHolidays(holidays.toPath()));
+        assertThat(calendar.test(LocalDate.of(2014, DECEMBER, 24))).isTrue();
+        assertThat(calendar.test(LocalDate.of(2014, DECEMBER, 25))).isFalse();
+        assertThat(calendar.test(LocalDate.of(2015, JANUARY, 1))).isFalse();
+        assertThat(calendar.test(LocalDate.of(2015, JANUARY, 2))).isTrue();
+        assertThat(calendar.test(LocalDate.of(2015, JANUARY, 5))).isFalse();
+    }
+
+    @Test
+    public void rejectsHolidaysBeforeFirstSupportedDay() {
+        BusinessCalendar calendar = new BusinessCalendar(LocalDate.of(2014, DECEMBER, 19),
+                asList(LocalDate.of(1969, DECEMBER, 25), LocalDate.of(1965, JANUARY, 1)));
+        assertThat(calendar.test(LocalDate.of(1969, DECEMBER, 24))).isTrue();
+        assertThat(calendar.test(LocalDate.of(1969, DECEMBER, 25))).isFalse();
+        assertThat(calendar.test(LocalDate.of(1965, JANUARY, 1))).isFalse();
+        assertThat(calendar.test(LocalDate.of(1970, JANUARY, 1))).isTrue();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void failsOnInvalidHoliday() throws Exception {
+        File holidays = File.createTempFile("holidays", ".txt");
+        holidays.deleteOnExit();
+        Files.write(holidays.toPath(), asList("25-Dec-2014"), StandardCharsets.UTF_8);
+        BusinessCalendar.loadHolidays(holidays.toPath());
+    }
+}
@@ -0,0 +1,113 @@
+package com.luxoft.aggregator;
+
+import org.junit.Test;
+import rx.Observable;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.time.Month;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static java.util.Arrays.asList;
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Specification on calculation rules and their plans.
+ * @author Dmitry Dobrynin
+ */
+public class CalculationRulesTest {
+    LocalDate start = LocalDate.of(2013, Month.JANUARY, 1);
+    List<InstrumentPrice> prices = IntStream.range(0, 6000)
+            .mapToObj(i -> new InstrumentPrice("PLAN" + i % 5, start.plusDays(i * 7919 % 730),
+                    BigDecimal.valueOf(i * 31 % 1000 + 1, i % 3)))
+            .collect(Collectors.toList());
+    Observable<PriceBatch> batches = Observable.from(prices).lift(PriceBatch.collect(128));
+
+    Observable<PriceBatch> batches(PriceBatches.RowPredicate predicate) {
+        return batches.lift(PriceBatches.filter(predicate));
+    }
+
+    PriceBatches.RowPredicate instrument(String name) {
+        int instrumentId = InstrumentDictionary.shared().idOf(name);
+        return PriceBatches.instrument(id -> id == instrumentId);
+    }
+
+    @Test
+    public void parsesRules() {
+        List<CalculationRules.Rule> rules = CalculationRules.parse(asList("# comment", "",
+                "PLAN1: mean where month=2014-11", " default : sum newest 10 ",
+                "PLAN2: count where year=2014 and from=2014-03-01")).rules();
+
+        assertThat(rules).hasSize(3);
+        assertThat(rules.get(0).instrument).isEqualTo("PLAN1");
+        assertThat(rules.get(0).kind).isEqualTo(CalculationRules.Kind.MEAN);
+        assertThat(rules.get(0).firstDay).isEqualTo((int) LocalDate.of(2014, Month.NOVEMBER, 1).toEpochDay());
+        assertThat(rules.get(0).lastDay).isEqualTo((int) LocalDate.of(2014, Month.NOVEMBER, 30).toEpochDay());
+        assertThat(rules.get(1).isDefault()).isTrue();
+        assertThat(rules.get(1).kind).isEqualTo(CalculationRules.Kind.SUM_NEWEST);
+        assertThat(rules.get(1).newest).isEqualTo(10);
+        assertThat(rules.get(1).firstDay).isEqualTo(Integer.MIN_VALUE);
+        assertThat(rules.get(2).firstDay).isEqualTo((int) LocalDate.of(2014, Month.MARCH, 1).toEpochDay());
+        assertThat(rules.get(2).lastDay).isEqualTo((int) LocalDate.of(2014, Month.DECEMBER, 31).toEpochDay());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void failsOnUnknownCalculation() {
+        CalculationRules.parse(asList("PLAN1: median"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void failsOnUnknownCondition() {
+        CalculationRules.parse(asList("PLAN1: mean where week=2014-W01"));
+    }
+
+    @Test
+    public void planCalculatesAllRulesInSinglePass() {
+        CalculationRules rules = CalculationRules.parse(asList(
+                "PLAN0: mean",
+                "PLAN1: mean where month=2014-02",
+                "PLAN1: count where year=2013",
+                "PLAN2: max",
+                "PLAN2: sum newest 3",
+                "default: sum newest 3"));
+        int firstDay = (int) LocalDate.of(2014, Month.FEBRUARY, 1).toEpochDay();
+        int lastDay = (int) LocalDate.of(2014, Month.FEBRUARY, 28).toEpochDay();
+        int lastDayOf2013 = (int) LocalDate.of(2013, Month.DECEMBER, 31).toEpochDay();
+        int plan2 = InstrumentDictionary.shared().idOf("PLAN2");
+
+        List<?> results = PriceBatches.accumulate(batches, rules::compile).map(CalculationPlan::results)
+                .toBlocking().single();
+
+        assertThat(results).hasSize(6);
+        assertThat(results.get(0)).isEqualTo(Optional.of(PriceBatches.mean(batches(instrument("PLAN0")))
+                .toBlocking().single()));
+        assertThat(results.get(1)).isEqualTo(Optional.of(PriceBatches.mean(batches(instrument("PLAN1")
+                .and(PriceBatches.date(day -> day >= firstDay && day <= lastDay)))).toBlocking().single()));
+        assertThat(results.get(2)).isEqualTo(prices.stream().filter(price -> price.getName().equals("PLAN1") &&
+                price.getDate().toEpochDay() <= lastDayOf2013).count());
+        assertThat(results.get(3)).isEqualTo(Optional.of(PriceBatches.max(batches(instrument("PLAN2")))
+                .toBlocking().single()));
+        NewestPrices newest = new NewestPrices(3);
+        batches(instrument("PLAN2")).forEach(newest::accept);
+        assertThat(results.get(4)).isEqualTo(newest.sum(plan2));
+        int plan3 = InstrumentDictionary.shared().idOf("PLAN3"), plan4 = InstrumentDictionary.shared().idOf("PLAN4");
+        assertThat(results.get(5)).isEqualTo(PriceBatches.newestSums(
+                batches(PriceBatches.instrument(id -> id == plan3 || id == plan4)), 3).toList().toBlocking().single());
+    }
+
+    @Test
+    public void mergesPlansOfEqualRules() {
+        CalculationPlan plan = CalculationRules.parse(asList("PLAN0: max where year=2013")).compile();
+        plan.merge(CalculationRules.parse(asList("PLAN0: max  where year=2013")).compile());
+        assertThat(plan.results()).isEqualTo(asList(Optional.empty()));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void failsOnMergingPlansOfDifferentRules() {
+        CalculationRules.parse(asList("PLAN0: mean")).compile()
+                .merge(CalculationRules.parse(asList("PLAN0: sum")).compile());
+    }
+}
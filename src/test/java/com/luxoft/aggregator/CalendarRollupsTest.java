@@ -0,0 +1,114 @@
+package com.luxoft.aggregator;
+
+import org.junit.Test;
+import rx.Observable;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.time.Month;
+import java.time.Year;
+import java.time.YearMonth;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Specification on calendar rollups.
+ * @author Dmitry Dobrynin
+ */
+public class CalendarRollupsTest {
+    LocalDate start = LocalDate.of(2012, Month.MARCH, 15);
+    List<InstrumentPrice> prices = IntStream.range(0, 5000)
+            .mapToObj(i -> new InstrumentPrice("ROLLUP" + i % 3, start.plusDays((i * 7919 % 2000) - 1000),
+                    BigDecimal.valueOf(i * 31 % 1000 + 1, i % 4)))
+            .collect(Collectors.toList());
+
+    CalendarRollups rollup(List<InstrumentPrice> prices) {
+        CalendarRollups rollups = new CalendarRollups();
+        PriceBatch batch = new PriceBatch(prices.size());
+        prices.forEach(batch::add);
+        rollups.accept(batch);
+        return rollups;
+    }
+
+    @Test
+    public void convertsEpochDaysToEpochMonths() {
+        for (int day = -800_000; day < 800_000; day += 7)
+            assertThat(CalendarRollups.epochMonth(day))
+                    .isEqualTo(CalendarRollups.epochMonth(YearMonth.from(LocalDate.ofEpochDay(day))));
+    }
+
+    @Test
+    public void answersMeansOfEveryMonthAsFilteredMeans() {
+        CalendarRollups rollups = rollup(prices);
+        for (int i = 0; i < 3; i++) {
+            String name = "ROLLUP" + i;
+            int instrumentId = InstrumentDictionary.shared().idOf(name);
+            for (YearMonth month = YearMonth.of(2009, Month.JANUARY); month.isBefore(YearMonth.of(2016, Month.JANUARY));
+                 month = month.plusMonths(1)) {
+                YearMonth current = month;
+                List<InstrumentPrice> filtered = prices.stream().filter(price -> price.getName().equals(name) &&
+                        YearMonth.from(price.getDate()).equals(current)).collect(Collectors.toList());
+                assertThat(rollups.count(instrumentId, month)).isEqualTo((long) filtered.size());
+                assertThat(rollups.mean(instrumentId, month)).isEqualTo(PriceBatches.mean(
+                        Observable.from(filtered).lift(PriceBatch.collect(64))).map(Optional::of)
+                        .defaultIfEmpty(Optional.empty()).toBlocking().single());
+                assertThat(rollups.max(instrumentId, month))
+                        .isEqualTo(filtered.stream().map(InstrumentPrice::getPrice).max(Comparator.naturalOrder()));
+            }
+        }
+    }
+
+    @Test
+    public void keepsCellsOfOutlyingDatesOnly() {
+        CalendarRollups rollups = new CalendarRollups();
+        long one = PriceBatch.POWERS_OF_TEN[PriceBatch.PRICE_SCALE];
+        for (int instrumentId = 0; instrumentId < 10_000; instrumentId++) {
+            rollups.add(instrumentId, (int) LocalDate.of(2014, Month.MARCH, 3).toEpochDay(), one, 0);
+            rollups.add(instrumentId, (int) LocalDate.of(-5_000_000, Month.JANUARY, 1).toEpochDay(), 2 * one, 0);
+            rollups.add(instrumentId, (int) LocalDate.of(5_000_000, Month.DECEMBER, 31).toEpochDay(), 3 * one, 0);
+        }
+
+        assertThat(rollups.count(9_999, YearMonth.of(2014, Month.MARCH))).isEqualTo(1L);
+        assertThat(rollups.count(9_999, Year.of(-5_000_000))).isEqualTo(1L);
+        assertThat(rollups.max(0, YearMonth.of(5_000_000, Month.DECEMBER)))
+                .isEqualTo(Optional.of(BigDecimal.valueOf(3)));
+        assertThat(rollups.count(0, Year.of(2015))).isEqualTo(0L);
+    }
+
+    @Test
+    public void answersYearsOfEveryInstrument() {
+        CalendarRollups rollups = rollup(prices);
+        int instrumentId = InstrumentDictionary.shared().idOf("ROLLUP1");
+        List<BigDecimal> year = prices.stream().filter(price -> price.getName().equals("ROLLUP1") &&
+                price.getDate().getYear() == 2011).map(InstrumentPrice::getPrice).collect(Collectors.toList());
+
+        assertThat(rollups.count(instrumentId, Year.of(2011))).isEqualTo((long) year.size());
+        assertThat(rollups.sum(instrumentId, Year.of(2011))).isEqualTo(year.stream().reduce(BigDecimal::add));
+        assertThat(rollups.min(instrumentId, Year.of(2011))).isEqualTo(year.stream().min(Comparator.naturalOrder()));
+        assertThat(rollups.max(instrumentId, Year.of(2011))).isEqualTo(year.stream().max(Comparator.naturalOrder()));
+        assertThat(rollups.mean(instrumentId, Year.of(1999))).isEqualTo(Optional.empty());
+        assertThat(rollups.count(instrumentId + 1000, Year.of(2011))).isEqualTo(0L);
+    }
+
+    @Test
+    public void mergedRollupsAreTheSameAsAccumulatedByOneInstance() {
+        CalendarRollups whole = rollup(prices);
+        CalendarRollups merged = rollup(prices.subList(0, 1000));
+        merged.merge(rollup(prices.subList(1000, prices.size())));
+        for (int i = 0; i < 3; i++) {
+            int instrumentId = InstrumentDictionary.shared().idOf("ROLLUP" + i);
+            for (YearMonth month = YearMonth.of(2009, Month.JANUARY); month.isBefore(YearMonth.of(2016, Month.JANUARY));
+                 month = month.plusMonths(1)) {
+                assertThat(merged.count(instrumentId, month)).isEqualTo(whole.count(instrumentId, month));
+                assertThat(merged.sum(instrumentId, month)).isEqualTo(whole.sum(instrumentId, month));
+                assertThat(merged.min(instrumentId, month)).isEqualTo(whole.min(instrumentId, month));
+                assertThat(merged.max(instrumentId, month)).isEqualTo(whole.max(instrumentId, month));
+            }
+        }
+    }
+}
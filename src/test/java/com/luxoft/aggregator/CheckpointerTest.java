@@ -0,0 +1,131 @@
+package com.luxoft.aggregator;
+
+import org.junit.After;
+import org.junit.Test;
+import rx.observables.ConnectableObservable;
+
+import java.io.*;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.time.Month;
+import java.time.Year;
+import java.time.YearMonth;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static java.util.Arrays.asList;
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Specification on checkpointing and resuming calculations.
+ * @author Dmitry Dobrynin
+ */
+public class CheckpointerTest {
+    CalculationRules rules = CalculationRules.parse(asList("INSTRUMENT1: mean", "INSTRUMENT2: max where year=2014",
+            "INSTRUMENT3: count", "INSTRUMENT4: sum newest 7", "default: sum newest 5"));
+    Path input, checkpoint;
+
+    @After
+    public void tearDown() throws IOException {
+        if (input != null) Files.deleteIfExists(input);
+        if (checkpoint != null) Files.deleteIfExists(checkpoint);
+    }
+
+    <A extends Checkpointable<A>> A roundTrip(A state, A empty) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        state.writeTo(new DataOutputStream(bytes));
+        empty.readFrom(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+        return empty;
+    }
+
+    @Test
+    public void restoresWrittenStates() throws IOException {
+        LocalDate start = LocalDate.of(2013, Month.JUNE, 1);
+        List<InstrumentPrice> prices = IntStream.range(0, 3000)
+                .mapToObj(i -> new InstrumentPrice("STATE" + i % 4, start.plusDays(i * 7919 % 500),
+                        BigDecimal.valueOf(i * 31 % 1000 + 1, i % 3)))
+                .collect(Collectors.toList());
+        PriceBatch batch = new PriceBatch(prices.size());
+        prices.forEach(batch::add);
+        int instrumentId = InstrumentDictionary.shared().idOf("STATE1");
+
+        CalendarRollups rollups = new CalendarRollups();
+        rollups.accept(batch);
+        CalendarRollups restoredRollups = roundTrip(rollups, new CalendarRollups());
+        for (YearMonth month = YearMonth.of(2013, Month.MAY); month.isBefore(YearMonth.of(2015, Month.JANUARY));
+             month = month.plusMonths(1)) {
+            assertThat(restoredRollups.count(instrumentId, month)).isEqualTo(rollups.count(instrumentId, month));
+            assertThat(restoredRollups.sum(instrumentId, month)).isEqualTo(rollups.sum(instrumentId, month));
+            assertThat(restoredRollups.min(instrumentId, month)).isEqualTo(rollups.min(instrumentId, month));
+            assertThat(restoredRollups.max(instrumentId, month)).isEqualTo(rollups.max(instrumentId, month));
+        }
+        assertThat(restoredRollups.mean(instrumentId, Year.of(2014)))
+                .isEqualTo(rollups.mean(instrumentId, Year.of(2014)));
+
+        InstrumentStatistics statistics = new InstrumentStatistics();
+        statistics.accept(batch);
+        InstrumentStatistics restoredStatistics = roundTrip(statistics, new InstrumentStatistics());
+        assertThat(restoredStatistics.summaries().toString()).isEqualTo(statistics.summaries().toString());
+        assertThat(statistics.copy().summaries().toString()).isEqualTo(statistics.summaries().toString());
+
+        CalculationPlan plan = rules.compile();
+        plan.accept(batch);
+        assertThat(roundTrip(plan, rules.compile()).results()).isEqualTo(plan.results());
+        assertThat(plan.copy().results()).isEqualTo(plan.results());
+    }
+
+    @Test(expected = IOException.class)
+    public void failsToRestoreStateOfOtherSettings() throws IOException {
+        roundTrip(new NewestPrices(3), new NewestPrices(4));
+    }
+
+    void run(Checkpointer<CalculationPlan> checkpointer, MappedFileSource source, CalculationPlan plan,
+             int snapshotsBeforeFailure) {
+        int[] snapshots = new int[1];
+        checkpointer.track(() -> {
+            if (++snapshots[0] > snapshotsBeforeFailure) throw new IllegalStateException("Killed");
+            return plan.copy();
+        });
+        ConnectableObservable<PriceBatch> batches = source.batches();
+        Throwable[] failure = new Throwable[1];
+        PriceBatches.accumulate(batches, () -> plan).subscribe(result -> {}, e -> failure[0] = e);
+        batches.connect();
+        if (failure[0] != null) throw new IllegalStateException(failure[0]);
+    }
+
+    @Test
+    public void resumedRunCalculatesTheSameAsUninterruptedOne() throws IOException {
+        input = Files.createTempFile("prices", ".txt");
+        checkpoint = Files.createTempFile("prices", ".checkpoint");
+        Files.delete(checkpoint);
+        new PriceFileGenerator().seed(18).instruments(40).malformedFraction(0.01).generate(input, 1 << 20);
+
+        CalculationPlan expected = rules.compile();
+        ConnectableObservable<PriceBatch> batches = new MappedFileSource(input, 16 << 10, 2).batches();
+        batches.forEach(expected::accept);
+        batches.connect();
+
+        MappedFileSource first = new MappedFileSource(input, 16 << 10, 2);
+        try (Checkpointer<CalculationPlan> checkpointer = new Checkpointer<>(checkpoint, first, 100 << 10)) {
+            run(checkpointer, first, checkpointer.restore(rules::compile), 4);
+            throw new AssertionError("The run has not been killed!");
+        } catch (IllegalStateException e) {
+            assertThat(e.getCause().getMessage()).isEqualTo("Killed");
+        }
+        assertThat(Files.exists(checkpoint)).isTrue();
+
+        MappedFileSource second = new MappedFileSource(input, 16 << 10, 2);
+        CalculationPlan plan;
+        try (Checkpointer<CalculationPlan> checkpointer = new Checkpointer<>(checkpoint, second, 100 << 10)) {
+            plan = checkpointer.restore(rules::compile);
+            assertThat(checkpointer.offset() > 0 && checkpointer.offset() < Files.size(input)).isTrue();
+            run(checkpointer, second, plan, Integer.MAX_VALUE);
+            checkpointer.completed();
+        }
+        assertThat(plan.results()).isEqualTo(expected.results());
+        assertThat(Files.exists(checkpoint)).isFalse();
+    }
+}
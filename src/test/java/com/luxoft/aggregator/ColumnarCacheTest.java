@@ -0,0 +1,128 @@
+package com.luxoft.aggregator;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Optional;
+
+import static java.util.Arrays.asList;
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Specification on caching parsed prices in columns.
+ * @author Dmitry Dobrynin
+ */
+public class ColumnarCacheTest {
+    Path input;
+    Path cache;
+
+    @After
+    public void tearDown() throws IOException {
+        if (input != null) Files.deleteIfExists(input);
+        if (cache != null) Files.deleteIfExists(cache);
+    }
+
+    static List<?> calculate(PriceSource source, CalculationRules rules) {
+        Aggregator agg = new Aggregator(source);
+        List<?>[] results = new List<?>[1];
+        agg.attachBatches(batches -> PriceBatches.accumulate(batches, rules::compile))
+                .forEach(plan -> results[0] = plan.results());
+        agg.consumeStream();
+        return results[0];
+    }
+
+    @Test
+    public void cachedPricesAreCalculatedTheSameAsParsedOnes() throws IOException {
+        input = Files.createTempFile("prices", ".txt");
+        cache = ColumnarCache.cacheOf(input);
+        new PriceFileGenerator().seed(30).instruments(20).malformedFraction(0).generate(input, 1 << 20);
+        CalculationRules rules = CalculationRules.configured();
+
+        long rows = ColumnarCache.write(input, cache, 1000);
+
+        assertThat(rows).isEqualTo(Files.lines(input).count());
+        assertThat(calculate(new ColumnarSource(cache), rules))
+                .isEqualTo(calculate(new MappedFileSource(input), rules));
+    }
+
+    @Test
+    public void keepsPricesNotFittingScaledLongs() throws IOException {
+        input = Files.createTempFile("prices", ".txt");
+        cache = ColumnarCache.cacheOf(input);
+        Files.write(input, ("INSTRUMENT1,03-Nov-2014,1.0000000001\nINSTRUMENT1,04-Nov-2014,1e12\n" +
+                "INSTRUMENT1,05-Nov-2014,2\nINSTRUMENT2,04-Nov-2014,1e12\n").getBytes(StandardCharsets.US_ASCII));
+        CalculationRules rules = CalculationRules.parse(asList("INSTRUMENT1: sum", "INSTRUMENT1: max",
+                "INSTRUMENT1: count", "INSTRUMENT2: mean", "INSTRUMENT1: sum newest 2"));
+        List<?> expected = asList(Optional.of(new BigDecimal("1000000000003.0000000001")),
+                Optional.of(new BigDecimal("1000000000000")), 3L, Optional.of(new BigDecimal("1000000000000")),
+                Optional.of(new BigDecimal("1000000000002")));
+
+        assertThat(ColumnarCache.write(input, cache, 2)).isEqualTo(4L);
+        assertThat(calculate(new MappedFileSource(input), rules)).isEqualTo(expected);
+        assertThat(calculate(new ColumnarSource(cache), rules)).isEqualTo(expected);
+        assertThat(calculate(new ColumnarSource(cache).dates(LocalDate.of(2014, 11, 4), LocalDate.of(2014, 11, 5)),
+                CalculationRules.parse(asList("INSTRUMENT1: sum")))).isEqualTo(asList(
+                Optional.of(new BigDecimal("1000000000002"))));
+    }
+
+    @Test
+    public void skipsRowGroupsOutOfDates() throws IOException {
+        input = Files.createTempFile("prices", ".txt");
+        cache = ColumnarCache.cacheOf(input);
+        new PriceFileGenerator().seed(31).instruments(5).dates(LocalDate.of(2014, 1, 1), LocalDate.of(2014, 12, 31))
+                .weekendFraction(0).futureFraction(0).malformedFraction(0).sortedness(1).generate(input, 1 << 20);
+        CalculationRules rules = CalculationRules.parse(asList("INSTRUMENT2: mean where month=2014-11",
+                "INSTRUMENT3: count where month=2014-11"));
+        ColumnarCache.write(input, cache, 1000);
+
+        ColumnarSource source = new ColumnarSource(cache).dates(LocalDate.of(2014, 11, 1), LocalDate.of(2014, 11, 30));
+
+        assertThat(calculate(source, rules)).isEqualTo(calculate(new MappedFileSource(input), rules));
+        assertThat(source.readGroups).isGreaterThan(0);
+        assertThat(source.skippedGroups).isGreaterThan(source.readGroups);
+    }
+
+    @Test
+    public void reportsLinesLeftOutOfCache() throws IOException {
+        input = Files.createTempFile("prices", ".txt");
+        cache = ColumnarCache.cacheOf(input);
+        Files.write(input, "INSTRUMENT1,03-Nov-2014,1.5\nbroken\nINSTRUMENT1,33-Nov-2014,2\nINSTRUMENT1,04-Nov-2014,x\n"
+                .getBytes(StandardCharsets.US_ASCII));
+        ParseErrors errors = ParseErrors.shared();
+
+        errors.reset();
+        assertThat(ColumnarCache.write(input, cache)).isEqualTo(1L);
+        errors.reset();
+        calculate(new ColumnarSource(cache), CalculationRules.parse(asList("INSTRUMENT1: count")));
+
+        assertThat(errors.count(ParseError.FIELD_COUNT)).isEqualTo(1L);
+        assertThat(errors.count(ParseError.BAD_DATE)).isEqualTo(1L);
+        assertThat(errors.count(ParseError.BAD_NUMBER)).isEqualTo(1L);
+        errors.reset();
+    }
+
+    @Test
+    public void cacheIsStaleWhenFileIsAppended() throws IOException {
+        input = Files.createTempFile("prices", ".txt");
+        cache = ColumnarCache.cacheOf(input);
+        Files.write(input, "INSTRUMENT1,01-Nov-2014,1.5\n".getBytes(StandardCharsets.US_ASCII));
+
+        assertThat(ColumnarCache.isFresh(input, cache)).isFalse();
+        ColumnarCache.write(input, cache);
+        assertThat(ColumnarCache.isFresh(input, cache)).isTrue();
+
+        Files.write(input, "INSTRUMENT1,03-Nov-2014,2.5\n".getBytes(StandardCharsets.US_ASCII),
+                StandardOpenOption.APPEND);
+        Files.setLastModifiedTime(input, FileTime.fromMillis(Files.getLastModifiedTime(input).toMillis() + 1000));
+        assertThat(ColumnarCache.isFresh(input, cache)).isFalse();
+    }
+}
@@ -0,0 +1,77 @@
+package com.luxoft.aggregator;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Specification on calculating ranges of a file by worker processes.
+ * @author Dmitry Dobrynin
+ */
+public class CoordinatorTest {
+    CalculationRules rules = CalculationRules.configured();
+    Path input;
+    Path partials;
+
+    @After
+    public void tearDown() throws IOException {
+        if (input != null) Files.deleteIfExists(input);
+        if (partials != null) Files.deleteIfExists(partials);
+    }
+
+    @Test
+    public void splitsFileIntoRangesOfCompleteLines() throws IOException {
+        input = Files.createTempFile("prices", ".txt");
+        new PriceFileGenerator().seed(20).malformedFraction(0).generate(input, 100_000);
+        byte[] bytes = Files.readAllBytes(input);
+
+        long[] offsets = new Coordinator(input, 7, input.getParent()).split();
+        assertThat(offsets.length).isEqualTo(8);
+        assertThat(offsets[0]).isEqualTo(0L);
+        assertThat(offsets[7]).isEqualTo((long) bytes.length);
+        for (int i = 1; i < 7; i++)
+            assertThat(offsets[i] > offsets[i - 1] && bytes[(int) offsets[i] - 1] == '\n').isTrue();
+    }
+
+    @Test
+    public void mergedPartialStatesAreTheSameAsCalculatedByOneProcess() throws Exception {
+        input = Files.createTempFile("prices", ".txt");
+        new PriceFileGenerator().seed(20).instruments(30).malformedFraction(0).generate(input, 1 << 20);
+
+        CalculationPlan expected = new Worker(new MappedFileSource(input), 0).calculate(rules);
+        partials = Files.createTempDirectory("partials");
+        CalculationPlan merged = new Coordinator(input, 3, partials).run(rules);
+
+        assertThat(merged.results()).isEqualTo(expected.results());
+        try (Stream<Path> left = Files.list(partials)) {
+            assertThat(left.count()).isEqualTo(0L);
+        }
+    }
+
+    @Test
+    public void partialStatesOfRangesAreMergedToStateOfWholeFile() throws IOException {
+        input = Files.createTempFile("prices", ".txt");
+        new PriceFileGenerator().seed(21).instruments(30).malformedFraction(0).generate(input, 1 << 20);
+        Path partial = Files.createTempFile("prices", ".partial");
+        long half;
+        try (FileChannel channel = FileChannel.open(input)) {
+            half = MappedFileSource.nextLine(channel, 1 << 19, channel.size(), ByteBuffer.allocate(64));
+        }
+
+        CalculationPlan merged = new Worker(new MappedFileSource(input).to(half), 0).calculate(rules);
+        PartialStates.write(partial, new Worker(new MappedFileSource(input).from(half), 0).calculate(rules));
+        merged.merge(PartialStates.read(partial, rules::compile));
+        Files.delete(partial);
+
+        assertThat(merged.results())
+                .isEqualTo(new Worker(new MappedFileSource(input), 0).calculate(rules).results());
+    }
+}
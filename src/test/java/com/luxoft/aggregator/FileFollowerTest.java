@@ -0,0 +1,96 @@
+package com.luxoft.aggregator;
+
+import org.junit.After;
+import org.junit.Test;
+import rx.observables.ConnectableObservable;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static java.util.Arrays.asList;
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Specification on following a file being appended to.
+ * @author Dmitry Dobrynin
+ */
+public class FileFollowerTest {
+    CalculationRules rules = CalculationRules.parse(asList("FOLLOWED1: mean", "FOLLOWED2: count",
+            "default: sum newest 3"));
+    Path file;
+
+    @After
+    public void tearDown() throws IOException {
+        if (file != null) Files.deleteIfExists(file);
+    }
+
+    void append(String lines) throws IOException {
+        Files.write(file, lines.getBytes(StandardCharsets.US_ASCII), StandardOpenOption.APPEND);
+    }
+
+    String lines(int from, int to) {
+        StringBuilder lines = new StringBuilder();
+        for (int i = from; i < to; i++)
+            lines.append(String.format("FOLLOWED%s,%02d-Jan-2014,%s.%s%n", i % 4, i % 28 + 1, i % 100 + 1, i % 7));
+        return lines.toString();
+    }
+
+    @Test
+    public void updatesCalculationsByAppendedLinesOnly() throws Exception {
+        file = Files.createTempFile("followed", ".txt");
+        Files.write(file, lines(0, 1000).getBytes(StandardCharsets.US_ASCII));
+
+        FileFollower follower = new FileFollower(file, 10, 64);
+        BlockingQueue<Long> offsets = new LinkedBlockingQueue<>();
+        follower.onCaughtUp(offsets::add);
+        CalculationPlan plan = rules.compile();
+        ConnectableObservable<PriceBatch> batches = follower.batches();
+        List<Throwable> failures = new ArrayList<>();
+        batches.subscribe(plan::accept, failures::add);
+        Thread following = new Thread(batches::connect);
+        following.start();
+
+        assertThat(awaitOffset(offsets, Files.size(file))).isTrue();
+        append(lines(1000, 1500) + "FOLLOWED1,02-Jan-20");
+        long complete = Files.size(file) - "FOLLOWED1,02-Jan-20".length();
+        assertThat(awaitOffset(offsets, complete)).isTrue();
+        append("14,10.5" + System.lineSeparator());
+        assertThat(awaitOffset(offsets, Files.size(file))).isTrue();
+        follower.stop();
+        following.join(TimeUnit.SECONDS.toMillis(5));
+
+        CalculationPlan expected = rules.compile();
+        ConnectableObservable<PriceBatch> whole = new MappedFileSource(file).batches();
+        whole.forEach(expected::accept);
+        whole.connect();
+        assertThat(failures).isEmpty();
+        assertThat(following.isAlive()).isFalse();
+        assertThat(plan.results()).isEqualTo(expected.results());
+    }
+
+    @Test
+    public void failsIfFileHasBeenTruncated() throws Exception {
+        file = Files.createTempFile("followed", ".txt");
+        Files.write(file, lines(0, 100).getBytes(StandardCharsets.US_ASCII));
+
+        List<Throwable> failures = new ArrayList<>();
+        ConnectableObservable<PriceBatch> batches = new FileFollower(file).from(Files.size(file) + 1).batches();
+        batches.subscribe(batch -> {}, failures::add);
+        batches.connect();
+        assertThat(failures).hasSize(1);
+    }
+
+    private boolean awaitOffset(BlockingQueue<Long> offsets, long offset) throws InterruptedException {
+        for (Long polled; (polled = offsets.poll(5, TimeUnit.SECONDS)) != null; )
+            if (polled == offset) return true;
+        return false;
+    }
+}
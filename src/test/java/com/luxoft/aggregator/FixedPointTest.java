@@ -0,0 +1,41 @@
+package com.luxoft.aggregator;
+
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.RoundingMode;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Specification on fixed point arithmetic.
+ * @author Dmitry Dobrynin
+ */
+public class FixedPointTest {
+    FixedPoint fixedPoint = new FixedPoint(8);
+
+    @Test
+    public void convertsDecimalsWithoutLosingDigits() {
+        assertThat(fixedPoint.toLong(new BigDecimal("12.5"))).isEqualTo(1250000000L);
+        assertThat(fixedPoint.toLong(new BigDecimal("1.2E+2"))).isEqualTo(12000000000L);
+        assertThat(fixedPoint.toBigDecimal(1250000000L)).isEqualTo(new BigDecimal("12.50000000"));
+    }
+
+    @Test(expected = ArithmeticException.class)
+    public void rejectsDecimalsHavingMoreDigitsThanScale() {
+        fixedPoint.toLong(new BigDecimal("0.000000001"));
+    }
+
+    @Test
+    public void sumsBeyondLongRange() {
+        FixedPoint.Sum sum = new FixedPoint.Sum();
+        for (int i = 0; i < 4; i++)
+            sum.add(Long.MAX_VALUE);
+        sum.add(-3);
+        assertThat(sum.toBigInteger())
+                .isEqualTo(BigInteger.valueOf(Long.MAX_VALUE).multiply(BigInteger.valueOf(4)).subtract(BigInteger.valueOf(3)));
+        assertThat(sum.mean()).isEqualTo(new BigDecimal(sum.toBigInteger()).divide(BigDecimal.valueOf(5), 0, RoundingMode.HALF_UP)
+                .longValueExact());
+    }
+}
@@ -0,0 +1,155 @@
+package com.luxoft.aggregator;
+
+import org.junit.After;
+import org.junit.Test;
+import rx.observables.ConnectableObservable;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Specification on reading gzip compressed files.
+ * @author Dmitry Dobrynin
+ */
+public class GzipSourceTest {
+    CalculationRules rules = CalculationRules.configured();
+    List<Path> files = new ArrayList<>();
+
+    @After
+    public void tearDown() throws IOException {
+        for (Path file : files)
+            Files.deleteIfExists(file);
+    }
+
+    Path createFile(String suffix) throws IOException {
+        Path file = Files.createTempFile("prices", suffix);
+        files.add(file);
+        return file;
+    }
+
+    static List<?> calculate(PriceSource source, CalculationRules rules) {
+        return calculate(new Aggregator(source), rules);
+    }
+
+    static List<?> calculate(Aggregator agg, CalculationRules rules) {
+        List<?>[] results = new List<?>[1];
+        agg.attachBatches(batches -> PriceBatches.accumulate(batches, rules::compile))
+                .forEach(plan -> results[0] = plan.results());
+        agg.consumeStream();
+        return results[0];
+    }
+
+    /**
+     * Compresses bytes to BGZF members of the specified amount of bytes, so that lines are split between members.
+     */
+    static byte[] bgzf(byte[] bytes, int from, int to, int memberSize) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] deflated = new byte[memberSize * 2 + 64];
+        for (int start = from; start < to; start += memberSize) {
+            int length = Math.min(memberSize, to - start);
+            Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+            deflater.setInput(bytes, start, length);
+            deflater.finish();
+            int deflatedLength = deflater.deflate(deflated);
+            deflater.end();
+            CRC32 crc = new CRC32();
+            crc.update(bytes, start, length);
+            ByteBuffer member = ByteBuffer.allocate(18 + deflatedLength + 8).order(ByteOrder.LITTLE_ENDIAN);
+            member.put(new byte[] {0x1f, (byte) 0x8b, 8, 4, 0, 0, 0, 0, 0, (byte) 0xff}).putShort((short) 6)
+                    .put((byte) 'B').put((byte) 'C').putShort((short) 2).putShort((short) (member.capacity() - 1))
+                    .put(deflated, 0, deflatedLength).putInt((int) crc.getValue()).putInt(length);
+            out.write(member.array(), 0, member.capacity());
+        }
+        return out.toByteArray();
+    }
+
+    static byte[] gzip(byte[] bytes, int from, int to) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (OutputStream gzip = new GZIPOutputStream(out)) {
+            gzip.write(bytes, from, to - from);
+        }
+        return out.toByteArray();
+    }
+
+    @Test
+    public void blockGzipMembersAreCalculatedTheSameAsPlainFile() throws IOException {
+        Path input = createFile(".txt"), compressed = createFile(".txt.gz");
+        new PriceFileGenerator().seed(40).instruments(20).generate(input, 1 << 20);
+        byte[] bytes = Files.readAllBytes(input);
+        Files.write(compressed, bgzf(bytes, 0, bytes.length, 5000));
+
+        List<?> expected = calculate(new MappedFileSource(input), rules);
+        for (int blockSize : new int[] {1, 3000, 64 << 10, GzipSource.DEFAULT_BLOCK_SIZE})
+            assertThat(calculate(new GzipSource(compressed, 3, blockSize), rules)).isEqualTo(expected);
+        assertThat(calculate(new Aggregator(compressed.toString()), rules)).isEqualTo(expected);
+    }
+
+    @Test
+    public void concatenatedGzipMembersAreInflatedSequentially() throws IOException {
+        Path input = createFile(".txt"), compressed = createFile(".txt.gz");
+        new PriceFileGenerator().seed(41).instruments(20).generate(input, 1 << 20);
+        byte[] bytes = Files.readAllBytes(input);
+        int third = bytes.length / 3, twoThirds = bytes.length * 2 / 3;
+        try (OutputStream out = Files.newOutputStream(compressed)) {
+            out.write(bgzf(bytes, 0, third, 7000));
+            out.write(gzip(bytes, third, twoThirds));
+            out.write(gzip(bytes, twoThirds, bytes.length));
+        }
+
+        List<?> expected = calculate(new MappedFileSource(input), rules);
+        assertThat(calculate(new GzipSource(compressed, 2, 10_000), rules)).isEqualTo(expected);
+        assertThat(calculate(new GzipSource(compressed), rules)).isEqualTo(expected);
+    }
+
+    @Test
+    public void failsOnCorruptMember() throws IOException {
+        Path input = createFile(".txt"), compressed = createFile(".txt.gz");
+        new PriceFileGenerator().seed(42).generate(input, 100_000);
+        byte[] bytes = Files.readAllBytes(input);
+        byte[] members = bgzf(bytes, 0, bytes.length, 5000);
+        members[members.length / 2] ^= 0x55;
+        Files.write(compressed, members);
+
+        ConnectableObservable<PriceBatch> batches = new GzipSource(compressed, 2, 10_000).batches();
+        Throwable[] failure = new Throwable[1];
+        batches.subscribe(batch -> {}, e -> failure[0] = e);
+        batches.connect();
+
+        assertThat(failure[0]).isInstanceOf(ZipException.class);
+    }
+
+    @Test
+    public void propagatesErrorsOfReadingThread() throws IOException {
+        Path compressed = createFile(".txt.gz");
+        byte[] bytes = "INSTRUMENT1,01-Jan-2014,1.5\n".getBytes(StandardCharsets.UTF_8);
+        Files.write(compressed, gzip(bytes, 0, bytes.length));
+
+        ConnectableObservable<PriceBatch> batches = new GzipSource(compressed, 1, Integer.MAX_VALUE).batches();
+        Throwable[] failure = new Throwable[1];
+        batches.subscribe(batch -> {}, e -> failure[0] = e);
+        batches.connect();
+
+        assertThat(failure[0]).isInstanceOf(OutOfMemoryError.class);
+    }
+
+    @Test
+    public void recognizesCompressedFilesByExtension() {
+        assertThat(GzipSource.isCompressed(Paths.get("prices.txt.gz"))).isTrue();
+        assertThat(GzipSource.isCompressed(Paths.get("prices.txt"))).isFalse();
+    }
+}
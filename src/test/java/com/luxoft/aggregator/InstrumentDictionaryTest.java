@@ -0,0 +1,37 @@
+package com.luxoft.aggregator;
+
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Specification on the instrument dictionary.
+ * @author Dmitry Dobrynin
+ */
+public class InstrumentDictionaryTest {
+    InstrumentDictionary dictionary = new InstrumentDictionary();
+
+    @Test
+    public void assignsDenseIdentifiersInOrderOfAppearance() {
+        for (int i = 0; i < 10000; i++)
+            assertThat(dictionary.idOf("INSTRUMENT" + i)).isEqualTo(i);
+        for (int i = 0; i < 10000; i++) {
+            assertThat(dictionary.idOf("INSTRUMENT" + i)).isEqualTo(i);
+            assertThat(dictionary.nameOf(i)).isEqualTo("INSTRUMENT" + i);
+        }
+        assertThat(dictionary.size()).isEqualTo(10000);
+    }
+
+    @Test
+    public void resolvesNamesFromWindowsOfCharacters() {
+        int id = dictionary.idOf("INSTRUMENT1");
+        assertThat(dictionary.idOf("INSTRUMENT1,12-Mar-2015,12.21", 0, 11)).isEqualTo(id);
+        assertThat(dictionary.idOf("INSTRUMENT1,12-Mar-2015,12.21", 0, 10)).isNotEqualTo(id);
+    }
+
+    @Test
+    public void findDoesNotRegisterUnknownInstruments() {
+        assertThat(dictionary.find("UNKNOWN")).isEqualTo(-1);
+        assertThat(dictionary.size()).isEqualTo(0);
+    }
+}
@@ -3,6 +3,8 @@ package com.luxoft.aggregator;
 import org.junit.Test;
 
 import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.time.LocalDate;
 import java.time.Month;
 
@@ -30,4 +32,42 @@ public class InstrumentPriceParserTest {
         assertThat(price.left()).isEqualTo(new InstrumentPrice("instrument", LocalDate.of(1997, Month.JANUARY, 1),
                         new BigDecimal("2.15")));
     }
-}
\ No newline at end of file
+
+    @Test
+    public void ignoresTrailingEmptyFields() {
+        InstrumentPrice expected = new InstrumentPrice("instrument", LocalDate.of(1997, Month.JANUARY, 1),
+                new BigDecimal("2.15"));
+        assertThat(parser.call("instrument,01-Jan-1997,2.15,").left()).isEqualTo(expected);
+        assertThat(parser.call("instrument,01-Jan-1997,2.15 , ,").left()).isEqualTo(expected);
+        assertThat(parser.call("instrument,01-Jan-1997,,").isRight()).isTrue();
+        assertThat(parser.call("instrument,01-Jan-1997,2.15,x").isRight()).isTrue();
+    }
+
+    @Test
+    public void parsesBytesInPlace() {
+        ByteSequence bytes = new ByteSequence(ByteBuffer.wrap(
+                "INSTRUMENT1,12-Mar-2015,12.21\n INSTRUMENT2 , 30-Feb-2016 , -0.005\nINSTRUMENT3,1-Jan-2015,1\n"
+                        .getBytes(StandardCharsets.US_ASCII)));
+        ParsedPrice parsed = new ParsedPrice();
+
+        assertThat(parser.parse(bytes, 0, 29, parsed)).isTrue();
+        assertThat(parsed.name(bytes).toString()).isEqualTo("INSTRUMENT1");
+        assertThat(parsed.getEpochDay()).isEqualTo((int) LocalDate.of(2015, Month.MARCH, 12).toEpochDay());
+        assertThat(parsed.getUnscaledPrice()).isEqualTo(1221L);
+        assertThat(parsed.getPriceScale()).isEqualTo(2);
+
+        assertThat(parser.parse(bytes, 30, 65, parsed)).isTrue();
+        assertThat(parsed.name(bytes).toString()).isEqualTo("INSTRUMENT2");
+        assertThat(parsed.getEpochDay()).isEqualTo((int) LocalDate.of(2016, Month.FEBRUARY, 29).toEpochDay());
+        assertThat(parsed.price()).isEqualTo(new BigDecimal("-0.005"));
+
+        assertThat(parser.parse(bytes, 66, 90, parsed)).isFalse();
+    }
+
+    @Test
+    public void delegatesNumbersNotFittingLongToBigDecimal() {
+        assertThat(parser.parseFrom("instrument,01-Jan-1997,1e3").getPrice()).isEqualTo(new BigDecimal("1e3"));
+        assertThat(parser.parseFrom("instrument,01-Jan-1997,123456789012345678901.5").getPrice())
+                .isEqualTo(new BigDecimal("123456789012345678901.5"));
+    }
+}
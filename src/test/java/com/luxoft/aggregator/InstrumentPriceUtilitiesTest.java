@@ -5,6 +5,7 @@ import rx.Observable;
 
 import java.io.IOException;
 import java.math.BigDecimal;
+import java.math.RoundingMode;
 import java.time.LocalDate;
 import java.time.Month;
 import java.util.List;
@@ -43,6 +44,16 @@ public class InstrumentPriceUtilitiesTest {
         assertTrue(noneOf("INSTRUMENT1", "INSTRUMENT2", "INSTRUMENT3").call("INSTRUMENT5"));
     }
 
+    @Test
+    public void instrumentIdPredicatesResolveInstrumentsOnce() throws Exception {
+        InstrumentPrice first = new InstrumentPrice("INSTRUMENT1", null, null);
+        InstrumentPrice fifth = new InstrumentPrice("INSTRUMENT5", null, null);
+        assertTrue(instrumentId(anyOfIds("INSTRUMENT1", "INSTRUMENT2")).call(first));
+        assertFalse(instrumentId(anyOfIds("INSTRUMENT1", "INSTRUMENT2")).call(fifth));
+        assertFalse(instrumentId(noneOfIds("INSTRUMENT1", "INSTRUMENT2")).call(first));
+        assertTrue(instrumentId(noneOfIds("INSTRUMENT1", "INSTRUMENT2")).call(fifth));
+    }
+
     @Test
     public void notInvertsSuppliedPredicateValue() throws Exception {
         assertTrue(not(o -> false).call(null));
@@ -79,6 +90,20 @@ public class InstrumentPriceUtilitiesTest {
         assertThat(meanValues).isEqualTo(new BigDecimal(5.5D));
     }
 
+    @Test
+    public void fixedPointMeanIsTheSameAsMeanWithinScale() throws Exception {
+        FixedPoint fixedPoint = new FixedPoint(8);
+        Observable<InstrumentPrice> prices = Observable.from(asList("1", "2.5", "3.125", "4", "5.00000001", "6").stream()
+                .map(p -> new InstrumentPrice("Instrument", LocalDate.now(), new BigDecimal(p)))
+                .collect(Collectors.toList()));
+        assertThat(fixedPoint.toBigDecimal(mean(prices, fixedPoint).toBlocking().single()))
+                .isEqualTo(mean(prices).toBlocking().single().setScale(8, RoundingMode.HALF_UP));
+        assertThat(fixedPoint.toBigDecimal(sum(prices, fixedPoint).toBlocking().single()))
+                .isEqualTo(new BigDecimal("21.62500001"));
+        assertThat(fixedPoint.toBigDecimal(max(prices, fixedPoint).toBlocking().single()))
+                .isEqualTo(max(prices).toBlocking().single().setScale(8));
+    }
+
     @Test
     public void maxProducesOnlyMaximum() throws Exception {
         List<InstrumentPrice> prices = asList(1, 2, 3, 2, 1, 9, 8, 10, 11, 7, 6, 5, 4).stream()
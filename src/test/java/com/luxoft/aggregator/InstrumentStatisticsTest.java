@@ -0,0 +1,146 @@
+package com.luxoft.aggregator;
+
+import org.junit.Test;
+import rx.Observable;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.time.Month;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.Random;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+/**
+ * Specification on statistics of every instrument.
+ * @author Dmitry Dobrynin
+ */
+public class InstrumentStatisticsTest {
+    static final long ONE = PriceBatch.POWERS_OF_TEN[PriceBatch.PRICE_SCALE];
+    static final int INSTRUMENTS = 3;
+    Random random = new Random(17);
+    long[][] prices = new long[INSTRUMENTS][10_000];
+
+    {
+        for (int instrumentId = 0; instrumentId < INSTRUMENTS; instrumentId++)
+            for (int i = 0; i < prices[instrumentId].length; i++)
+                prices[instrumentId][i] =
+                        (long) ((100 + instrumentId * 50 + Math.exp(random.nextGaussian()) * 100) * ONE);
+    }
+
+    InstrumentStatistics accept(InstrumentStatistics statistics, int from, int to) {
+        for (int i = from; i < to; i++)
+            for (int instrumentId = 0; instrumentId < INSTRUMENTS; instrumentId++)
+                statistics.add(instrumentId, prices[instrumentId][i], PriceBatch.PRICE_SCALE);
+        return statistics;
+    }
+
+    @Test
+    public void calculatesMomentsLikeTwoPassFormulas() {
+        InstrumentStatistics statistics = accept(new InstrumentStatistics(), 0, prices[0].length);
+        for (int instrumentId = 0; instrumentId < INSTRUMENTS; instrumentId++) {
+            double[] values = Arrays.stream(prices[instrumentId]).mapToDouble(price -> (double) price / ONE).toArray();
+            double n = values.length, mean = Arrays.stream(values).sum() / n;
+            double m2 = 0, m3 = 0, m4 = 0;
+            for (double value : values) {
+                double d = value - mean;
+                m2 += d * d;
+                m3 += d * d * d;
+                m4 += d * d * d * d;
+            }
+            assertThat(statistics.count(instrumentId)).isEqualTo(values.length);
+            assertThat(statistics.mean(instrumentId)).isCloseTo(mean, within(1e-9 * mean));
+            assertThat(statistics.variance(instrumentId)).isCloseTo(m2 / (n - 1), within(1e-9 * m2 / n));
+            assertThat(statistics.skewness(instrumentId))
+                    .isCloseTo(Math.sqrt(n) * m3 / Math.pow(m2, 1.5), within(1e-9));
+            assertThat(statistics.kurtosis(instrumentId)).isCloseTo(n * m4 / (m2 * m2) - 3, within(1e-9));
+            assertThat(statistics.min(instrumentId)).isEqualTo(Optional.of(PriceBatch.price(
+                    Arrays.stream(prices[instrumentId]).min().getAsLong(), PriceBatch.PRICE_SCALE)));
+            assertThat(statistics.max(instrumentId)).isEqualTo(Optional.of(PriceBatch.price(
+                    Arrays.stream(prices[instrumentId]).max().getAsLong(), PriceBatch.PRICE_SCALE)));
+        }
+        assertThat(statistics.count(INSTRUMENTS)).isEqualTo(0L);
+        assertThat(Double.isNaN(statistics.mean(INSTRUMENTS))).isTrue();
+    }
+
+    @Test
+    public void estimatesQuantilesWithinRelativeAccuracy() {
+        InstrumentStatistics statistics = accept(new InstrumentStatistics(), 0, prices[0].length);
+        for (int instrumentId = 0; instrumentId < INSTRUMENTS; instrumentId++) {
+            long[] sorted = prices[instrumentId].clone();
+            Arrays.sort(sorted);
+            for (double quantile : new double[] {0.5, 0.95, 0.99, 1}) {
+                double exact = (double) sorted[(int) (quantile * (sorted.length - 1))] / ONE;
+                assertThat(statistics.quantile(instrumentId, quantile))
+                        .isCloseTo(exact, within(exact * InstrumentStatistics.DEFAULT_RELATIVE_ACCURACY));
+            }
+        }
+    }
+
+    @Test
+    public void mergedStatisticsAreTheSameAsAccumulatedByOneInstance() {
+        InstrumentStatistics whole = accept(new InstrumentStatistics(), 0, prices[0].length);
+        InstrumentStatistics merged = accept(new InstrumentStatistics(), 0, 3000);
+        merged.merge(accept(new InstrumentStatistics(), 3000, prices[0].length));
+        for (int instrumentId = 0; instrumentId < INSTRUMENTS; instrumentId++) {
+            assertThat(merged.count(instrumentId)).isEqualTo(whole.count(instrumentId));
+            assertThat(merged.mean(instrumentId)).isCloseTo(whole.mean(instrumentId), within(1e-9));
+            assertThat(merged.variance(instrumentId)).isCloseTo(whole.variance(instrumentId), within(1e-6));
+            assertThat(merged.skewness(instrumentId)).isCloseTo(whole.skewness(instrumentId), within(1e-9));
+            assertThat(merged.kurtosis(instrumentId)).isCloseTo(whole.kurtosis(instrumentId), within(1e-9));
+            assertThat(merged.movingAverage(instrumentId)).isCloseTo(whole.movingAverage(instrumentId), within(1e-9));
+            assertThat(merged.min(instrumentId)).isEqualTo(whole.min(instrumentId));
+            assertThat(merged.max(instrumentId)).isEqualTo(whole.max(instrumentId));
+            for (double quantile : new double[] {0, 0.5, 0.95, 0.99, 1})
+                assertThat(merged.quantile(instrumentId, quantile)).isEqualTo(whole.quantile(instrumentId, quantile));
+        }
+    }
+
+    @Test
+    public void movingAverageWeighsRecentPrices() {
+        InstrumentStatistics statistics = new InstrumentStatistics(0.5, 0.01, 16);
+        statistics.add(0, 10 * ONE, 0);
+        assertThat(statistics.movingAverage(0)).isEqualTo(10.0);
+        statistics.add(0, 20 * ONE, 0);
+        statistics.add(0, 40 * ONE, 0);
+        assertThat(statistics.movingAverage(0)).isCloseTo((10 * 0.125 + 20 * 0.25 + 40 * 0.5) / 0.875, within(1e-12));
+    }
+
+    @Test
+    public void keepsHighQuantilesWhenPricesExceedBuckets() {
+        InstrumentStatistics statistics = new InstrumentStatistics(0.1, 0.01, 8);
+        for (int price = 1; price <= 1000; price++)
+            statistics.add(0, price * ONE, 0);
+        assertThat(statistics.quantile(0, 0)).isEqualTo(1.0);
+        assertThat(statistics.quantile(0, 0.99)).isCloseTo(990.0, within(990 * 0.01));
+        assertThat(statistics.quantile(0, 1)).isEqualTo(1000.0);
+    }
+
+    @Test
+    public void summarizesBatchesOfEveryInstrument() {
+        LocalDate day = LocalDate.of(2014, Month.JANUARY, 1);
+        Observable<InstrumentPrice> prices = Observable.from(Arrays.asList(
+                new InstrumentPrice("STATISTICS1", day, new BigDecimal("1.5")),
+                new InstrumentPrice("STATISTICS1", day, new BigDecimal("2.50")),
+                new InstrumentPrice("STATISTICS2", day, BigDecimal.TEN)));
+        List<Tuple<String, InstrumentStatistics.Summary>> summaries =
+                PriceBatches.statistics(prices.lift(PriceBatch.collect(2))).toList().toBlocking().single().stream()
+                        .filter(summary -> summary._1.startsWith("STATISTICS")).collect(Collectors.toList());
+
+        assertThat(summaries).hasSize(2);
+        assertThat(summaries.get(0)._2.count).isEqualTo(2L);
+        assertThat(summaries.get(0)._2.mean).isEqualTo(2.0);
+        assertThat(summaries.get(0)._2.min).isEqualTo(new BigDecimal("1.5"));
+        assertThat(summaries.get(0)._2.max).isEqualTo(new BigDecimal("2.50"));
+        assertThat(summaries.get(1)._2.max).isEqualTo(BigDecimal.TEN);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void failsOnMergingStatisticsOfDifferentSettings() {
+        new InstrumentStatistics().merge(new InstrumentStatistics(0.5, 0.01, 16));
+    }
+}
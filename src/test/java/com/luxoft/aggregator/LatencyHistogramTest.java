@@ -0,0 +1,50 @@
+package com.luxoft.aggregator;
+
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Specification on the log-linear histogram of latencies.
+ * @author Dmitry Dobrynin
+ */
+public class LatencyHistogramTest {
+    @Test
+    public void bucketsKeepValuesWithinOneThirtySecond() {
+        for (long value = 0; value < 1L << 40; value = value * 5 / 4 + 1) {
+            int bucket = LatencyHistogram.bucketOf(value);
+            assertThat(LatencyHistogram.lowestOf(bucket) <= value).isTrue();
+            assertThat(LatencyHistogram.lowestOf(bucket + 1) > value).isTrue();
+            assertThat(value - LatencyHistogram.lowestOf(bucket) <= value / 32).isTrue();
+        }
+        assertThat(LatencyHistogram.bucketOf(Long.MAX_VALUE) > LatencyHistogram.bucketOf(Long.MAX_VALUE / 2)).isTrue();
+    }
+
+    @Test
+    public void providesPercentilesMeanAndMaximum() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int value = 1; value <= 10_000; value++)
+            histogram.record(value);
+
+        assertThat(histogram.count()).isEqualTo(10_000L);
+        assertThat(histogram.max()).isEqualTo(10_000L);
+        assertThat(histogram.mean()).isEqualTo(5000.5);
+        assertThat(Math.abs(histogram.percentile(50) - 5000) <= 5000 / 32).isTrue();
+        assertThat(Math.abs(histogram.percentile(99) - 9900) <= 9900 / 32).isTrue();
+        assertThat(histogram.percentile(100)).isEqualTo(10_000L);
+    }
+
+    @Test
+    public void resetForgetsRecordedValues() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(-5);
+        histogram.record(1_000_000);
+        assertThat(histogram.percentile(50)).isEqualTo(0L);
+
+        histogram.reset();
+
+        assertThat(histogram.count()).isEqualTo(0L);
+        assertThat(histogram.max()).isEqualTo(0L);
+        assertThat(histogram.percentile(99)).isEqualTo(0L);
+    }
+}
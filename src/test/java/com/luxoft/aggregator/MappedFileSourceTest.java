@@ -0,0 +1,58 @@
+package com.luxoft.aggregator;
+
+import org.junit.Test;
+import rx.observables.ConnectableObservable;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Specification on the memory mapped file source.
+ * @author Dmitry Dobrynin
+ */
+public class MappedFileSourceTest {
+    @Test
+    public void emitsLinesInFileOrderRegardlessOfChunking() throws Exception {
+        Path file = Files.createTempFile("prices", ".txt");
+        file.toFile().deleteOnExit();
+
+        List<String> expected = new ArrayList<>();
+        StringBuilder content = new StringBuilder();
+        for (int i = 0; i < 5000; i++) {
+            String line = String.format("INSTRUMENT%s,%02d-Jan-2014,%s", i % 7, i % 28 + 1, i);
+            expected.add(line);
+            content.append(line).append(i % 2 == 0 ? "\r\n" : "\n");
+        }
+        expected.add("INSTRUMENT1,01-Jan-2014,1.5");
+        content.append("INSTRUMENT1,01-Jan-2014,1.5");
+        Files.write(file, content.toString().getBytes(StandardCharsets.UTF_8));
+
+        for (int chunkSize : new int[] {1, 100, 4096, MappedFileSource.DEFAULT_CHUNK_SIZE}) {
+            ConnectableObservable<String> lines = new MappedFileSource(file, chunkSize, 4).lines();
+            List<String> actual = new ArrayList<>();
+            lines.forEach(actual::add);
+            lines.connect();
+            assertThat(actual).isEqualTo(expected);
+        }
+    }
+
+    @Test
+    public void propagatesErrorsOfScanningThreads() throws Exception {
+        Path file = Files.createTempFile("prices", ".txt");
+        file.toFile().deleteOnExit();
+        Files.write(file, "INSTRUMENT1,01-Jan-2014,1.5\n".getBytes(StandardCharsets.UTF_8));
+
+        List<Throwable> failures = new ArrayList<>();
+        new MappedFileSource(file, 4096, 2).<String>scan((chunk, sink) -> {
+            throw new AssertionError("Failed to scan!");
+        }).subscribe(line -> {}, failures::add);
+
+        assertThat(failures).hasSize(1);
+        assertThat(failures.get(0)).isInstanceOf(AssertionError.class);
+    }
+}
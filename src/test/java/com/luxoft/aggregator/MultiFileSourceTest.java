@@ -0,0 +1,130 @@
+package com.luxoft.aggregator;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import rx.observables.ConnectableObservable;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.GZIPOutputStream;
+
+import static java.util.Arrays.asList;
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Specification on reading several files concurrently.
+ * @author Dmitry Dobrynin
+ */
+public class MultiFileSourceTest {
+    CalculationRules rules = CalculationRules.parse(asList("INSTRUMENT1: mean", "INSTRUMENT2: sum",
+            "INSTRUMENT3: max", "INSTRUMENT4: count where year=2014", "INSTRUMENT5: mean where month=2014-11"));
+    Path directory;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("prices");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Path file : files.sorted(Comparator.reverseOrder()).collect(Collectors.toList()))
+                Files.delete(file);
+        }
+    }
+
+    @Test
+    public void resolvesDirectoriesAndGlobsOrderingLargestFilesFirst() throws IOException {
+        Files.createDirectory(directory.resolve("2014"));
+        Files.write(directory.resolve("small.txt"), new byte[10]);
+        Files.write(directory.resolve("large.txt"), new byte[30]);
+        Files.write(directory.resolve("2014/medium.txt"), new byte[20]);
+        Files.write(directory.resolve("2014/other.csv"), new byte[40]);
+
+        assertThat(MultiFileSource.of(directory.toString()).files())
+                .isEqualTo(asList(directory.resolve("large.txt"), directory.resolve("small.txt")));
+        assertThat(MultiFileSource.of(directory + "/**.txt").files()).isEqualTo(asList(directory.resolve("large.txt"),
+                directory.resolve("2014/medium.txt"), directory.resolve("small.txt")));
+        assertThat(MultiFileSource.isMultiple(directory.toString())).isTrue();
+        assertThat(MultiFileSource.isMultiple(directory + "/*.txt")).isTrue();
+        assertThat(MultiFileSource.isMultiple(directory.resolve("small.txt").toString())).isFalse();
+    }
+
+    @Test
+    public void skipsArtifactsAndSubdirectoriesDeeperThanGlob() throws IOException {
+        Files.createDirectory(directory.resolve("2014"));
+        Files.write(directory.resolve("prices.txt"), new byte[10]);
+        Files.write(directory.resolve("prices.txt.columns"), new byte[20]);
+        Files.write(directory.resolve("prices.txt.0.partial"), new byte[20]);
+        Files.write(directory.resolve("prices.txt.columns.tmp"), new byte[20]);
+        Files.write(directory.resolve("2014/prices.txt"), new byte[10]);
+
+        assertThat(MultiFileSource.of(directory.toString()).files()).isEqualTo(asList(directory.resolve("prices.txt")));
+        assertThat(MultiFileSource.of(directory + "/prices*").files())
+                .isEqualTo(asList(directory.resolve("prices.txt")));
+        assertThat(MultiFileSource.of(directory + "/*/prices*").files())
+                .isEqualTo(asList(directory.resolve("2014/prices.txt")));
+    }
+
+    @Test
+    public void existingFileIsSingleEvenIfNamedLikeGlob() throws IOException {
+        Path file = Files.write(directory.resolve("prices[1].txt"), new byte[10]);
+
+        assertThat(MultiFileSource.isMultiple(file.toString())).isFalse();
+        assertThat(MultiFileSource.isMultiple(directory + "/prices[2].txt")).isTrue();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void checkpointingRejectsSeveralFiles() {
+        StreamDriver.singleFile(directory + "/*.txt", "aggregator.checkpoint");
+    }
+
+    @Test
+    public void filesAreCalculatedTheSameAsTheirConcatenation() throws IOException {
+        ByteArrayOutputStream all = new ByteArrayOutputStream();
+        for (int i = 0; i < 7; i++) {
+            Path file = directory.resolve("prices-" + i + ".txt");
+            new PriceFileGenerator().seed(50 + i).instruments(10).generate(file, 50_000 * (i + 1));
+            byte[] bytes = Files.readAllBytes(file);
+            all.write(bytes);
+            if (i % 3 == 0) {
+                Files.delete(file);
+                try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(file.resolveSibling(
+                        file.getFileName() + ".gz")))) {
+                    out.write(bytes);
+                }
+            }
+        }
+        Path concatenated = Files.write(Files.createTempFile("prices", ".txt"), all.toByteArray());
+        try {
+            List<?> expected = GzipSourceTest.calculate(new MappedFileSource(concatenated), rules);
+            assertThat(GzipSourceTest.calculate(new MultiFileSource(MultiFileSource.resolve(directory.toString()), 3),
+                    rules)).isEqualTo(expected);
+            assertThat(GzipSourceTest.calculate(new Aggregator(directory + "/prices-*"), rules)).isEqualTo(expected);
+        } finally {
+            Files.delete(concatenated);
+        }
+    }
+
+    @Test
+    public void failsIfAnyFileFails() throws IOException {
+        Files.write(directory.resolve("valid.txt"), "INSTRUMENT1,01-Nov-2014,1.5\n".getBytes(StandardCharsets.UTF_8));
+        Files.write(directory.resolve("invalid.gz"), "not compressed".getBytes(StandardCharsets.UTF_8));
+
+        ConnectableObservable<PriceBatch> batches = MultiFileSource.of(directory.toString()).batches();
+        Throwable[] failure = new Throwable[1];
+        batches.subscribe(batch -> {}, e -> failure[0] = e);
+        batches.connect();
+
+        assertThat(failure[0]).isInstanceOf(IOException.class);
+    }
+}
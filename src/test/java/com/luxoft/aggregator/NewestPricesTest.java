@@ -0,0 +1,82 @@
+package com.luxoft.aggregator;
+
+import org.junit.Test;
+import rx.Observable;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.time.Month;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Specification on keeping the newest prices per instrument.
+ * @author Dmitry Dobrynin
+ */
+public class NewestPricesTest {
+    static final long ONE = PriceBatch.POWERS_OF_TEN[PriceBatch.PRICE_SCALE];
+    LocalDate start = LocalDate.of(2014, Month.JANUARY, 1);
+    List<InstrumentPrice> prices = IntStream.range(0, 3000)
+            .mapToObj(i -> new InstrumentPrice("NEWEST" + i % 3, start.plusDays(i * 7919 % 3000),
+                    BigDecimal.valueOf(i * 31 % 1000, i % 3)))
+            .collect(Collectors.toList());
+
+    @Test
+    public void sumsTheNewestPricesOfEveryInstrument() {
+        List<Tuple<String, BigDecimal>> sums = PriceBatches
+                .newestSums(Observable.from(prices).lift(PriceBatch.collect(64)), 10).toList().toBlocking().single()
+                .stream().filter(sum -> sum._1.startsWith("NEWEST")).collect(Collectors.toList());
+
+        assertThat(sums).hasSize(3);
+        for (Tuple<String, BigDecimal> sum : sums)
+            assertThat(sum._2).isEqualTo(InstrumentPriceUtilities.mostRelevant(Observable.from(prices)
+                    .filter(price -> price.getName().equals(sum._1)), 10, (p1, p2) -> p1.getDate().compareTo(p2.getDate()))
+                    .map(InstrumentPrice::getPrice).reduce(BigDecimal::add).toBlocking().single());
+    }
+
+    @Test
+    public void rejectsPricesOlderThanKeptOnes() {
+        int instrumentId = InstrumentDictionary.shared().idOf("NEWEST_REJECTED");
+        NewestPrices newest = new NewestPrices(2);
+        newest.add(instrumentId, 10, 1 * ONE, 0);
+        newest.add(instrumentId, 20, 2 * ONE, 0);
+        newest.add(instrumentId, 5, 100 * ONE, 0);
+        newest.add(instrumentId, 10, ONE / 2, 1);
+        assertThat(newest.size(instrumentId)).isEqualTo(2);
+        assertThat(newest.sum(instrumentId)).isEqualTo(Optional.of(BigDecimal.valueOf(3)));
+
+        newest.add(instrumentId, 30, 4 * ONE, 0);
+        assertThat(newest.sum(instrumentId)).isEqualTo(Optional.of(BigDecimal.valueOf(6)));
+        assertThat(newest.sum(instrumentId + 1)).isEqualTo(Optional.empty());
+    }
+
+    @Test
+    public void keepsHigherPricesOfTheSameDateRegardlessOfOrder() {
+        int instrumentId = InstrumentDictionary.shared().idOf("NEWEST_TIED");
+        long[] tied = {3 * ONE, 1 * ONE, 4 * ONE, 2 * ONE};
+        NewestPrices forward = new NewestPrices(2), backward = new NewestPrices(2);
+        for (int i = 0; i < tied.length; i++) {
+            forward.add(instrumentId, 10, tied[i], 0);
+            backward.add(instrumentId, 10, tied[tied.length - 1 - i], 0);
+        }
+
+        assertThat(forward.sum(instrumentId)).isEqualTo(Optional.of(BigDecimal.valueOf(7)));
+        assertThat(backward.sum(instrumentId)).isEqualTo(forward.sum(instrumentId));
+    }
+
+    @Test
+    public void mergedPricesAreTheSameAsAccumulatedByOneInstance() {
+        PriceBatch batch = new PriceBatch(prices.size());
+        prices.forEach(batch::add);
+        NewestPrices whole = new NewestPrices(10), first = new NewestPrices(10), second = new NewestPrices(10);
+        whole.accept(batch);
+        for (int row = 0; row < batch.size; row++)
+            (row % 2 == 0 ? first : second).accept(batch, row);
+        first.merge(second);
+        assertThat(first.sums()).isEqualTo(whole.sums());
+    }
+}
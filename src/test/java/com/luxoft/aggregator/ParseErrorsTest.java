@@ -0,0 +1,114 @@
+package com.luxoft.aggregator;
+
+import org.junit.Test;
+import rx.Observable;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static java.util.Arrays.asList;
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Specification on aggregated parse errors.
+ * @author Dmitry Dobrynin
+ */
+public class ParseErrorsTest {
+    ParseErrors errors = new ParseErrors(3);
+    InstrumentPriceParser parser = new InstrumentPriceParser(errors);
+
+    @Test
+    public void countsRejectedLinesByCauseAndSamplesFirstOnes() {
+        ByteBuffer buffer = ByteBuffer.wrap(("INSTRUMENT1,12-Mar-2014,1.5\nINSTRUMENT1,12-Mar-2014\n,12-Mar-2014,1\n" +
+                "INSTRUMENT1,12-03-2014,1\nINSTRUMENT1,12-Mar-2014,1.5.1\nINSTRUMENT1,12-Mar-2014,1.5e\n")
+                .getBytes(StandardCharsets.UTF_8));
+        List<PriceBatch> batches = new ArrayList<>();
+        parser.parseLines(buffer, new PriceBatchPool(16, 2), batches::add);
+
+        assertThat(batches).hasSize(1);
+        assertThat(batches.get(0).size()).isEqualTo(1);
+        assertThat(errors.count(ParseError.FIELD_COUNT)).isEqualTo(2L);
+        assertThat(errors.count(ParseError.BAD_DATE)).isEqualTo(1L);
+        assertThat(errors.count(ParseError.BAD_NUMBER)).isEqualTo(2L);
+        assertThat(errors.total()).isEqualTo(5L);
+        assertThat(errors.samples()).isEqualTo(asList(Tuple.t(ParseError.FIELD_COUNT, "INSTRUMENT1,12-Mar-2014"),
+                Tuple.t(ParseError.FIELD_COUNT, ",12-Mar-2014,1"),
+                Tuple.t(ParseError.BAD_DATE, "INSTRUMENT1,12-03-2014,1")));
+        assertThat(errors.summary()).startsWith("Rejected 5 lines: FIELD_COUNT=2 BAD_DATE=1 BAD_NUMBER=2");
+    }
+
+    @Test
+    public void rejectsLineOnceWhetherPricesOrBatchesAreCalculated() {
+        ParseErrors shared = ParseErrors.shared();
+        shared.reset();
+        Aggregator agg = new Aggregator(Observable.from(asList("INSTRUMENT1,12-Mar-2014,1.5", "broken")).publish());
+        List<InstrumentPrice> prices = new ArrayList<>();
+        int[] rows = new int[1];
+        agg.attach(parsed -> parsed.subscribe(prices::add));
+        agg.attachBatches(batches -> batches.subscribe(batch -> rows[0] += batch.size()));
+        agg.consumeStream();
+
+        assertThat(prices).hasSize(1);
+        assertThat(rows[0]).isEqualTo(1);
+        assertThat(shared.count(ParseError.FIELD_COUNT)).isEqualTo(1L);
+        shared.reset();
+    }
+
+    @Test
+    public void returnsSharedExceptionsWithoutStackTraces() {
+        Either<InstrumentPrice, Tuple<String, Exception>> parsed = parser.call("instrument,01-Jan-1997,2-15");
+
+        assertThat(parsed.right()._2).isSameAs(ParseError.BAD_NUMBER.exception());
+        assertThat(parsed.right()._2.getStackTrace().length).isEqualTo(0);
+        assertThat(errors.count(ParseError.BAD_NUMBER)).isEqualTo(1L);
+    }
+
+    @Test
+    public void rejectsFutureAndNonBusinessDays() {
+        BusinessCalendar calendar = new BusinessCalendar(LocalDate.of(2014, 12, 19), Collections.emptyList());
+        PriceBatches.RowPredicate businessDay = PriceBatches.businessDay(calendar, errors);
+        PriceBatch batch = new PriceBatch(4);
+        int id = InstrumentDictionary.shared().idOf("INSTRUMENT1");
+        batch.add(id, (int) LocalDate.of(2014, 12, 18).toEpochDay(), 15, 1);
+        batch.add(id, (int) LocalDate.of(2014, 12, 13).toEpochDay(), 15, 1);
+        batch.add(id, (int) LocalDate.of(2014, 12, 22).toEpochDay(), 15, 1);
+
+        assertThat(businessDay.test(batch, 0)).isTrue();
+        assertThat(businessDay.test(batch, 1)).isFalse();
+        assertThat(businessDay.test(batch, 2)).isFalse();
+        assertThat(errors.samples()).isEqualTo(asList(
+                Tuple.t(ParseError.NON_BUSINESS_DAY, "INSTRUMENT1,13-Dec-2014,1.5"),
+                Tuple.t(ParseError.FUTURE_DATE, "INSTRUMENT1,22-Dec-2014,1.5")));
+    }
+
+    @Test
+    public void writesRawRejectedLinesToFile() throws IOException {
+        Path rejects = Files.createTempFile("rejects", ".txt");
+        try {
+            errors.rejectTo(rejects);
+            List<String> expected = new ArrayList<>();
+            StringBuilder lines = new StringBuilder();
+            for (int i = 0; i < 20_000; i++) {
+                String line = "INSTRUMENT" + i + ",01-Foo-2014," + i;
+                expected.add(line);
+                lines.append(line).append('\n');
+            }
+            parser.parseLines(ByteBuffer.wrap(lines.toString().getBytes(StandardCharsets.UTF_8)),
+                    new PriceBatchPool(16, 2), batch -> {});
+            errors.close();
+
+            assertThat(errors.count(ParseError.BAD_DATE)).isEqualTo(20_000L);
+            assertThat(errors.samples()).hasSize(3);
+            assertThat(Files.readAllLines(rejects, StandardCharsets.UTF_8)).isEqualTo(expected);
+        } finally {
+            Files.delete(rejects);
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package com.luxoft.aggregator;
+
+import org.junit.Test;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import static com.luxoft.aggregator.PipelineMetrics.Counter.*;
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Specification on instrumentation of the pipeline.
+ * @author Dmitry Dobrynin
+ */
+public class PipelineMetricsTest {
+    @Test
+    public void countsRecordsAndBytesOfStages() throws IOException {
+        Path input = Files.createTempFile("prices", ".txt");
+        try {
+            new PriceFileGenerator().seed(60).malformedFraction(0.01).weekendFraction(0.1).generate(input, 1 << 20);
+            long lines = Files.lines(input).count();
+            PipelineMetrics metrics = PipelineMetrics.shared();
+            metrics.reset();
+
+            Aggregator agg = new Aggregator(new MappedFileSource(input));
+            PriceBatches.accumulate(agg.attachBatches(StreamDriver::checkNonFutureAndBusinessDayBatches),
+                    CalculationRules.configured()::compile).subscribe();
+            agg.consumeStream();
+
+            assertThat(metrics.count(RECORDS_READ)).isEqualTo(lines);
+            assertThat(metrics.count(RECORDS_PARSED) + metrics.count(RECORDS_FAILED)).isEqualTo(lines);
+            assertThat(metrics.count(RECORDS_FAILED)).isGreaterThan(0);
+            assertThat(metrics.count(RECORDS_FILTERED)).isGreaterThan(0);
+            assertThat(metrics.count(BYTES_READ)).isEqualTo(Files.size(input));
+            assertThat(metrics.latency(PipelineMetrics.Stage.PARSE).count()).isGreaterThan(0);
+            assertThat(metrics.latency(PipelineMetrics.Stage.CALCULATE).count()).isGreaterThan(0);
+        } finally {
+            Files.delete(input);
+        }
+    }
+
+    @Test
+    public void reportsRatesLatenciesAndQueueDepths() {
+        PipelineMetrics metrics = new PipelineMetrics();
+        BlockingQueue<Object> queue = new ArrayBlockingQueue<>(4);
+        queue.add(1);
+        queue.add(2);
+        metrics.registerQueue("test", queue::size);
+        PipelineMetrics.Reporter reporter = metrics.report(60_000, line -> {});
+
+        metrics.add(RECORDS_PARSED, 1000);
+        metrics.record(PipelineMetrics.Stage.WRITE, System.nanoTime() - 5000);
+        String line = reporter.line();
+        reporter.close();
+
+        assertThat(line).contains("records.parsed=", "/s", "write p50/p99/max=", "test.depth=2");
+        assertThat(metrics.getLatencies().get("write.count")).isEqualTo(1L);
+        assertThat(metrics.getCounters().get("records.parsed")).isEqualTo(1000L);
+        metrics.unregisterQueue("test");
+        assertThat(metrics.getQueueDepths().isEmpty()).isTrue();
+    }
+
+    @Test
+    public void queuesOfTheSameNameAreReportedApart() {
+        PipelineMetrics metrics = new PipelineMetrics();
+
+        String first = metrics.registerQueue("shard-0", () -> 1);
+        String second = metrics.registerQueue("shard-0", () -> 2);
+
+        assertThat(first).isEqualTo("shard-0");
+        assertThat(second).isEqualTo("shard-0#2");
+        assertThat(metrics.getQueueDepths().get("shard-0#2")).isEqualTo(2L);
+        metrics.unregisterQueue(first);
+        metrics.unregisterQueue(second);
+        assertThat(metrics.getQueueDepths().isEmpty()).isTrue();
+    }
+
+    @Test
+    public void exposesMetricsOverJmx() throws Exception {
+        PipelineMetrics metrics = PipelineMetrics.shared();
+        metrics.register();
+        metrics.register();
+        metrics.increment(MULTIPLIER_HITS);
+
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName(PipelineMetrics.OBJECT_NAME);
+
+        assertThat(server.isRegistered(name)).isTrue();
+        assertThat((String) server.getAttribute(name, "Summary")).contains("multiplier.hits=");
+    }
+}
@@ -0,0 +1,60 @@
+package com.luxoft.aggregator;
+
+import org.junit.Test;
+import rx.Observable;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.stream.Collectors;
+import static java.time.Month.JANUARY;
+import static java.util.Arrays.asList;
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Specification on batch filters and reductions.
+ * @author Dmitry Dobrynin
+ */
+public class PriceBatchesTest {
+    List<InstrumentPrice> prices = asList("1", "2.5", "3.125", "4", "5.000000001", "6", "7", "8", "9", "10").stream()
+            .map(p -> new InstrumentPrice("Instrument", LocalDate.of(2016, JANUARY, 4), new BigDecimal(p)))
+            .collect(Collectors.toList());
+
+    Observable<PriceBatch> batches = Observable.from(prices).lift(PriceBatch.collect(3));
+
+    @Test
+    public void meanIsTheSameAsMeanOfInstrumentPrices() {
+        assertThat(PriceBatches.mean(batches).toBlocking().single())
+                .isEqualTo(InstrumentPriceUtilities.mean(Observable.from(prices)).toBlocking().single());
+    }
+
+    @Test
+    public void maxIsTheSameAsMaxOfInstrumentPrices() {
+        assertThat(PriceBatches.max(batches).toBlocking().single())
+                .isEqualTo(InstrumentPriceUtilities.max(Observable.from(prices)).toBlocking().single());
+    }
+
+    @Test
+    public void filterKeepsOnlySatisfyingRows() {
+        int day = (int) LocalDate.of(2016, JANUARY, 4).toEpochDay();
+        assertThat(PriceBatches.mean(batches.lift(PriceBatches.filter(PriceBatches.date(d -> d != day))))
+                .isEmpty().toBlocking().single()).isTrue();
+        assertThat(batches.lift(PriceBatches.filter(PriceBatches.instrument(id -> true))).lift(PriceBatch.prices())
+                .toList().toBlocking().single()).isEqualTo(prices);
+    }
+
+    @Test
+    public void collectsPricesNotFittingScaledLongs() {
+        List<InstrumentPrice> oversized = asList("1.0000000001", "1e12", "2").stream()
+                .map(p -> new InstrumentPrice("Instrument", LocalDate.of(2016, JANUARY, 4), new BigDecimal(p)))
+                .collect(Collectors.toList());
+        Observable<PriceBatch> collected = Observable.from(oversized).lift(PriceBatch.collect(2));
+
+        assertThat(PriceBatches.mean(collected).toBlocking().single())
+                .isEqualTo(InstrumentPriceUtilities.mean(Observable.from(oversized)).toBlocking().single());
+        assertThat(PriceBatches.max(collected).toBlocking().single()).isEqualByComparingTo(new BigDecimal("1e12"));
+        assertThat(collected.lift(PriceBatch.prices()).map(InstrumentPrice::getPrice).toList().toBlocking().single())
+                .isEqualTo(asList(new BigDecimal("1.0000000001"), new BigDecimal("1000000000000"),
+                        new BigDecimal("2")));
+    }
+}
@@ -0,0 +1,102 @@
+package com.luxoft.aggregator;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static java.time.Month.*;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+/**
+ * Specification on price file generator.
+ * @author Dmitry Dobrynin
+ */
+public class PriceFileGeneratorTest {
+    private final InstrumentPriceParser parser = new InstrumentPriceParser();
+    private Path first, second;
+
+    @After
+    public void tearDown() throws IOException {
+        if (first != null) Files.deleteIfExists(first);
+        if (second != null) Files.deleteIfExists(second);
+    }
+
+    @Test
+    public void generatesTheSameFileWhateverAmountOfThreads() throws IOException {
+        first = Files.createTempFile("generated", ".txt");
+        second = Files.createTempFile("generated", ".txt");
+        long size = 2 * PriceFileGenerator.BLOCK_SIZE + 12345;
+
+        long lines = new PriceFileGenerator().seed(42).threads(1).generate(first, size);
+        assertThat(new PriceFileGenerator().seed(42).threads(4).generate(second, size)).isEqualTo(lines);
+        assertThat(Files.readAllBytes(second)).isEqualTo(Files.readAllBytes(first));
+        assertThat(Files.size(first) >= size && Files.size(first) < size + 128).isTrue();
+        assertThat(Files.readAllLines(first, StandardCharsets.US_ASCII)).hasSize((int) lines);
+    }
+
+    @Test
+    public void generatesRequestedFractionsOfDates() throws IOException {
+        first = Files.createTempFile("generated", ".txt");
+        LocalDate from = LocalDate.of(2014, JANUARY, 1), to = LocalDate.of(2014, DECEMBER, 19);
+        new PriceFileGenerator().dates(from, to).weekendFraction(0.1).futureFraction(0.05).malformedFraction(0.02)
+                .generate(first, 1 << 20);
+
+        List<String> lines = Files.readAllLines(first, StandardCharsets.US_ASCII);
+        int malformed = 0, weekend = 0, future = 0;
+        for (String line : lines) {
+            Either<InstrumentPrice, Tuple<String, Exception>> parsed = parser.call(line);
+            if (parsed.isRight()) {
+                malformed++;
+            } else if (parsed.left().getDate().isAfter(to)) {
+                future++;
+            } else {
+                assertThat(parsed.left().getDate().isBefore(from.minusDays(7))).isFalse();
+                if (parsed.left().getDate().getDayOfWeek().compareTo(DayOfWeek.SATURDAY) >= 0) weekend++;
+            }
+        }
+        assertThat((double) malformed / lines.size()).isCloseTo(0.02, within(0.005));
+        assertThat((double) future / lines.size()).isCloseTo(0.05, within(0.01));
+        assertThat((double) weekend / lines.size()).isCloseTo(0.1, within(0.01));
+    }
+
+    @Test
+    public void generatesSortedFileOfSkewedInstruments() throws IOException {
+        first = Files.createTempFile("generated", ".txt");
+        new PriceFileGenerator().instruments(100).skew(1.2).sortedness(1).weekendFraction(0).futureFraction(0)
+                .malformedFraction(0).generate(first, 1 << 20);
+
+        LocalDate previous = LocalDate.MIN;
+        Map<String, Integer> counts = new HashMap<>();
+        for (String line : Files.readAllLines(first, StandardCharsets.US_ASCII)) {
+            InstrumentPrice price = parser.parseFrom(line);
+            assertThat(price.getDate().isBefore(previous)).isFalse();
+            assertThat(price.getDate().getDayOfWeek().compareTo(DayOfWeek.SATURDAY) < 0).isTrue();
+            previous = price.getDate();
+            counts.merge(price.getName(), 1, Integer::sum);
+        }
+        assertThat(counts.get("INSTRUMENT1")).isGreaterThan(counts.get("INSTRUMENT2"));
+        assertThat(counts.get("INSTRUMENT2")).isGreaterThan(counts.get("INSTRUMENT10"));
+    }
+
+    @Test
+    public void parsesSizes() {
+        assertThat(PriceFileGenerator.size("100")).isEqualTo(100);
+        assertThat(PriceFileGenerator.size("4k")).isEqualTo(4096);
+        assertThat(PriceFileGenerator.size("2G")).isEqualTo(2L << 30);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void failsOnInvalidFraction() {
+        new PriceFileGenerator().malformedFraction(1.5);
+    }
+}
@@ -0,0 +1,60 @@
+package com.luxoft.aggregator;
+
+import org.junit.Test;
+import rx.Observable;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.time.Month;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Specification on sharded aggregation.
+ * @author Dmitry Dobrynin
+ */
+public class ShardedEngineTest {
+    List<InstrumentPrice> prices = IntStream.range(0, 20000)
+            .mapToObj(i -> new InstrumentPrice("INSTRUMENT" + (i % 7 + 1), LocalDate.of(2014, Month.JANUARY, 1).plusDays(i),
+                    BigDecimal.valueOf(i * 7919L % 10007, i % 4)))
+            .collect(Collectors.toList());
+
+    Observable<PriceBatch> batches = Observable.from(prices).lift(PriceBatch.collect(100));
+    CalculationRules rules = CalculationRules.configured();
+
+    @Test
+    public void shardedResultsAreTheSameAsCalculatedOnSingleThread() {
+        CalculationPlan expected = rules.compile();
+        batches.forEach(expected::accept);
+
+        assertThat(new ShardedEngine<>(3, rules::compile, 2).aggregate(batches)
+                .map(CalculationPlan::results).toBlocking().single()).isEqualTo(expected.results());
+    }
+
+    @Test
+    public void snapshotContainsAllEmittedPrices() {
+        ShardedEngine<CalculationPlan> engine = new ShardedEngine<>(3, rules::compile, 2);
+        CalculationPlan expected = rules.compile();
+        List<?>[] snapshot = new List<?>[1];
+        int[] emitted = new int[1];
+        engine.aggregate(batches.doOnNext(batch -> {
+            if (emitted[0]++ == 100) snapshot[0] = engine.snapshot(CalculationPlan::copy).results();
+            if (emitted[0] <= 100) expected.accept(batch);
+        })).toBlocking().single();
+
+        assertThat(snapshot[0]).isEqualTo(expected.results());
+    }
+
+    @Test
+    public void failureOfStreamIsPropagated() {
+        IllegalStateException failure = new IllegalStateException("Broken stream");
+        Throwable[] received = new Throwable[1];
+        new ShardedEngine<>(2, rules::compile)
+                .aggregate(batches.concatWith(Observable.error(failure)))
+                .subscribe(result -> {}, e -> received[0] = e);
+        assertThat(received[0]).isSameAs(failure);
+    }
+}
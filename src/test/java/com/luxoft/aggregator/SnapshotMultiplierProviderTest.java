@@ -0,0 +1,129 @@
+package com.luxoft.aggregator;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import javax.sql.DataSource;
+import java.math.BigDecimal;
+import java.sql.Timestamp;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import static java.util.Arrays.asList;
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Specification on snapshot multiplier provider.
+ * @author Dmitry Dobrynin
+ */
+public class SnapshotMultiplierProviderTest {
+    DataSource dataSource;
+
+    @Before
+    public void setUp() throws Exception {
+        dataSource = InstrumentPriceUtilities.createDataSource("jdbc:h2:mem:snapshot;DB_CLOSE_DELAY=-1");
+    }
+
+    @After
+    public void tearDown() {
+        new JdbcTemplate(dataSource).execute("drop all objects");
+    }
+
+    @Test
+    public void providesMultipliersOfTheWholeTable() {
+        try (SnapshotMultiplierProvider provider = new SnapshotMultiplierProvider(dataSource)) {
+            assertThat(provider.multiplierFor("INSTRUMENT1")).isEqualTo(Optional.of(new BigDecimal("1.05")));
+            assertThat(provider.multiplierFor("INSTRUMENT5")).isEqualTo(Optional.of(new BigDecimal("2.00")));
+            assertThat(provider.multiplierFor("INSTRUMENT-UNKNOWN")).isEqualTo(Optional.empty());
+        }
+    }
+
+    @Test
+    public void invalidatingReloadsChangedMultiplier() {
+        try (SnapshotMultiplierProvider provider = new SnapshotMultiplierProvider(dataSource, 1, TimeUnit.HOURS)) {
+            new JdbcTemplate(dataSource).update("update INSTRUMENT_PRICE_MODIFIER set multiplier = 3 where name = ?", "INSTRUMENT1");
+            assertThat(provider.multiplierFor("INSTRUMENT1")).isEqualTo(Optional.of(new BigDecimal("1.05")));
+            provider.invalidateCachedInstrument("INSTRUMENT1");
+            assertThat(provider.multiplierFor("INSTRUMENT1")).isEqualTo(Optional.of(new BigDecimal("3.00")));
+        }
+    }
+
+    @Test
+    public void changesAreAppliedInBackground() throws InterruptedException {
+        try (SnapshotMultiplierProvider provider = new SnapshotMultiplierProvider(dataSource, 10, TimeUnit.MILLISECONDS)) {
+            new JdbcTemplate(dataSource).update("insert into INSTRUMENT_PRICE_MODIFIER (name, multiplier) values (?, ?)",
+                    "INSTRUMENT-ADDED", 4);
+            for (int attempt = 0; attempt < 500 && !provider.multiplierFor("INSTRUMENT-ADDED").isPresent(); attempt++)
+                Thread.sleep(10);
+            assertThat(provider.multiplierFor("INSTRUMENT-ADDED")).isEqualTo(Optional.of(new BigDecimal("4.00")));
+        }
+    }
+
+    @Test
+    public void changeLogInvalidatesOnlyChangedInstruments() {
+        ModifierChangeLog changeLog = new ModifierChangeLog(dataSource);
+        JdbcTemplate jdbc = new JdbcTemplate(dataSource);
+        jdbc.update("update INSTRUMENT_PRICE_MODIFIER set multiplier = 3 where name = ?", "INSTRUMENT1");
+        jdbc.update("update INSTRUMENT_PRICE_MODIFIER set multiplier = 4 where name = ?", "INSTRUMENT1");
+        jdbc.update("delete from INSTRUMENT_PRICE_MODIFIER where name = ?", "INSTRUMENT2");
+
+        try (SnapshotMultiplierProvider provider = new SnapshotMultiplierProvider(dataSource, 1, TimeUnit.HOURS)) {
+            jdbc.update("update INSTRUMENT_PRICE_MODIFIER set multiplier = 5 where name = ?", "INSTRUMENT3");
+            assertThat(changeLog.invalidate(provider)).isEqualTo(3);
+            assertThat(changeLog.invalidate(provider)).isEqualTo(0);
+            assertThat(provider.multiplierFor("INSTRUMENT1")).isEqualTo(Optional.of(new BigDecimal("4.00")));
+            assertThat(provider.multiplierFor("INSTRUMENT2")).isEqualTo(Optional.empty());
+            assertThat(provider.multiplierFor("INSTRUMENT3")).isEqualTo(Optional.of(new BigDecimal("5.00")));
+        }
+    }
+
+    @Test
+    public void changeLogReadsChangesCommittedOutOfOrder() {
+        ModifierChangeLog changeLog = new ModifierChangeLog(dataSource);
+        JdbcTemplate jdbc = new JdbcTemplate(dataSource);
+        long version = jdbc.queryForObject("select coalesce(max(version), 0) from INSTRUMENT_PRICE_MODIFIER_CHANGE",
+                Long.class);
+        String insert = "insert into INSTRUMENT_PRICE_MODIFIER_CHANGE (version, name) values (?, ?)";
+
+        try (SnapshotMultiplierProvider provider = new SnapshotMultiplierProvider(dataSource, 1, TimeUnit.HOURS)) {
+            jdbc.update(insert, version + 2, "INSTRUMENT1");
+            assertThat(changeLog.invalidate(provider)).isEqualTo(1);
+            jdbc.update(insert, version + 1, "INSTRUMENT2");
+            assertThat(changeLog.invalidate(provider)).isEqualTo(1);
+            assertThat(changeLog.invalidate(provider)).isEqualTo(0);
+        }
+    }
+
+    @Test
+    public void changeLogSkipsVersionsMissingLongerThanGapTimeout() {
+        ModifierChangeLog changeLog = new ModifierChangeLog(dataSource, 0, TimeUnit.HOURS.toMillis(1));
+        JdbcTemplate jdbc = new JdbcTemplate(dataSource);
+        long version = jdbc.queryForObject("select coalesce(max(version), 0) from INSTRUMENT_PRICE_MODIFIER_CHANGE",
+                Long.class);
+        String insert = "insert into INSTRUMENT_PRICE_MODIFIER_CHANGE (version, name) values (?, ?)";
+
+        try (SnapshotMultiplierProvider provider = new SnapshotMultiplierProvider(dataSource, 1, TimeUnit.HOURS)) {
+            jdbc.update(insert, version + 2, "INSTRUMENT1");
+            assertThat(changeLog.invalidate(provider)).isEqualTo(1);
+            jdbc.update(insert, version + 1, "INSTRUMENT2");
+            assertThat(changeLog.invalidate(provider)).isEqualTo(0);
+        }
+    }
+
+    @Test
+    public void changeLogDeletesChangesOlderThanRetention() {
+        ModifierChangeLog changeLog = new ModifierChangeLog(dataSource, 0, TimeUnit.MINUTES.toMillis(1));
+        JdbcTemplate jdbc = new JdbcTemplate(dataSource);
+        jdbc.update("insert into INSTRUMENT_PRICE_MODIFIER_CHANGE (name, changed) values (?, ?)", "INSTRUMENT1",
+                new Timestamp(System.currentTimeMillis() - TimeUnit.HOURS.toMillis(1)));
+        jdbc.update("insert into INSTRUMENT_PRICE_MODIFIER_CHANGE (name) values (?)", "INSTRUMENT2");
+
+        try (SnapshotMultiplierProvider provider = new SnapshotMultiplierProvider(dataSource, 1, TimeUnit.HOURS)) {
+            assertThat(changeLog.invalidate(provider)).isEqualTo(2);
+        }
+        assertThat(jdbc.query("select name from INSTRUMENT_PRICE_MODIFIER_CHANGE",
+                (resultSet, i) -> resultSet.getString(1))).isEqualTo(asList("INSTRUMENT2"));
+    }
+}